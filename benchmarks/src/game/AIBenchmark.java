@@ -0,0 +1,30 @@
+package game;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Mesure la prise de décision de toutes les IA d'une partie sur une image
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AIBenchmark {
+    @Benchmark
+    public void update(BenchmarkWorld state) {
+        state.restartIfEnded();
+        for (AIController controller : state.controllers) {
+            if (controller.getCharacter() != null && !controller.getCharacter().isToRemove())
+                controller.update();
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package game;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Partie locale entre IA partagée par les benchmarks
+ */
+@State(Scope.Thread)
+public class BenchmarkWorld {
+    @Param({"2_Players_A", "2_Players_B", "3_Players_A", "3_Players_B", "4_Players_A",
+            "Creativity", "Panda", "map_1", "map_2", "map_3"})
+    public String map;
+
+    @Param({"2", "4", "8", "16"})
+    public int players;
+
+    @Param({"HARD"})
+    public String level;
+
+    public static final int FPS = 60;
+
+    public static final int TILE_SIZE = 32;
+
+    Local world;
+
+    List<AIController> controllers;
+
+    /**
+     * Crée une nouvelle partie avant chaque itération
+     * @throws Exception s'il y a une erreur lors du chargement de la carte
+     */
+    @Setup(Level.Iteration)
+    public void setUp() throws Exception {
+        world = new Local(Collections.singletonList(map), TILE_SIZE, FPS, 1, 3600*FPS, 1, 0);
+        controllers = new ArrayList<>(players);
+        for (int i = 0; i < players; i++) {
+            AIController controller = new AIController(AIController.Level.valueOf(level));
+            controllers.add(controller);
+            world.newPlayer(controller);
+        }
+        skipWarmup();
+    }
+
+    /**
+     * Relance un round si le précédent est terminé pour garder une partie en cours
+     */
+    void restartIfEnded() {
+        if (world.isRoundEnded()) {
+            world.nextRound();
+            skipWarmup();
+        }
+    }
+
+    private void skipWarmup() {
+        while (world.getWarmupTimeRemaining() > 0)
+            world.update();
+    }
+}
@@ -0,0 +1,66 @@
+package game;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Mesure la propagation des explosions de bombes dans une partie locale
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ExplosionBenchmark {
+    public static final int RANGE = 3;
+
+    /**
+     * Bombes prêtes à exploser sur toutes les cases libres de la carte
+     */
+    @State(Scope.Thread)
+    public static class Bombs {
+        List<Bomb> bombs;
+
+        int next;
+
+        @Setup(Level.Iteration)
+        public void setUp(BenchmarkWorld state) {
+            MapView map = state.world.getMap();
+            bombs = new ArrayList<>();
+            GridCoordinates gc = new GridCoordinates();
+            for (gc.x = 0; gc.x < map.getColumnCount(); gc.x++) {
+                for (gc.y = 0; gc.y < map.getRowCount(); gc.y++) {
+                    if (!map.isCollidable(gc))
+                        bombs.add(new Bomb(state.world, map.toCenterX(gc), map.toCenterY(gc), RANGE, 0));
+                }
+            }
+            next = 0;
+        }
+
+        Bomb next() {
+            Bomb bomb = bombs.get(next);
+            next = (next+1) % bombs.size();
+            return bomb;
+        }
+    }
+
+    @Benchmark
+    public void explode(BenchmarkWorld state, Bombs bombs) {
+        state.world.explode(Collections.singletonList(bombs.next()));
+        state.world.map.update();
+    }
+}
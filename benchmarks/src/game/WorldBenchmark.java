@@ -0,0 +1,42 @@
+package game;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Mesure le coût d'une image complète et de la mise à jour de la carte
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class WorldBenchmark {
+    @Benchmark
+    public void roundUpdate(BenchmarkWorld state) {
+        state.restartIfEnded();
+        state.world.roundUpdate();
+    }
+
+    @Benchmark
+    public void mapUpdate(BenchmarkWorld state) {
+        state.world.map.update();
+    }
+
+    /**
+     * Mise à jour de la carte en parcourant toutes les cases, pour comparaison
+     */
+    @Benchmark
+    public void mapUpdateFullScan(BenchmarkWorld state) {
+        state.world.map.setFullScan(true);
+        state.world.map.update();
+        state.world.map.setFullScan(false);
+    }
+}
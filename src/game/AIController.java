@@ -4,8 +4,8 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
-
-import gui.PlayerColor;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
 
 
 /** Ce contrôleur est l'intelligence artificielle du jeu */
@@ -17,7 +17,8 @@ public class AIController extends Controller {
         EASY("Facile", 2, 2, 1., 0),
         MEDIUM("Moyen", 4, 4, 2., 1),
         HARD("Difficile", 6, 6, 3., 2),
-        INSANE("Démentiel", 10, 10, 5., 2);
+        INSANE("Démentiel", 10, 10, 5., 2),
+        SEARCH("Stratège", 6, 6, 3., 2);
 
         private final String name;
         private final int movePrediction;
@@ -50,12 +51,30 @@ public class AIController extends Controller {
             return smartPriorities;
         }
 
+        /**
+         * @return true si le niveau choisit ses actions en explorant des copies de la partie
+         */
+        public boolean isSearching() {
+            return this == SEARCH;
+        }
+
         @Override
         public String toString() {
             return name;
         }
     }
 
+    /** Nombre de plans par seconde lorsque rien ne change autour de l'IA, quelle que soit la cadence */
+    public static final int DEFAULT_PLANNING_RATE = 30;
+
+    /** Temps de recherche accordé à chaque décision des niveaux qui explorent des copies de la partie, en nanosecondes */
+    public static final long DEFAULT_SEARCH_TIME = 10000000;
+
+    /** Noms des couleurs des joueurs, dans l'ordre de gui.PlayerColor (sans dépendre d'AWT) */
+    private static final String[] COLOR_NAMES = {"Bleu", "Rouge", "Vert", "Jaune", "Rose", "Turquoise", "Orange", "Violet"};
+
+    private static final Direction[] DIRECTIONS = Direction.values();
+
     private WorldView world;
 
     private Direction currentDirection = null;
@@ -66,20 +85,61 @@ public class AIController extends Controller {
 
     private boolean bombing = false;
 
-    private GridCoordinates aiPosition;
+    private int aiColumn;
+
+    private int aiRow;
 
     private ArrayList<Direction> directions;
 
+    private Random random;
+
     private Level level;
 
+    private AIPlanner planner;
+
+    /** Recherche sur des copies de la partie, null pour les niveaux qui n'en font pas */
+    private AISearch search;
+
+    /** Nombre d'images avant la fin de l'action choisie par la recherche */
+    private int actionTicksRemaining = 0;
+
+    /** Nombre d'images entre deux plans lorsque rien ne change, 0 pour suivre DEFAULT_PLANNING_RATE */
+    private int planningInterval = 0;
+
+    /** Temps de calcul accordé par image en nanosecondes, 0 pour ne pas le limiter */
+    private long timeBudget = 0;
+
+    /** Temps de calcul économisé sur les images précédentes */
+    private long budgetCredit = 0;
+
+    private int ticksSinceLastPlan = 0;
+
+    private int plannedColumn = -1;
+
+    private int plannedRow = -1;
+
+    private boolean plannedSafe;
+
+    private long planCount = 0;
+
+    private long planningTime = 0;
+
+    private long overrunCount = 0;
+
+    private long overrunTime = 0;
+
     /**
      * Construit une intelligence artificielle
      */
     public AIController(Level level) {
         this.level = level;
         setName("IA");
+        random = new GameRandom();
+        planner = new AIPlanner();
+        if (level.isSearching())
+            search = new AISearch(DEFAULT_SEARCH_TIME);
         directions = new ArrayList<Direction>(Arrays.asList(Direction.values()));
-        Collections.shuffle(directions);
+        Collections.shuffle(directions, random);
     }
 
     @Override
@@ -88,10 +148,18 @@ public class AIController extends Controller {
 		currentDirection = null;
 		bombing = false;
 		bombingSimulation = false;
-		if (value.getPlayer() != null) {
-		    PlayerColor[] colors = PlayerColor.values();
-		    setName("IA " + colors[value.getPlayer().getID() % colors.length]);
-		}
+		planner = new AIPlanner();
+		plannedColumn = -1;
+		plannedRow = -1;
+		ticksSinceLastPlan = 0;
+		budgetCredit = 0;
+		actionTicksRemaining = 0;
+		//Suite aléatoire propre à l'IA, tirée de celle de la partie pour que la partie soit rejouable
+		random = new GameRandom(value.getWorldView().getRandom().nextLong());
+		directions = new ArrayList<Direction>(Arrays.asList(Direction.values()));
+		Collections.shuffle(directions, random);
+		if (value.getPlayer() != null)
+		    setName("IA " + COLOR_NAMES[value.getPlayer().getID() % COLOR_NAMES.length]);
     }
 
     @Override
@@ -112,7 +180,12 @@ public class AIController extends Controller {
         }
     }
 
-    private GridCoordinates nextPosition(Direction direction) {
+    /**
+     * Vérifie si un pas dans une direction fait changer l'IA de case
+     * @param direction Direction du pas
+     * @return true si oui, false sinon
+     */
+    private boolean isChangingCell(Direction direction) {
         double x = character.getX();
         double y = character.getY();
 
@@ -133,18 +206,210 @@ public class AIController extends Controller {
             break;
         }
 
-        return world.getMap().toGridCoordinates(x, y);
+        return world.getMap().toColumn(x) != aiColumn || world.getMap().toRow(y) != aiRow;
+    }
+
+    /**
+     * @return Le nombre d'images entre deux plans lorsque rien ne change autour de l'IA
+     */
+    public int getPlanningInterval() {
+        if (planningInterval > 0)
+            return planningInterval;
+        else if (world == null)
+            return 1;
+        else
+            return Math.max(1, Math.round((float)world.getFps()/DEFAULT_PLANNING_RATE));
+    }
+
+    /**
+     * @param planningInterval Nombre d'images entre deux plans lorsque rien ne change, 0 pour suivre DEFAULT_PLANNING_RATE
+     */
+    public void setPlanningInterval(int planningInterval) {
+        if (planningInterval < 0)
+            throw new RuntimeException("Intervalle de planification négatif : " + planningInterval);
+        this.planningInterval = planningInterval;
+    }
+
+    public long getTimeBudget() {
+        return timeBudget;
+    }
+
+    /**
+     * Limite le temps de calcul de l'IA : les plans périodiques sont repoussés tant que le temps
+     * déjà consommé dépasse ce budget, seuls ceux imposés par un changement de case, une menace
+     * ou une collision sont faits. Le temps mesuré dépend de la machine : avec un budget, une
+     * partie n'est plus exactement reproductible à partir de sa graine.
+     * @param timeBudget Temps de calcul accordé par image en nanosecondes, 0 pour ne pas le limiter
+     */
+    public void setTimeBudget(long timeBudget) {
+        if (timeBudget < 0)
+            throw new RuntimeException("Budget de temps négatif : " + timeBudget);
+        this.timeBudget = timeBudget;
+    }
+
+    /**
+     * @return Le temps de recherche accordé à chaque décision en nanosecondes, 0 si le niveau ne fait pas de recherche
+     */
+    public long getSearchTime() {
+        return search != null ? search.getSearchTime() : 0;
+    }
+
+    /**
+     * Règle le temps accordé à chaque décision des niveaux qui explorent des copies de la partie ;
+     * comme avec un budget de temps, la partie n'est alors plus reproductible à partir de sa graine
+     * @param searchTime Temps de recherche en nanosecondes, au moins un futur est toujours exploré
+     */
+    public void setSearchTime(long searchTime) {
+        if (search != null)
+            search.setSearchTime(searchTime);
     }
 
     /**
-     * Met à jour l'intelligence artificielle
+     * @param searchPool Threads qui explorent les futurs, null pour les explorer sur le thread de l'IA ;
+     *                   une IA qui décide déjà dans un groupe de threads les explore sur son thread
+     */
+    public void setSearchPool(ForkJoinPool searchPool) {
+        if (search != null)
+            search.setPool(searchPool);
+    }
+
+    /**
+     * @return Le nombre de futurs explorés par la recherche
+     */
+    public long getSearchIterationCount() {
+        return search != null ? search.getIterationCount() : 0;
+    }
+
+    /**
+     * @return Le nombre de plans calculés
+     */
+    public long getPlanCount() {
+        return planCount;
+    }
+
+    /**
+     * @return Le temps total passé à calculer des plans, en nanosecondes
+     */
+    public long getPlanningTime() {
+        return planningTime;
+    }
+
+    /**
+     * @return Le nombre de plans qui ont dépassé le budget de temps
+     */
+    public long getOverrunCount() {
+        return overrunCount;
+    }
+
+    /**
+     * @return Le temps total de dépassement du budget, en nanosecondes
+     */
+    public long getOverrunTime() {
+        return overrunTime;
+    }
+
+    /**
+     * Met à jour l'intelligence artificielle : le plan précédent est conservé tant que l'IA
+     * reste sur la même case, sans menace nouvelle ni collision, pendant getPlanningInterval() images
      */
     @Override
     public void update() {
         world = character.getWorldView();
-        aiPosition = world.getMap().toGridCoordinates(character.getX(), character.getY());
+        aiColumn = world.getMap().toColumn(character.getX());
+        aiRow = world.getMap().toRow(character.getY());
+        if (search != null) {
+            decide();
+            return;
+        }
+        planner.update(world, character, aiColumn, aiRow);
+
+        ticksSinceLastPlan++;
+        if (timeBudget > 0)
+            budgetCredit = Math.min(budgetCredit + timeBudget, timeBudget*getPlanningInterval());
+
+        if (!isPlanningNeeded())
+            return;
+
+        long start = System.nanoTime();
+        plan(ticksSinceLastPlan);
+        long elapsed = System.nanoTime() - start;
+
+        ticksSinceLastPlan = 0;
+        plannedColumn = aiColumn;
+        plannedRow = aiRow;
+        plannedSafe = isSafe(aiColumn, aiRow);
+
+        planCount++;
+        planningTime += elapsed;
+        if (timeBudget > 0) {
+            budgetCredit -= elapsed;
+            if (elapsed > timeBudget) {
+                overrunCount++;
+                overrunTime += elapsed - timeBudget;
+            }
+        }
+    }
+
+    /**
+     * @return true si l'IA va explorer des futurs lors de sa prochaine mise à jour, et a donc
+     *         besoin d'une copie de la partie
+     */
+    boolean isForkNeeded() {
+        return search != null && actionTicksRemaining <= 1;
+    }
+
+    /**
+     * Choisit une nouvelle action par une recherche sur des copies de la partie lorsque la
+     * précédente est terminée, c'est-à-dire toutes les AISearch.getActionTicks() images
+     */
+    private void decide() {
+        if (--actionTicksRemaining > 0)
+            return;
+
+        long start = System.nanoTime();
+        //La copie est prise une fois par image par la partie, à défaut l'IA prend la sienne
+        WorldFork fork = character.world.getDecisionFork();
+        if (fork == null)
+            fork = new WorldFork(character.world, 0);
+        int action = search.decide(fork, character, random);
+        long elapsed = System.nanoTime() - start;
+
+        bombing = action == AISearch.BOMB;
+        currentDirection = action < AISearch.STAY ? DIRECTIONS[action] : null;
+        actionTicksRemaining = AISearch.getActionTicks(world);
+
+        planCount++;
+        planningTime += elapsed;
+        if (elapsed > search.getSearchTime()) {
+            overrunCount++;
+            overrunTime += elapsed - search.getSearchTime();
+        }
+    }
+
+    /**
+     * Détermine si le plan précédent doit être recalculé
+     * @return true si oui, false sinon
+     */
+    private boolean isPlanningNeeded() {
+        if (aiColumn != plannedColumn || aiRow != plannedRow) //Changement de case
+            return true;
+
+        boolean safe = isSafe(aiColumn, aiRow);
+        if (!safe || safe != plannedSafe) //Menace
+            return true;
+
+        if (character.isColliding(currentDirection, character.getMaxSpeed()))
+            return true;
+
+        return ticksSinceLastPlan >= getPlanningInterval() && (timeBudget == 0 || budgetCredit > 0);
+    }
 
-        if (isReadyToBomb()) {
+    /**
+     * Calcule un nouveau plan
+     * @param ticks Nombre d'images écoulées depuis le plan précédent
+     */
+    private void plan(int ticks) {
+        if (isReadyToBomb(ticks)) {
             bombing = true;
             return;
         }
@@ -152,11 +417,9 @@ public class AIController extends Controller {
         if (currentDirection == null)
             setCurrentDirection(character.getDirection());
 
-        GridCoordinates nextPosition = nextPosition(currentDirection);
-
-        timeElapsedSinceLastShuffle++;
+        timeElapsedSinceLastShuffle += ticks;
         if (timeElapsedSinceLastShuffle >= 0.5*world.getFps()) {
-            if (Math.random() < 0.5/world.getFps())
+            if (random.nextDouble() < 0.5*ticks/world.getFps())
                 shuffleDirections();
         }
 
@@ -164,19 +427,52 @@ public class AIController extends Controller {
             shuffleDirections();
             if (!turnSafely(level.getMovePrediction()))
                 turnRandomly();
-        } else if (!aiPosition.equals(nextPosition)) {
-            turnSafely(level.getMovePrediction());
+        } else if (isChangingCell(currentDirection)) {
+            if (!seekTarget())
+                turnSafely(level.getMovePrediction());
         }
     }
 
+    /**
+     * Se dirige vers le bon bonus le plus proche ou, pour les IA les plus fines, vers
+     * l'emplacement de bombe le plus proche, si la case suivante est sûre
+     * @return true si une direction a été choisie, false sinon
+     */
+    private boolean seekTarget() {
+        if (level.getSmartPriorities() < 1 || !isSafeToStand())
+            return false;
+
+        Direction target = planner.getBonusDirection(level.getMovePrediction());
+        if (target == null && level.getSmartPriorities() >= 2 &&
+                character.getBombCount() < character.getBombMax() &&
+                world.getSuddenDeathType() != SuddenDeathType.BOMBS)
+            target = planner.getBombingDirection(level.getMovePrediction(),
+                    Math.min(character.getRange(), level.getBombPrediction()));
+
+        if (target == null || character.isColliding(target, character.getMaxSpeed()))
+            return false;
+
+        DirectionInfo info = planner.getDirectionInfo(target, level.getMovePrediction(), getPriorities());
+        if (info.safe <= 0 || info.step > 1 || info.badBonus > 0)
+            return false;
+
+        setCurrentDirection(target);
+        return true;
+    }
+
     private void shuffleDirections() {
-        if (isSafe(aiPosition)) {
-            Collections.shuffle(directions);
+        if (isSafe(aiColumn, aiRow)) {
+            Collections.shuffle(directions, random);
             timeElapsedSinceLastShuffle = 0;
             updateDirectionList();
         }
     }
 
+    private void setBombingSimulation(boolean value) {
+        bombingSimulation = value;
+        planner.setBombingSimulation(value);
+    }
+
     private void setCurrentDirection(Direction direction) {
         currentDirection = direction;
         updateDirectionList();
@@ -193,8 +489,8 @@ public class AIController extends Controller {
     }
 
     private boolean isSafeToStand() {
-        if (isSafe(aiPosition)) {
-            if (world.getMap().getTileType(aiPosition) != TileType.Frozen ||
+        if (isSafe(aiColumn, aiRow)) {
+            if (world.getMap().getTileType(aiColumn, aiRow) != TileType.Frozen ||
                     character.getSpeed() == 0.)
                 return true;
         }
@@ -222,15 +518,15 @@ public class AIController extends Controller {
         DirectionInfo safest = null;
         Direction direction = null;
 
-        for (Direction nextDirection : directions) {
-            if (character.isColliding(nextDirection, character.getMaxSpeed()))
-                continue;
-
+        for (int i = 0; i < directions.size(); i++) {
+            Direction nextDirection = directions.get(i);
             if (nextDirection == exclude)
                 continue;
 
-            DirectionInfo next = isDirectionSafe(aiPosition, nextDirection, maxStep);
-            if (next.compareTo(safest, getPriorities()) > 0) {
+            //Le plan est en cache, la collision n'est testée que pour une direction meilleure
+            DirectionInfo next = planner.getDirectionInfo(nextDirection, maxStep, getPriorities());
+            if (next.compareTo(safest, getPriorities()) > 0 &&
+                    !character.isColliding(nextDirection, character.getMaxSpeed())) {
                 safest = next;
                 direction = nextDirection;
             }
@@ -248,7 +544,8 @@ public class AIController extends Controller {
     }
 
     private void turnRandomly() {
-        for (Direction direction : directions) {
+        for (int i = 0; i < directions.size(); i++) {
+            Direction direction = directions.get(i);
             if (currentDirection != direction && !character.isColliding(direction, character.getMaxSpeed())) {
                 setCurrentDirection(direction);
                 return;
@@ -256,102 +553,16 @@ public class AIController extends Controller {
         }
     }
 
-    private int getThreateningBombTimeRemaining(GridCoordinates target) {
-        int timeRemaining = -1;
-        GridCoordinates temp = new GridCoordinates(target);
-
-        for(Direction dir : Direction.values()){
-            temp = target; // Pas besoin de copier car neighbor donne une autre instance
-            while(!world.getMap().isCollidable(temp)){
-                Bomb bomb = world.getMap().getFirstBomb(temp);
-
-                if(bomb != null && GridCoordinates.distance(target,temp) <= bomb.getRange()) {
-                    if (timeRemaining < 0 || bomb.getTimeRemaining() < timeRemaining)
-                        timeRemaining = bomb.getTimeRemaining();
-                }
-
-                if (bombingSimulation && temp.equals(aiPosition)) {
-                    if (GridCoordinates.distance(target, aiPosition) <= character.getRange()) {
-                        if (timeRemaining == -1)
-                            timeRemaining = (int)World.TIME_BEFORE_EXPLOSION*world.getFps();
-                        else
-                            timeRemaining = Math.min((int)World.TIME_BEFORE_EXPLOSION*world.getFps(), timeRemaining);
-                    }
-                }
-
-                temp = temp.neighbor(dir);
-            }
-        }
-
-        return timeRemaining;
+    private boolean isSafe(int column, int row) {
+        return planner.isSafe(column, row);
     }
 
-    /**
-     * Vérifie la dangerosité d'une tuile
-     * @param target La tuile à vérifier
-     * @return true Si la tuile est sécurisée, false sinon
-     */
-    private boolean isSafe(GridCoordinates target) {
-        if (world.getMap().isCollidable(target))
-            return true;
-
-        if(world.getMap().isExploding(target)){
-            return false;
-        }
-
-        Bomb bomb = null;
-        GridCoordinates temp = new GridCoordinates(target);
-
-        for(Direction dir : Direction.values()){
-            temp = target; // Pas besoin de copier car neighbor donne une autre instance
-            while(!world.getMap().isCollidable(temp)){
-                bomb = world.getMap().getFirstBomb(temp);
-
-                if(bomb != null && GridCoordinates.distance(target,temp) <= bomb.getRange())
-                    return false;
-
-                if (bombingSimulation && temp.equals(aiPosition)) {
-                    if (GridCoordinates.distance(target, aiPosition) <= character.getRange())
-                        return false;
-                }
-
-                temp = temp.neighbor(dir);
-            }
-        }
-
-        return true;
-    }
-
-    /**
-     * Vérifie si une tuile est vide
-     * @param gc les coordonnées de grille de la tuile
-     * @return true si oui, false sinon
-     */
-    private boolean isEmpty(GridCoordinates gc) {
-        return !world.getMap().isCollidable(gc) && !world.getMap().hasBomb(gc);
-    }
-
-    /**
-     * Vérifie si une tuile est vide et sécurisée
-     * @param gc les coordonnées de grille de la tuile
-     * @return true si oui, false sinon
-     */
-    private boolean isEmptyAndSafe(GridCoordinates gc) {
-        return isEmpty(gc) && isSafe(gc);
-    }
-
-    private boolean isBadBonus(GridCoordinates gc) {
-        if (!world.getMap().isInsideMap(gc) || world.getMap().getTileType(gc) != TileType.Bonus)
-            return false;
-
-        return !world.getMap().getBonusType(gc).isGood();
+    private boolean isEmpty(int column, int row) {
+        return planner.isEmpty(column, row);
     }
 
-    private boolean isGoodBonus(GridCoordinates gc) {
-        if (!world.getMap().isInsideMap(gc) || world.getMap().getTileType(gc) != TileType.Bonus)
-            return false;
-
-        return world.getMap().getBonusType(gc).isGood();
+    private boolean isGoodBonus(int column, int row) {
+        return planner.isGoodBonus(column, row);
     }
 
     private boolean hasTarget(int range) {
@@ -359,26 +570,29 @@ public class AIController extends Controller {
         boolean destroyBreakable = false;
         boolean hitCharacter = false;
 
-        for (Direction direction : Direction.values()) {
-        	GridCoordinates position = aiPosition;
+        for (Direction direction : DIRECTIONS) {
+            int column = aiColumn;
+            int row = aiRow;
             for (int i = 0; i < range; i++) {
-            	position = position.neighbor(direction);
-                if (!world.getMap().isInsideMap(position))
-                	break;
-                else if (world.getMap().getTileType(position) == TileType.Breakable) {
+                column += direction.getDeltaX();
+                row += direction.getDeltaY();
+                if (!world.getMap().isInsideMap(column, row))
+                    break;
+                else if (world.getMap().getTileType(column, row) == TileType.Breakable) {
                     destroyBreakable = true;
                     break;
                 }
-                else if (!isEmpty(position))
+                else if (!isEmpty(column, row))
                     break;
-                else if (isGoodBonus(position))
-                	destroyGoodBonus = true;
+                else if (isGoodBonus(column, row))
+                    destroyGoodBonus = true;
                 else {
-                	List<Entity> entities = world.getMap().getEntities(position);
-                	for (Entity entity : entities) {
-                		if (entity instanceof Character && entity != character)
-                			return true;
-                	}
+                    List<Entity> entities = world.getMap().getEntities(column, row);
+                    for (int j = 0; j < entities.size(); j++) {
+                        Entity entity = entities.get(j);
+                        if (entity instanceof Character && entity != character)
+                            return true;
+                    }
                 }
             }
         }
@@ -393,22 +607,23 @@ public class AIController extends Controller {
 
     /**
      * Détermine si l'IA peut poser une bombe dans la situation actuelle
+     * @param ticks Nombre d'images écoulées depuis le plan précédent
      * @return true si oui, false sinon
      */
-    private boolean isReadyToBomb() {
+    private boolean isReadyToBomb(int ticks) {
         if (world.getSuddenDeathType() == SuddenDeathType.BOMBS)
             return false;
 
-        if(character.getBombCount() < character.getBombMax() && isSafe(aiPosition) &&
-                Math.random() < level.getBombAggressivity()/world.getFps() &&
+        if(character.getBombCount() < character.getBombMax() && isSafe(aiColumn, aiRow) &&
+                random.nextDouble() < level.getBombAggressivity()*ticks/world.getFps() &&
                 hasTarget(Math.min(character.getRange(), level.getBombPrediction()))) {
             Direction beforeSimulation = currentDirection;
-            bombingSimulation = true;
+            setBombingSimulation(true);
             if (turnSafely(level.getBombPrediction(), 1)) {
-                bombingSimulation = false;
+                setBombingSimulation(false);
                 return true;
             } else {
-                bombingSimulation = false;
+                setBombingSimulation(false);
                 setCurrentDirection(beforeSimulation);
             }
         }
@@ -416,7 +631,7 @@ public class AIController extends Controller {
         return false;
     }
 
-    private static class DirectionInfo {
+    static class DirectionInfo {
         public int safe = -3;
         public int step = 0;
         public int badBonus = 0;
@@ -430,6 +645,10 @@ public class AIController extends Controller {
         }
 
         public DirectionInfo(int safe, int step, int badBonus, int goodBonus) {
+            set(safe, step, badBonus, goodBonus);
+        }
+
+        void set(int safe, int step, int badBonus, int goodBonus) {
             this.safe = safe;
             this.step = step;
             this.badBonus = badBonus;
@@ -484,98 +703,38 @@ public class AIController extends Controller {
         }
     }
 
+    private static final DirectionInfo.Attribute[] SAFE_PRIORITIES = {
+            DirectionInfo.Attribute.Safe,
+            DirectionInfo.Attribute.Step
+            };
+
+    private static final DirectionInfo.Attribute[] STEP_PRIORITIES = {
+            DirectionInfo.Attribute.Safe,
+            DirectionInfo.Attribute.Step,
+            DirectionInfo.Attribute.BadBonus,
+            DirectionInfo.Attribute.GoodBonus
+            };
+
+    private static final DirectionInfo.Attribute[] BONUS_PRIORITIES = {
+            DirectionInfo.Attribute.Safe,
+            DirectionInfo.Attribute.BadBonus,
+            DirectionInfo.Attribute.GoodBonus,
+            DirectionInfo.Attribute.Step
+            };
+
     private DirectionInfo.Attribute[] getPriorities() {
         switch (level.getSmartPriorities()) {
         case 0:
-            return new DirectionInfo.Attribute[] {
-                    DirectionInfo.Attribute.Safe,
-                    DirectionInfo.Attribute.Step
-                    };
+            return SAFE_PRIORITIES;
         case 1:
-            return new DirectionInfo.Attribute[] {
-                    DirectionInfo.Attribute.Safe,
-                    DirectionInfo.Attribute.Step,
-                    DirectionInfo.Attribute.BadBonus,
-                    DirectionInfo.Attribute.GoodBonus
-                    };
+            return STEP_PRIORITIES;
         case 2:
-            if (world.getSuddenDeathType() == SuddenDeathType.BOMBS) {
-                return new DirectionInfo.Attribute[] {
-                        DirectionInfo.Attribute.Safe,
-                        DirectionInfo.Attribute.Step,
-                        DirectionInfo.Attribute.BadBonus,
-                        DirectionInfo.Attribute.GoodBonus,
-                        };
-            } else {
-                return new DirectionInfo.Attribute[] {
-                        DirectionInfo.Attribute.Safe,
-                        DirectionInfo.Attribute.BadBonus,
-                        DirectionInfo.Attribute.GoodBonus,
-                        DirectionInfo.Attribute.Step
-                        };
-            }
+            if (world.getSuddenDeathType() == SuddenDeathType.BOMBS)
+                return STEP_PRIORITIES;
+            else
+                return BONUS_PRIORITIES;
         default:
             return null;
         }
     }
-
-    private DirectionInfo isDirectionSafe(GridCoordinates position, Direction direction, int maxStep) {
-        return isDirectionSafe(position, direction, maxStep, 0);
-    }
-
-    private DirectionInfo isDirectionSafe(GridCoordinates position, Direction direction, int maxStep, int step) {
-        GridCoordinates nextPosition = position.neighbor(direction);
-        DirectionInfo ret = new DirectionInfo(0, 1, isBadBonus(nextPosition) ? 1 : 0, isGoodBonus(nextPosition) ? 1 : 0);
-
-        if (!isEmpty(nextPosition))
-            ret.safe = -1;
-        else if (world.getMap().isExploding(nextPosition)) {
-            if (world.getMap().getExplosionTimeRemaining(nextPosition) <= (step-1)*world.getMap().getTileSize()/character.getMaxSpeed())
-                ret.safe = 1;
-            else
-                ret.safe = -2;
-        }
-        else {
-            int timeRemaining = getThreateningBombTimeRemaining(nextPosition);
-
-            if (timeRemaining < 0) { //Safe
-                ret.safe = 1;
-
-                for (int i = step; i < maxStep; i++) { //Compte les bons bonus si l'on suit cette voie
-                	nextPosition = nextPosition.neighbor(direction);
-
-                	if (!isEmpty(nextPosition) || world.getMap().isExploding(nextPosition) ||
-                	        isBadBonus(nextPosition) || !isSafe(nextPosition))
-                    	break;
-                    else if (isGoodBonus(nextPosition))
-                    	ret.goodBonus++;
-                }
-            } else if (step+1 >= maxStep) { //Inconnu mais nb de pas max atteint
-                ret.safe = 0;
-            } else { //Vide mais unsafe
-                if ((step+1)*world.getMap().getTileSize()/character.getMaxSpeed() > timeRemaining) {
-                    ret.safe = -2;
-                }
-                else {
-                    DirectionInfo safest = null;
-
-                    for (Direction nextDirection : directions) {
-                        if (Direction.areOpposite(direction, nextDirection))
-                            continue;
-
-                        DirectionInfo next = isDirectionSafe(nextPosition, nextDirection, maxStep, step+1);
-                        if (next.compareTo(safest, getPriorities()) > 0)
-                            safest = next;
-                    }
-
-                    ret.safe = safest.safe;
-                    ret.step += safest.step;
-                    ret.badBonus += safest.badBonus;
-                    ret.goodBonus += safest.goodBonus;
-                }
-            }
-        }
-
-        return ret;
-    }
 }
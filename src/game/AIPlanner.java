@@ -0,0 +1,484 @@
+package game;
+
+import java.util.Arrays;
+
+import game.AIController.DirectionInfo;
+
+/**
+ * Planificateur de l'intelligence artificielle
+ * La grille est parcourue en largeur depuis la case de l'IA ; chaque case atteinte est datée
+ * par le nombre d'images nécessaires pour y arriver, ce qui permet de savoir si elle sera
+ * encore traversable au passage de l'IA. Chaque case n'est visitée qu'une fois par parcours,
+ * au plus tôt, au lieu d'explorer tous les chemins possibles.
+ * Les résultats sont conservés tant que l'IA reste sur la même case et que la carte ne change
+ * pas, et s'ils dépendent du temps restant avant un souffle ou la fin d'une explosion, tant que
+ * ce temps laisse la même conclusion.
+ */
+class AIPlanner {
+    private static final Direction[] DIRECTIONS = Direction.values();
+
+    private WorldView world;
+
+    private MapView map;
+
+    private Character character;
+
+    private int column;
+
+    private int row;
+
+    private boolean bombingSimulation;
+
+    //État du parcours en cours
+    private int[] visited = new int[0];
+
+    private int stamp;
+
+    private int[] queue;
+
+    private int[] steps;
+
+    private int[] badBonuses;
+
+    private int[] goodBonuses;
+
+    private byte[] lastDirections;
+
+    private byte[] firstDirections;
+
+    private double framesPerCell;
+
+    private Search current;
+
+    private DirectionInfo.Attribute[] priorities;
+
+    //Meilleur chemin du parcours en cours, écrit dans le résultat conservé de la direction
+    private DirectionInfo best;
+
+    private boolean hasBest;
+
+    private final DirectionInfo candidate = new DirectionInfo(0, 0, 0, 0);
+
+    //Résultats conservés, réutilisés d'un parcours à l'autre
+    //Un emplacement pour le déplacement normal, un autre pour la simulation d'une bombe
+    private final Search[] directionSearches = {new Search(), new Search()};
+
+    private final DirectionInfo[][] directionInfos = new DirectionInfo[2][DIRECTIONS.length];
+
+    private final boolean[][] evaluated = new boolean[2][DIRECTIONS.length];
+
+    private final Search bonusSearch = new Search();
+
+    private Direction bonusDirection;
+
+    private final Search bombingSearch = new Search();
+
+    private Direction bombingDirection;
+
+    /**
+     * Paramètres d'un parcours, pour savoir si son résultat est toujours valable
+     */
+    private class Search {
+        private MapView map;
+        private int cell = -1;
+        private long version;
+        private int validUntil;
+        private boolean bombingSimulation;
+        private int maxStep;
+        private int range;
+        private double framesPerCell;
+        private int characterRange;
+        private DirectionInfo.Attribute[] priorities;
+
+        boolean isValid(int maxStep, int range, DirectionInfo.Attribute[] priorities) {
+            return this.map == AIPlanner.this.map &&
+                   cell == AIPlanner.this.map.toCellIndex(column, row) &&
+                   version == AIPlanner.this.map.getVersion() &&
+                   AIPlanner.this.map.getTick() <= validUntil &&
+                   bombingSimulation == AIPlanner.this.bombingSimulation &&
+                   this.maxStep == maxStep &&
+                   this.range == range &&
+                   framesPerCell == getFramesPerCell() &&
+                   characterRange == character.getRange() &&
+                   this.priorities == priorities;
+        }
+
+        void start(int maxStep, int range, DirectionInfo.Attribute[] priorities) {
+            this.map = AIPlanner.this.map;
+            cell = AIPlanner.this.map.toCellIndex(column, row);
+            version = AIPlanner.this.map.getVersion();
+            validUntil = Integer.MAX_VALUE;
+            bombingSimulation = AIPlanner.this.bombingSimulation;
+            this.maxStep = maxStep;
+            this.range = range;
+            framesPerCell = getFramesPerCell();
+            characterRange = character.getRange();
+            this.priorities = priorities;
+            current = this;
+        }
+
+        /**
+         * Limite la validité du résultat, qui dépend d'un temps restant
+         * @param ticks Nombre d'images pendant lesquelles la comparaison reste vraie
+         */
+        void expire(int ticks) {
+            validUntil = Math.min(validUntil, AIPlanner.this.map.getTick() + Math.max(0, ticks));
+        }
+    }
+
+    /**
+     * Met à jour la situation de l'IA, à appeler à chaque image avant toute requête
+     * @param world Vue du monde
+     * @param character Personnage de l'IA
+     * @param column Colonne de l'IA
+     * @param row Ligne de l'IA
+     */
+    void update(WorldView world, Character character, int column, int row) {
+        this.world = world;
+        this.map = world.getMap();
+        this.character = character;
+        this.column = column;
+        this.row = row;
+    }
+
+    /**
+     * Active ou désactive la simulation d'une bombe posée par l'IA sur sa case
+     * @param bombingSimulation true pour l'activer
+     */
+    void setBombingSimulation(boolean bombingSimulation) {
+        this.bombingSimulation = bombingSimulation;
+    }
+
+    private double getFramesPerCell() {
+        return map.getTileSize()/character.getMaxSpeed();
+    }
+
+    /**
+     * Évalue le meilleur chemin commençant par une direction
+     * @param direction Direction du premier pas
+     * @param maxStep Nombre de pas maximum
+     * @param priorities Critères de comparaison des chemins, par ordre de priorité
+     * @return Les informations du meilleur chemin
+     */
+    DirectionInfo getDirectionInfo(Direction direction, int maxStep, DirectionInfo.Attribute[] priorities) {
+        int slot = bombingSimulation ? 1 : 0;
+        Search search = directionSearches[slot];
+        if (!search.isValid(maxStep, 0, priorities)) {
+            search.start(maxStep, 0, priorities);
+            Arrays.fill(evaluated[slot], false);
+        }
+
+        //Une direction n'est évaluée que si elle est demandée
+        DirectionInfo info = directionInfos[slot][direction.ordinal()];
+        if (info == null) {
+            info = new DirectionInfo(0, 0, 0, 0);
+            directionInfos[slot][direction.ordinal()] = info;
+        }
+        if (!evaluated[slot][direction.ordinal()]) {
+            current = search;
+            searchDirection(direction, maxStep, priorities, info);
+            evaluated[slot][direction.ordinal()] = true;
+        }
+        return info;
+    }
+
+    /**
+     * @param maxStep Nombre de pas maximum
+     * @return La direction du bon bonus le plus proche accessible par des cases sûres, null s'il n'y en a pas
+     */
+    Direction getBonusDirection(int maxStep) {
+        if (!bonusSearch.isValid(maxStep, 0, null))
+            bonusDirection = searchTarget(bonusSearch, false, maxStep, 0);
+        return bonusDirection;
+    }
+
+    /**
+     * @param maxStep Nombre de pas maximum
+     * @param range Portée de la bombe envisagée
+     * @return La direction de la case sûre la plus proche d'où une bombe détruirait un bloc, null s'il n'y en a pas
+     */
+    Direction getBombingDirection(int maxStep, int range) {
+        if (!bombingSearch.isValid(maxStep, range, null))
+            bombingDirection = searchTarget(bombingSearch, true, maxStep, range);
+        return bombingDirection;
+    }
+
+    private void newSearch() {
+        int cellCount = map.getColumnCount()*map.getRowCount();
+        if (visited.length != cellCount) {
+            visited = new int[cellCount];
+            queue = new int[cellCount];
+            steps = new int[cellCount];
+            badBonuses = new int[cellCount];
+            goodBonuses = new int[cellCount];
+            lastDirections = new byte[cellCount];
+            firstDirections = new byte[cellCount];
+            stamp = 0;
+        }
+
+        stamp++;
+        if (stamp == 0) {
+            Arrays.fill(visited, 0);
+            stamp = 1;
+        }
+
+        framesPerCell = getFramesPerCell();
+        visited[map.toCellIndex(column, row)] = stamp;
+    }
+
+    private void searchDirection(Direction first, int maxStep, DirectionInfo.Attribute[] priorities, DirectionInfo result) {
+        newSearch();
+        this.priorities = priorities;
+        best = result;
+        hasBest = false;
+
+        int head = 0;
+        int tail = visit(column + first.getDeltaX(), row + first.getDeltaY(), first, 1, 0, 0, maxStep, 0);
+        while (head < tail) {
+            int cell = queue[head++];
+            int c = map.getCellColumn(cell);
+            int r = map.getCellRow(cell);
+            Direction last = DIRECTIONS[lastDirections[cell]];
+            for (Direction direction : DIRECTIONS) {
+                if (Direction.areOpposite(last, direction))
+                    continue;
+
+                tail = visit(c + direction.getDeltaX(), r + direction.getDeltaY(), direction,
+                             steps[cell]+1, badBonuses[cell], goodBonuses[cell], maxStep, tail);
+            }
+        }
+
+        if (!hasBest) //Toutes les cases accessibles ont déjà été atteintes par un chemin plus court
+            best.set(-2, maxStep, 0, 0);
+    }
+
+    /**
+     * Évalue une case atteinte par le parcours et l'ajoute à la file si le chemin doit continuer
+     * @return La nouvelle fin de la file
+     */
+    private int visit(int c, int r, Direction direction, int step, int badBonus, int goodBonus, int maxStep, int tail) {
+        if (isBadBonus(c, r))
+            badBonus++;
+        if (isGoodBonus(c, r))
+            goodBonus++;
+
+        if (!isEmpty(c, r)) {
+            offer(-1, step, badBonus, goodBonus);
+            return tail;
+        }
+
+        int cell = map.toCellIndex(c, r);
+        if (visited[cell] == stamp)
+            return tail;
+        visited[cell] = stamp;
+
+        if (map.isExploding(c, r)) {
+            double margin = map.getExplosionTimeRemaining(c, r) - (step-2)*framesPerCell;
+            if (margin <= 0) {
+                offer(1, step, badBonus, goodBonus);
+            } else {
+                current.expire((int)Math.ceil(margin) - 1);
+                offer(-2, step, badBonus, goodBonus);
+            }
+            return tail;
+        }
+
+        int timeRemaining = getThreatTimeRemaining(c, r);
+        if (timeRemaining < 0) { //Sûre
+            int nextColumn = c;
+            int nextRow = r;
+            for (int i = step-1; i < maxStep; i++) { //Compte les bons bonus si l'on suit cette voie
+                nextColumn += direction.getDeltaX();
+                nextRow += direction.getDeltaY();
+
+                if (!isEmpty(nextColumn, nextRow) || map.isExploding(nextColumn, nextRow) ||
+                        isBadBonus(nextColumn, nextRow) || !isSafe(nextColumn, nextRow))
+                    break;
+                else if (isGoodBonus(nextColumn, nextRow))
+                    goodBonus++;
+            }
+            offer(1, step, badBonus, goodBonus);
+            return tail;
+        }
+
+        if (step >= maxStep) { //Inconnue mais nombre de pas maximum atteint
+            offer(0, step, badBonus, goodBonus);
+        } else if (step*framesPerCell > timeRemaining) { //Atteinte par le souffle avant l'IA
+            offer(-2, step, badBonus, goodBonus);
+        } else { //Vide mais menacée : le chemin continue
+            current.expire((int)Math.floor(timeRemaining - step*framesPerCell));
+            steps[cell] = step;
+            badBonuses[cell] = badBonus;
+            goodBonuses[cell] = goodBonus;
+            lastDirections[cell] = (byte)direction.ordinal();
+            queue[tail++] = cell;
+        }
+
+        return tail;
+    }
+
+    private void offer(int safe, int step, int badBonus, int goodBonus) {
+        candidate.set(safe, step, badBonus, goodBonus);
+        if (!hasBest || candidate.compareTo(best, priorities) > 0) {
+            best.set(safe, step, badBonus, goodBonus);
+            hasBest = true;
+        }
+    }
+
+    /**
+     * Cherche la case sûre la plus proche qui vérifie un critère, en ne traversant que des cases sûres
+     * @param search Paramètres du parcours
+     * @param bombing true pour chercher un emplacement de bombe, false pour un bon bonus
+     * @return La direction du premier pas vers la case trouvée, null s'il n'y en a pas
+     */
+    private Direction searchTarget(Search search, boolean bombing, int maxStep, int range) {
+        search.start(maxStep, range, null);
+        newSearch();
+
+        int head = 0;
+        int tail = 0;
+        queue[tail++] = map.toCellIndex(column, row);
+        steps[queue[0]] = 0;
+        while (head < tail) {
+            int cell = queue[head++];
+            int step = steps[cell]+1;
+            if (step > maxStep)
+                break;
+
+            for (Direction direction : DIRECTIONS) {
+                int c = map.getCellColumn(cell) + direction.getDeltaX();
+                int r = map.getCellRow(cell) + direction.getDeltaY();
+                if (!isEmpty(c, r) || isBadBonus(c, r))
+                    continue;
+
+                int next = map.toCellIndex(c, r);
+                if (visited[next] == stamp)
+                    continue;
+                visited[next] = stamp;
+
+                //Seules les cases sûres sont traversées, le résultat ne dépend donc pas de l'image
+                if (map.isExploding(c, r) || getThreatTimeRemaining(c, r) >= 0)
+                    continue;
+
+                firstDirections[next] = step == 1 ? (byte)direction.ordinal() : firstDirections[cell];
+                if (bombing ? hasBreakableTarget(c, r, range) : isGoodBonus(c, r))
+                    return DIRECTIONS[firstDirections[next]];
+
+                steps[next] = step;
+                queue[tail++] = next;
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Vérifie si une bombe posée sur une case détruirait un bloc sans détruire de bon bonus
+     */
+    private boolean hasBreakableTarget(int bombColumn, int bombRow, int range) {
+        boolean destroyBreakable = false;
+
+        for (Direction direction : DIRECTIONS) {
+            int c = bombColumn;
+            int r = bombRow;
+            for (int i = 0; i < range; i++) {
+                c += direction.getDeltaX();
+                r += direction.getDeltaY();
+                if (!map.isInsideMap(c, r))
+                    break;
+                else if (map.getTileType(c, r) == TileType.Breakable) {
+                    destroyBreakable = true;
+                    break;
+                }
+                else if (!isEmpty(c, r))
+                    break;
+                else if (isGoodBonus(c, r))
+                    return false;
+            }
+        }
+
+        return destroyBreakable;
+    }
+
+    /**
+     * @param targetColumn La colonne de la case
+     * @param targetRow La ligne de la case
+     * @return Le nombre d'images avant que le souffle d'une bombe n'atteigne la case, -1 si aucune ne l'atteint
+     */
+    private int getThreatTimeRemaining(int targetColumn, int targetRow) {
+        if (map.isCollidable(targetColumn, targetRow))
+            return -1;
+
+        int timeRemaining = map.getBlastTimeRemaining(targetColumn, targetRow);
+
+        if (bombingSimulation && isInSimulatedBlast(targetColumn, targetRow)) {
+            if (timeRemaining == -1)
+                timeRemaining = (int)World.TIME_BEFORE_EXPLOSION*world.getFps();
+            else
+                timeRemaining = Math.min((int)World.TIME_BEFORE_EXPLOSION*world.getFps(), timeRemaining);
+        }
+
+        return timeRemaining;
+    }
+
+    /**
+     * Vérifie si une case serait touchée par la bombe que l'IA envisage de poser
+     * @param c La colonne de la case
+     * @param r La ligne de la case
+     * @return true si oui, false sinon
+     */
+    private boolean isInSimulatedBlast(int c, int r) {
+        if ((c != column && r != row) ||
+                GridCoordinates.distance(c, r, column, row) > character.getRange())
+            return false;
+
+        int deltaX = Integer.signum(column - c);
+        int deltaY = Integer.signum(row - r);
+        for (; c != column || r != row; c += deltaX, r += deltaY) {
+            if (map.isCollidable(c, r))
+                return false;
+        }
+        return !map.isCollidable(column, row);
+    }
+
+    /**
+     * Vérifie la dangerosité d'une tuile
+     * @param c La colonne de la tuile à vérifier
+     * @param r La ligne de la tuile à vérifier
+     * @return true Si la tuile est sécurisée, false sinon
+     */
+    boolean isSafe(int c, int r) {
+        if (map.isCollidable(c, r))
+            return true;
+
+        if (map.isExploding(c, r))
+            return false;
+
+        return map.getBlastTimeRemaining(c, r) < 0 &&
+               !(bombingSimulation && isInSimulatedBlast(c, r));
+    }
+
+    /**
+     * Vérifie si une tuile est vide
+     * @param c la colonne de la tuile
+     * @param r la ligne de la tuile
+     * @return true si oui, false sinon
+     */
+    boolean isEmpty(int c, int r) {
+        return !map.isCollidable(c, r) && !map.hasBomb(c, r);
+    }
+
+    boolean isBadBonus(int c, int r) {
+        if (!map.isInsideMap(c, r) || map.getTileType(c, r) != TileType.Bonus)
+            return false;
+
+        return !map.getBonusType(c, r).isGood();
+    }
+
+    boolean isGoodBonus(int c, int r) {
+        if (!map.isInsideMap(c, r) || map.getTileType(c, r) != TileType.Bonus)
+            return false;
+
+        return map.getBonusType(c, r).isGood();
+    }
+}
@@ -0,0 +1,450 @@
+package game;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.Future;
+
+
+/**
+ * Recherche arborescente Monte-Carlo (UCT) de la prochaine action d'une IA
+ * Les actions durent le temps de parcourir une case : aller dans une direction, attendre ou
+ * poser une bombe. Chaque décision part d'une copie de la partie (WorldFork) qui n'est que lue ;
+ * chaque thread de travail construit son propre arbre pendant le temps accordé, en déroulant
+ * des futurs jusqu'à l'explosion d'une bombe posée maintenant, puis les arbres sont réunis à la
+ * racine. Les adversaires et la fin de chaque futur sont joués au hasard, en évitant les cases
+ * en train d'exploser ou sur le point de l'être.
+ */
+class AISearch {
+    static final int STAY = 4;
+
+    static final int BOMB = 5;
+
+    private static final int ACTION_COUNT = 6;
+
+    private static final Direction[] DIRECTIONS = Direction.values();
+
+    private static final double EXPLORATION = Math.sqrt(2);
+
+    /** Nombre d'actions choisies par l'arbre avant de jouer au hasard */
+    private static final int MAX_DEPTH = 4;
+
+    /** Probabilité de poser une bombe à chaque action jouée au hasard, si la case est sûre */
+    private static final double ROLLOUT_BOMB_RATE = 0.1;
+
+    /**
+     * Threads qui déroulent les futurs, un arbre par thread ; null pour les dérouler sur le thread
+     * de l'IA, ce qui est aussi le cas lorsque la décision est déjà prise dans un groupe de threads
+     */
+    private ForkJoinPool pool = ForkJoinPool.commonPool();
+
+    /** Temps accordé à chaque décision en nanosecondes */
+    private long searchTime;
+
+    private long iterationCount = 0;
+
+    /**
+     * Construit une recherche
+     * @param searchTime Temps accordé à chaque décision en nanosecondes
+     */
+    AISearch(long searchTime) {
+        setSearchTime(searchTime);
+    }
+
+    long getSearchTime() {
+        return searchTime;
+    }
+
+    void setSearchTime(long searchTime) {
+        if (searchTime < 0)
+            throw new RuntimeException("Temps de recherche négatif : " + searchTime);
+        this.searchTime = searchTime;
+    }
+
+    ForkJoinPool getPool() {
+        return pool;
+    }
+
+    void setPool(ForkJoinPool pool) {
+        this.pool = pool;
+    }
+
+    /**
+     * @return Le nombre total de futurs déroulés
+     */
+    long getIterationCount() {
+        return iterationCount;
+    }
+
+    /**
+     * @param world Partie
+     * @return La durée d'une action en images : le temps de parcourir une case à vitesse normale
+     */
+    static int getActionTicks(WorldView world) {
+        return Math.max(1, (int)Math.ceil(world.getFps()/Character.CHARACTER_DEFAULT_SPEED));
+    }
+
+    /**
+     * Choisit la prochaine action d'un personnage
+     * @param world Copie de la partie au moment de la décision, qui n'est que lue et peut donc
+     *              servir à plusieurs décisions en même temps
+     * @param character Personnage qui décide, dans la partie
+     * @param random Générateur dont sont tirées les graines des copies
+     * @return L'indice de la direction dans Direction.values(), STAY ou BOMB
+     */
+    int decide(WorldFork world, Character character, Random random) {
+        if (character.getPlayer() == null)
+            return STAY;
+
+        final long deadline = System.nanoTime() + searchTime;
+        final int playerID = character.getPlayer().getID();
+        final int actionTicks = getActionTicks(world);
+        final int horizon = (int)((World.TIME_BEFORE_EXPLOSION + World.EXPLOSION_DURATION)*world.getFps()) + actionTicks;
+        final boolean[] allowed = getAllowedActions(character);
+
+        //Pas de recherche parallèle imbriquée dans une tâche d'un groupe de threads
+        int workerCount = pool == null || ForkJoinTask.inForkJoinPool() ? 1 : Math.max(1, pool.getParallelism());
+        List<Callable<Tree>> workers = new ArrayList<Callable<Tree>>(workerCount);
+        for (int i = 0; i < workerCount; i++) {
+            final Tree tree = new Tree(world, playerID, random.nextLong(), actionTicks, horizon, allowed);
+            workers.add(new Callable<Tree>() {
+                @Override
+                public Tree call() {
+                    tree.search(deadline);
+                    return tree;
+                }
+            });
+        }
+
+        int[] visits = new int[ACTION_COUNT];
+        double[] values = new double[ACTION_COUNT];
+        for (Tree tree : run(workers)) {
+            iterationCount += tree.root.visits;
+            for (int action = 0; action < ACTION_COUNT; action++) {
+                Node child = tree.root.children[action];
+                if (child != null) {
+                    visits[action] += child.visits;
+                    values[action] += child.value;
+                }
+            }
+        }
+
+        //L'action la plus explorée est la plus robuste, la valeur moyenne départage
+        int best = STAY;
+        for (int action = 0; action < ACTION_COUNT; action++) {
+            if (visits[action] > visits[best] ||
+                    (visits[action] == visits[best] && visits[action] > 0 &&
+                     values[action]/visits[action] > values[best]/visits[best]))
+                best = action;
+        }
+        return best;
+    }
+
+    private List<Tree> run(List<Callable<Tree>> workers) {
+        List<Tree> trees = new ArrayList<Tree>(workers.size());
+        if (pool == null || workers.size() < 2) {
+            for (Callable<Tree> worker : workers) {
+                try {
+                    trees.add(worker.call());
+                } catch (RuntimeException e) {
+                    throw e;
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            }
+            return trees;
+        }
+
+        for (Future<Tree> worker : pool.invokeAll(workers)) {
+            try {
+                trees.add(worker.get());
+            } catch (ExecutionException e) {
+                throw new RuntimeException("Erreur lors de la recherche d'une IA", e.getCause());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException("Recherche d'une IA interrompue", e);
+            }
+        }
+        return trees;
+    }
+
+    /**
+     * Écarte les actions sans effet au départ : les directions bloquées et les bombes impossibles
+     * @param character Personnage qui décide
+     * @return Pour chaque action, true si elle peut être choisie
+     */
+    private static boolean[] getAllowedActions(Character character) {
+        boolean[] allowed = new boolean[ACTION_COUNT];
+        for (int action = 0; action < DIRECTIONS.length; action++)
+            allowed[action] = !character.isColliding(DIRECTIONS[action], character.getMaxSpeed());
+        allowed[STAY] = true;
+
+        MapView map = character.getWorldView().getMap();
+        allowed[BOMB] = character.getBombCount() < character.getBombMax() &&
+                        !map.isExploding(character.getX(), character.getY()) &&
+                        !map.hasBomb(character.getX(), character.getY());
+        return allowed;
+    }
+
+    /**
+     * Nœud de l'arbre : une suite d'actions du personnage depuis la racine
+     */
+    private static class Node {
+        final Node[] children = new Node[ACTION_COUNT];
+
+        int visits;
+
+        double value;
+
+        /**
+         * Choisit l'action à explorer : d'abord celles jamais essayées, puis selon UCB1
+         * @param random Générateur aléatoire
+         * @param allowed Actions possibles, null si toutes le sont
+         * @return L'indice de l'action
+         */
+        int select(Random random, boolean[] allowed) {
+            int offset = random.nextInt(ACTION_COUNT);
+            int best = -1;
+            double bestScore = Double.NEGATIVE_INFINITY;
+            double logVisits = Math.log(Math.max(1, visits));
+            for (int i = 0; i < ACTION_COUNT; i++) {
+                int action = (offset + i) % ACTION_COUNT;
+                if (allowed != null && !allowed[action])
+                    continue;
+
+                Node child = children[action];
+                if (child == null || child.visits == 0)
+                    return action;
+
+                double score = child.value/child.visits + EXPLORATION*Math.sqrt(logVisits/child.visits);
+                if (score > bestScore) {
+                    bestScore = score;
+                    best = action;
+                }
+            }
+            return best;
+        }
+
+        Node getChild(int action) {
+            if (children[action] == null)
+                children[action] = new Node();
+            return children[action];
+        }
+    }
+
+    /**
+     * Arbre construit par un thread de travail à partir de la copie de la partie, qu'il ne fait que copier
+     */
+    private static class Tree {
+        final Node root = new Node();
+
+        private final WorldFork base;
+
+        private final int playerID;
+
+        private final GameRandom random;
+
+        private final int actionTicks;
+
+        private final int horizon;
+
+        private final boolean[] allowed;
+
+        private final int startOpponents;
+
+        private final int startPower;
+
+        private final int startBreakables;
+
+        private final Node[] path = new Node[MAX_DEPTH+1];
+
+        Tree(WorldFork base, int playerID, long seed, int actionTicks, int horizon, boolean[] allowed) {
+            this.base = base;
+            this.playerID = playerID;
+            this.random = new GameRandom(seed);
+            this.actionTicks = actionTicks;
+            this.horizon = horizon;
+            this.allowed = allowed;
+            this.startOpponents = countOpponents(base);
+            this.startPower = getPower(base.getCharacter(playerID));
+            this.startBreakables = countBreakables(base);
+        }
+
+        /**
+         * Déroule des futurs jusqu'à l'échéance, au moins un
+         * @param deadline Échéance, d'après System.nanoTime()
+         */
+        void search(long deadline) {
+            do {
+                iterate();
+            } while (System.nanoTime() < deadline);
+        }
+
+        private void iterate() {
+            WorldFork world = base.fork(random.nextLong());
+            RolloutController self = null;
+            for (Player player : world.getPlayers()) {
+                RolloutController controller = new RolloutController(random, actionTicks);
+                world.setController(player.getID(), controller);
+                if (player.getID() == playerID)
+                    self = controller;
+            }
+
+            //Sélection et expansion : l'arbre choisit les premières actions du personnage
+            int depth = 0;
+            int elapsed = 0;
+            Node node = root;
+            path[0] = root;
+            while (depth < MAX_DEPTH) {
+                int action = node.select(random, depth == 0 ? allowed : null);
+                Node child = node.getChild(action);
+                self.play(action);
+                elapsed += world.step(actionTicks);
+                path[++depth] = child;
+                if (child.visits == 0 || world.getCharacter(playerID) == null || world.isRoundEnded())
+                    break;
+                node = child;
+            }
+
+            //Simulation : tout le monde joue au hasard jusqu'à l'horizon
+            if (elapsed < horizon && world.getCharacter(playerID) != null)
+                world.step(horizon - elapsed);
+
+            double value = evaluate(world);
+            for (int i = 0; i <= depth; i++) {
+                path[i].visits++;
+                path[i].value += value;
+            }
+        }
+
+        /**
+         * @param world Copie à la fin d'un futur
+         * @return La valeur du futur entre 0 et 1 : 0 si le personnage est mort, sinon selon les
+         *         adversaires éliminés, les bonus ramassés et les blocs détruits
+         */
+        private double evaluate(WorldFork world) {
+            Character character = world.getCharacter(playerID);
+            if (character == null)
+                return 0;
+
+            double value = 0.5;
+            if (startOpponents > 0)
+                value += 0.3*(startOpponents - countOpponents(world))/startOpponents;
+            value += 0.1*Math.min(1., Math.max(0, getPower(character) - startPower)/2.);
+            value += 0.1*Math.min(1., Math.max(0, startBreakables - countBreakables(world))/3.);
+            return value;
+        }
+
+        private int countOpponents(WorldFork world) {
+            int count = 0;
+            for (Character character : world.getCharacters()) {
+                if (!character.isToRemove() && (character.getPlayer() == null || character.getPlayer().getID() != playerID))
+                    count++;
+            }
+            return count;
+        }
+
+        private static int getPower(Character character) {
+            return character == null ? 0 : character.getBombMax() + character.getRange();
+        }
+
+        private static int countBreakables(WorldFork world) {
+            MapView map = world.getMap();
+            int count = 0;
+            for (int column = 0; column < map.getColumnCount(); column++) {
+                for (int row = 0; row < map.getRowCount(); row++) {
+                    if (map.getTileType(column, row) == TileType.Breakable)
+                        count++;
+                }
+            }
+            return count;
+        }
+    }
+
+    /**
+     * Contrôleur des personnages d'une copie : joue les actions imposées par l'arbre, puis
+     * des actions au hasard qui évitent les explosions
+     */
+    private static class RolloutController extends DummyController {
+        private final Random random;
+
+        private final int actionTicks;
+
+        private int ticksRemaining = 0;
+
+        private int next = -1;
+
+        RolloutController(Random random, int actionTicks) {
+            this.random = random;
+            this.actionTicks = actionTicks;
+        }
+
+        /**
+         * Impose l'action suivante, qui commence à la prochaine image
+         * @param action Indice de l'action
+         */
+        void play(int action) {
+            next = action;
+            ticksRemaining = 0;
+        }
+
+        @Override
+        public void update() {
+            if (ticksRemaining <= 0) {
+                int action = next >= 0 ? next : chooseRandomly();
+                next = -1;
+                direction = action < STAY ? DIRECTIONS[action] : null;
+                bombing = action == BOMB;
+                ticksRemaining = actionTicks;
+            }
+            ticksRemaining--;
+        }
+
+        /**
+         * Choisit au hasard parmi les cases voisines accessibles, en préférant celles qu'aucune
+         * bombe n'atteindra, puis celles qu'on aura le temps de traverser
+         * @return L'indice de l'action
+         */
+        private int chooseRandomly() {
+            MapView map = character.getWorldView().getMap();
+            int column = map.toColumn(character.getX());
+            int row = map.toRow(character.getY());
+            boolean safeHere = map.getBlastTimeRemaining(column, row) < 0;
+            if (safeHere && character.getBombCount() < character.getBombMax() &&
+                    random.nextDouble() < ROLLOUT_BOMB_RATE && !map.hasBomb(column, row))
+                return BOMB;
+
+            int[] candidates = new int[ACTION_COUNT];
+            int bestRank = 0;
+            int count = 0;
+            for (int action = 0; action <= STAY; action++) {
+                int nextColumn = column;
+                int nextRow = row;
+                if (action < STAY) {
+                    nextColumn += DIRECTIONS[action].getDeltaX();
+                    nextRow += DIRECTIONS[action].getDeltaY();
+                    if (!map.isInsideMap(nextColumn, nextRow) || map.isCollidable(nextColumn, nextRow) ||
+                            map.hasBomb(nextColumn, nextRow))
+                        continue;
+                }
+                if (map.isExploding(nextColumn, nextRow))
+                    continue;
+
+                int blast = map.getBlastTimeRemaining(nextColumn, nextRow);
+                int rank = blast < 0 ? 2 : (blast > 2*actionTicks ? 1 : 0);
+                if (rank > bestRank || count == 0) {
+                    bestRank = rank;
+                    count = 0;
+                }
+                if (rank == bestRank)
+                    candidates[count++] = action;
+            }
+
+            return count == 0 ? STAY : candidates[random.nextInt(count)];
+        }
+    }
+}
@@ -0,0 +1,123 @@
+package game;
+
+import java.util.Arrays;
+
+
+/**
+ * Liste compacte des explosions créées pendant une image, dans l'ordre où elles sont posées
+ * sur la carte. Chaque explosion tient dans un entier (case, type, direction) ; toutes ont la
+ * même durée. La même liste est appliquée à la carte et envoyée aux clients, qui ne reçoivent
+ * pas les propriétaires.
+ */
+class BlastEvents {
+    private static final ExplosionType[] TYPES = ExplosionType.values();
+
+    private static final Direction[] DIRECTIONS = Direction.values();
+
+    private static final int NO_DIRECTION = 4;
+
+    private static final int TYPE_SHIFT = 3;
+
+    private static final int CELL_SHIFT = 5;
+
+    private int duration;
+
+    private int[] events;
+
+    private Character[] owners;
+
+    private int size;
+
+    /**
+     * Construit une liste vide
+     */
+    BlastEvents() {
+        events = new int[16];
+        owners = new Character[16];
+    }
+
+    /**
+     * Reconstruit une liste reçue du serveur, sans propriétaires
+     * @param duration Durée des explosions en images
+     * @param events Explosions codées par toArray()
+     */
+    BlastEvents(int duration, int[] events) {
+        this.duration = duration;
+        this.events = events;
+        this.owners = new Character[events.length];
+        this.size = events.length;
+    }
+
+    /**
+     * Vide la liste
+     * @param duration Durée des prochaines explosions en images
+     */
+    void clear(int duration) {
+        Arrays.fill(owners, 0, size, null);
+        this.duration = duration;
+        size = 0;
+    }
+
+    /**
+     * Ajoute une explosion
+     * @param cell Indice de la case
+     * @param type Type d'explosion
+     * @param direction Direction de l'explosion, null pour aucune
+     * @param owner Propriétaire de l'explosion
+     */
+    void add(int cell, ExplosionType type, Direction direction, Character owner) {
+        if (size == events.length) {
+            events = Arrays.copyOf(events, 2*size);
+            owners = Arrays.copyOf(owners, 2*size);
+        }
+        events[size] = cell << CELL_SHIFT | type.ordinal() << TYPE_SHIFT |
+                       (direction == null ? NO_DIRECTION : direction.ordinal());
+        owners[size] = owner;
+        size++;
+    }
+
+    /**
+     * Change le type d'une explosion
+     * @param index Position de l'explosion dans la liste
+     * @param type Nouveau type
+     */
+    void setType(int index, ExplosionType type) {
+        events[index] = (events[index] & ~(3 << TYPE_SHIFT)) | type.ordinal() << TYPE_SHIFT;
+    }
+
+    int size() {
+        return size;
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    int getDuration() {
+        return duration;
+    }
+
+    int getCell(int index) {
+        return events[index] >>> CELL_SHIFT;
+    }
+
+    ExplosionType getType(int index) {
+        return TYPES[(events[index] >> TYPE_SHIFT) & 3];
+    }
+
+    Direction getDirection(int index) {
+        int direction = events[index] & 7;
+        return direction == NO_DIRECTION ? null : DIRECTIONS[direction];
+    }
+
+    Character getOwner(int index) {
+        return owners[index];
+    }
+
+    /**
+     * @return Les explosions codées, pour les envoyer sur le réseau
+     */
+    int[] toArray() {
+        return Arrays.copyOf(events, size);
+    }
+}
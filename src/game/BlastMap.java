@@ -0,0 +1,185 @@
+package game;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Carte des dangers : pour chaque case, l'image à laquelle une bombe posée l'atteindra,
+ * réactions en chaîne comprises, qu'elles soient instantanées ou retardées.
+ * Les instants sont absolus, la carte reste donc valable d'une image à l'autre tant que les
+ * bombes, les tuiles et les explosions ne changent pas ; sinon elle est recalculée au plus tôt
+ * à la prochaine lecture, en ne parcourant que les rayons des bombes.
+ */
+class BlastMap {
+    private static final int NONE = Integer.MAX_VALUE;
+
+    private static final Direction[] DIRECTIONS = Direction.values();
+
+    private final Map map;
+
+    private final int[] blastTicks;
+
+    //Cases modifiées lors du dernier calcul, pour les remettre à zéro sans tout parcourir
+    private int[] touched = new int[16];
+
+    private int touchedCount;
+
+    //Bombes du dernier calcul
+    private Bomb[] bombs = new Bomb[8];
+
+    private int[] bombCells = new int[8];
+
+    private int[] bombTicks = new int[8];
+
+    private boolean[] processed = new boolean[8];
+
+    private int bombCount;
+
+    private long computedVersion = -1;
+
+    private int computedTick = -1;
+
+    /**
+     * Construit une carte des dangers vide
+     * @param map Carte surveillée
+     * @param cellCount Nombre de cases de la carte
+     */
+    BlastMap(Map map, int cellCount) {
+        this.map = map;
+        this.blastTicks = new int[cellCount];
+        Arrays.fill(blastTicks, NONE);
+    }
+
+    /**
+     * @param cell Indice de la case
+     * @return Le nombre d'images avant que le souffle d'une bombe n'atteigne la case, -1 si aucune ne l'atteint
+     */
+    int getTimeRemaining(int cell) {
+        refresh();
+        int blastTick = blastTicks[cell];
+        return blastTick == NONE ? -1 : Math.max(0, blastTick - map.getTick());
+    }
+
+    /**
+     * Recalcule la carte si les bombes ou le terrain ont changé, ou à chaque image tant qu'une
+     * explosion est en cours car elle accélère les bombes qu'elle touche
+     */
+    void refresh() {
+        long version = map.getVersion();
+        if (version == computedVersion && (computedTick == map.getTick() || !map.hasExplosions()))
+            return;
+
+        computedVersion = version;
+        computedTick = map.getTick();
+        compute();
+    }
+
+    private void compute() {
+        for (int i = 0; i < touchedCount; i++)
+            blastTicks[touched[i]] = NONE;
+        touchedCount = 0;
+
+        collectBombs();
+
+        //Dijkstra : la bombe qui explose le plus tôt déclenche celles sur son passage
+        for (int processedCount = 0; processedCount < bombCount; processedCount++) {
+            int next = -1;
+            for (int i = 0; i < bombCount; i++) {
+                if (!processed[i] && (next < 0 || bombTicks[i] < bombTicks[next]))
+                    next = i;
+            }
+            processed[next] = true;
+            blast(next);
+        }
+    }
+
+    private void collectBombs() {
+        EntityIndex index = map.getEntityIndex();
+        final int tick = map.getTick();
+        bombCount = 0;
+        for (int cell = index.nextBombCell(0); cell >= 0; cell = index.nextBombCell(cell+1)) {
+            List<Entity> entities = index.get(cell);
+            for (int i = 0; i < entities.size(); i++) {
+                if (!(entities.get(i) instanceof Bomb))
+                    continue;
+
+                if (bombCount == bombs.length) {
+                    bombs = Arrays.copyOf(bombs, 2*bombCount);
+                    bombCells = Arrays.copyOf(bombCells, 2*bombCount);
+                    bombTicks = Arrays.copyOf(bombTicks, 2*bombCount);
+                    processed = Arrays.copyOf(processed, 2*bombCount);
+                }
+                Bomb bomb = (Bomb)entities.get(i);
+                bombs[bombCount] = bomb;
+                bombCells[bombCount] = cell;
+                bombTicks[bombCount] = tick + Math.max(0, bomb.getTimeRemaining());
+                processed[bombCount] = false;
+                bombCount++;
+            }
+        }
+    }
+
+    /**
+     * Propage le souffle d'une bombe et avance l'explosion des bombes qu'il touche
+     * @param bomb Indice de la bombe
+     */
+    private void blast(int bomb) {
+        final int blastTick = bombTicks[bomb];
+        final int bombColumn = map.getCellColumn(bombCells[bomb]);
+        final int bombRow = map.getCellRow(bombCells[bomb]);
+
+        mark(bombCells[bomb], blastTick);
+        for (Direction direction : DIRECTIONS) {
+            int column = bombColumn;
+            int row = bombRow;
+            for (int i = 0; i < bombs[bomb].getRange(); i++) {
+                column += direction.getDeltaX();
+                row += direction.getDeltaY();
+                if (map.isCollidable(column, row))
+                    break;
+
+                int cell = map.toCellIndex(column, row);
+                mark(cell, blastTick);
+                if (map.getEntityIndex().hasBomb(cell))
+                    chain(cell, blastTick);
+            }
+        }
+    }
+
+    private void chain(int cell, int blastTick) {
+        for (int i = 0; i < bombCount; i++) {
+            if (!processed[i] && bombCells[i] == cell) {
+                int chainedTick = blastTick;
+                if (!map.isInstantChainReaction())
+                    chainedTick += chainDelay(bombTicks[i] - blastTick);
+                if (chainedTick < bombTicks[i])
+                    bombTicks[i] = chainedTick;
+            }
+        }
+    }
+
+    /**
+     * Sans réaction en chaîne instantanée, une bombe dans une explosion voit son temps restant divisé par deux à chaque image
+     * @param timeRemaining Temps restant de la bombe lorsqu'elle est touchée
+     * @return Le nombre d'images avant qu'elle n'explose
+     */
+    static int chainDelay(int timeRemaining) {
+        int delay = 0;
+        while (timeRemaining > 0) {
+            timeRemaining = (timeRemaining-1)/2;
+            delay++;
+        }
+        return delay;
+    }
+
+    private void mark(int cell, int blastTick) {
+        if (blastTicks[cell] == NONE) {
+            if (touchedCount == touched.length)
+                touched = Arrays.copyOf(touched, 2*touchedCount);
+            touched[touchedCount++] = cell;
+            blastTicks[cell] = blastTick;
+        } else if (blastTick < blastTicks[cell]) {
+            blastTicks[cell] = blastTick;
+        }
+    }
+}
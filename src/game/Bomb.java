@@ -1,5 +1,7 @@
 package game;
 
+import java.util.List;
+
 
 /**
  * Entité bombe
@@ -44,7 +46,29 @@ public class Bomb extends Entity {
      * @param duration Durée avant explosion (en ticks)
      */
     public Bomb(World world, Character owner, int duration) {
-        this(world, world.getMap().toCenterX(owner.getX()), world.getMap().toCenterX(owner.getY()), owner.getRange(), duration);
+        this(world, world.getMap().toCenterX(owner.getX()), world.getMap().toCenterY(owner.getY()), owner.getRange(), duration);
+        this.owner = owner;
+    }
+
+    /**
+     * Réinitialise une bombe retirée de la partie pour la poser à nouveau, comme si elle
+     * venait d'être construite
+     * @param x Position horizontale en pixel
+     * @param y Position verticale en pixel
+     * @param range Portée de l'explosion (en cases)
+     * @param duration Durée avant explosion (en ticks)
+     * @param owner Joueur à qui appartient la bombe, null pour aucun
+     */
+    void reset(double x, double y, int range, int duration, Character owner) {
+        this.x = x;
+        this.y = y;
+        this.speed = 0.;
+        this.direction = Direction.Down;
+        this.toRemove = false;
+        this.cell = -1;
+        this.range = range;
+        this.duration = duration;
+        this.timeRemaining = duration;
         this.owner = owner;
     }
 
@@ -103,13 +127,13 @@ public class Bomb extends Entity {
             boolean changeDir = false;
             if (this.speed == 0.) {
                 changeDir = true;
-            } else if((this.direction == Direction.Up) && (this.y <= this.world.getMap().toCenterY(this.world.getMap().toGridCoordinates(this.x, this.y)))){
+            } else if((this.direction == Direction.Up) && (this.y <= this.world.getMap().toCenterY(this.y))){
                 changeDir = true;
-            } else if ((this.direction == Direction.Down) && (this.y >= this.world.getMap().toCenterY(this.world.getMap().toGridCoordinates(this.x, this.y)))){
+            } else if ((this.direction == Direction.Down) && (this.y >= this.world.getMap().toCenterY(this.y))){
                 changeDir = true;
-            } else if ((this.direction == Direction.Right) && (this.x >= this.world.getMap().toCenterX(this.world.getMap().toGridCoordinates(this.x, this.y)))){
+            } else if ((this.direction == Direction.Right) && (this.x >= this.world.getMap().toCenterX(this.x))){
                 changeDir = true;
-            } else if ((this.direction == Direction.Left) && (this.x <= this.world.getMap().toCenterX(this.world.getMap().toGridCoordinates(this.x, this.y)))){
+            } else if ((this.direction == Direction.Left) && (this.x <= this.world.getMap().toCenterX(this.x))){
                 changeDir = true;
             }
 
@@ -119,8 +143,12 @@ public class Bomb extends Entity {
             }
         }
 
-        if (this.world.getMap().isExploding(this.x, this.y))
-            timeRemaining /= 2;
+        if (this.world.getMap().isExploding(this.x, this.y)) {
+            if (world.map.isInstantChainReaction())
+                timeRemaining = 0;
+            else
+                timeRemaining /= 2;
+        }
 
         // On vérifie le TimeRemaining et on fait exploser si nulle
         if (this.timeRemaining == 0) {
@@ -139,8 +167,9 @@ public class Bomb extends Entity {
     @Override
     boolean canCollide(double x, double y) {
         if (!super.canCollide(x, y)) {
-            for (Entity entity : world.getMap().getEntities(x, y)) {
-                if (entity != this) {
+            List<Entity> entities = world.getMap().getEntities(x, y);
+            for (int i = 0; i < entities.size(); i++) {
+                if (entities.get(i) != this) {
                     return true;
                 }
             }
@@ -1,27 +1,12 @@
 package game;
 
+import java.util.Random;
+
 
 /**
  * Tuile bonus qui devient une tuile vide une fois que le bonus est pris
  */
 public class BonusTile extends ExplodableTile {
-     BonusType bonusType;
-
-    /**
-     * Construit un bonus aléatoire
-     */
-    public BonusTile() {
-        bonusType = BonusType.Random;
-    }
-
-    /**
-     * Construit le bonus indiquée
-     * @param type Type du bonus désiré
-     */
-    public BonusTile(BonusType type) {
-        this.bonusType = type;
-    }
-
     @Override
     public TileType getType() {
         return TileType.Bonus;
@@ -32,30 +17,21 @@ public class BonusTile extends ExplodableTile {
         return false;
     }
 
-    public BonusType getBonusType() {
-        return this.bonusType;
-    }
-
-    void setBonusType(BonusType value) {
-        this.bonusType = value;
-    }
-
     /**
-     * Renvoie une tuile vide
+     * Remplace la case par une tuile vide
      */
     @Override
-    Tile postExplosion() {
-        EmptyTile tile = new EmptyTile();
-        tile.setEntities(entities);
-        return tile;
+    void postExplosion(Map map, int column, int row) {
+        map.setTile(TileType.Empty, null, column, row);
     }
 
     /**
+     * @param generator Générateur aléatoire de la partie
      * @return Un type de bonus choisi aléatoirement parmi ceux existants 
      * en tenant compte de leur taux d'apparition
      */
-    public static BonusType randomBonus() {
-        double random = Math.random();
+    public static BonusType randomBonus(Random generator) {
+        double random = generator.nextDouble();
         double summ = 0;
         BonusType[] bonusList = BonusType.values();
         for (int i=0; i<bonusList.length; i++){
@@ -18,21 +18,17 @@ public class BreakableTile extends ExplodableTile {
     }
 
     /**
-     * Renvoie aléatoirement une tuile bonus ou une case vide 
+     * Remplace aléatoirement la case par une tuile bonus ou une case vide
      * d'après les taux d'apparitions
      */
     @Override
-    Tile postExplosion() {
-        Tile ret;
-        double drop = (Math.random());
+    void postExplosion(Map map, int column, int row) {
+        double drop = map.getRandom().nextDouble();
         if (drop < LOOT_RATE) {
-            ret = new BonusTile(BonusTile.randomBonus());
+            map.setTile(TileType.Bonus, BonusTile.randomBonus(map.getRandom()), column, row);
         } else {
-            ret = new EmptyTile();
+            map.setTile(TileType.Empty, null, column, row);
         }
-         
-        ret.setEntities(entities);
-        return ret;
     }
 
 }
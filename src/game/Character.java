@@ -204,15 +204,15 @@ public class Character extends Entity {
     @Override
     boolean canCollide(double x, double y) {
         if (!super.canCollide(x, y)) {
-            return !world.getMap().toGridCoordinates(this.x, this.y).equals(world.getMap().toGridCoordinates(x, y))
-                    && world.getMap().hasBomb(x, y);
+            MapView map = world.getMap();
+            return !isInsideCell(map.toColumn(x), map.toRow(y)) && map.hasBomb(x, y);
         }
         return true;
     }
 
     /**
      * Met à jour le Joueur en faisant les actions suivantes :
-     * - Update controller pour fixer la direction et la vitesse du Joueur
+     * - Lit la décision du controller (prise avant, voir World.updateControllers) pour fixer la direction et la vitesse du Joueur
      * - Appel de l'Update de Entity
      * - Vérifie si le Kick est disponible puis Kick la bombe si possible
      * - Update acquisition de Bonus/Malus
@@ -224,15 +224,8 @@ public class Character extends Entity {
         Direction nextDirection = null;
 
         if (getController() != null) {
-            getController().update();
             nextDirection = getController().getDirection();
-            if (nextDirection != null) {
-                direction = nextDirection;
-                speed = getMaxSpeed();
-            } else if (world.getMap().getTileType(this.x, this.y) == TileType.Frozen)
-                speed = CHARACTER_DEFAULT_SPEED*world.map.getTileSize()/world.getFps()/1.5;
-            else
-                speed = 0.;
+            steer(nextDirection);
         }
 
         super.update();
@@ -262,7 +255,7 @@ public class Character extends Entity {
             }
 
             if (world.getMap().isInsideMap(footX, footY) &&
-                !world.getMap().toGridCoordinates(footX, footY).equals(world.getMap().toGridCoordinates(x, y))) {
+                !isInsideCell(world.getMap().toColumn(footX), world.getMap().toRow(footY))) {
 
                 if (characterAbilities.get(CharacterAbility.Kick.ordinal()) ||
                         world.getMap().getTileType(footX, footY) == TileType.Frozen) {
@@ -314,6 +307,21 @@ public class Character extends Entity {
         }
     }
 
+    /**
+     * Fixe la direction et la vitesse du Joueur selon la direction demandée par son contrôleur,
+     * sans autre effet sur la partie ; sert aussi à rejouer les entrées d'un client
+     * @param nextDirection Direction demandée, null pour s'arrêter (ou glisser sur la glace)
+     */
+    void steer(Direction nextDirection) {
+        if (nextDirection != null) {
+            direction = nextDirection;
+            speed = getMaxSpeed();
+        } else if (world.getMap().getTileType(this.x, this.y) == TileType.Frozen)
+            speed = CHARACTER_DEFAULT_SPEED*world.map.getTileSize()/world.getFps()/1.5;
+        else
+            speed = 0.;
+    }
+
     /**
      * Gère les acquisitions de Bonus et Malus puis enlève les Bonus/Malus de la map
      */
@@ -321,7 +329,7 @@ public class Character extends Entity {
         if(this.world.getMap().getTileType(this.x , this.y) == TileType.Bonus){
             BonusType b = this.world.getMap().getBonusType(this.x, this.y);
             while (b == BonusType.Random) {
-                b = BonusTile.randomBonus();
+                b = BonusTile.randomBonus(world.getRandom());
             }
 
             switch(b){
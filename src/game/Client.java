@@ -1,29 +1,32 @@
 package game;
 
+import java.io.ByteArrayOutputStream;
 import java.net.InetAddress;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Map.Entry;
-import java.util.Queue;
-import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.Deque;
+import java.util.concurrent.ConcurrentLinkedDeque;
 
 import com.esotericsoftware.kryonet.Connection;
 import com.esotericsoftware.kryonet.Listener;
 
-import network.GameInfo;
 import network.Network;
-import network.Network.CommandMap;
 import network.Network.ControllerPlayer;
-import network.Network.ControllerUpdate;
 import network.Network.EntityPlayer;
 import network.Network.EntityToRemove;
-import network.Network.EntityUpdateList;
+import network.Network.InputBatch;
+import network.Network.JoinRoom;
+import network.Network.MapUpdate;
+import network.Network.EntitySnapshotUpdate;
 import network.Network.NextRound;
 import network.Network.PlayerInfo;
 import network.Network.PlayerToRemove;
 import network.Network.RoundEnded;
+import network.Network.SnapshotAck;
 import network.Network.TimeRemaining;
 import network.Network.WarmupTimeRemaining;
+import network.Network.WorldChunk;
+import network.PacketReader;
 
 /**
  * Cette classe gère une partie de type Client
@@ -31,7 +34,7 @@ import network.Network.WarmupTimeRemaining;
 public class Client extends World implements Listener {
     InetAddress address;
 
-     boolean init;
+     volatile boolean init;
 
      boolean roundEnded;
 
@@ -43,16 +46,50 @@ public class Client extends World implements Listener {
 
     List<Controller> controllers;
 
-    Queue<Object> messages;
+    Deque<Object> messages;
 
     int lastTimestamp = -1;
 
+    /** Instantanés des entités reçus, qui peuvent servir de base aux suivants */
+    private final EntitySnapshot[] snapshots = new EntitySnapshot[Server.SNAPSHOT_HISTORY];
+
+    private int lastSnapshot = -1;
+
+    private final SnapshotInterpolator interpolator = new SnapshotInterpolator();
+
+    /** Nombre d'entrées gardées pour être rejouées après une correction du serveur */
+    static final int INPUT_HISTORY = 64;
+
+    private int inputSequence = -1;
+
+    /** Nombre maximal d'images dont les entrées sont renvoyées dans chaque paquet */
+    static final int INPUT_REDUNDANCY = 8;
+
+    /** Entrées envoyées par chaque contrôleur local, codées et indexées par numéro d'entrée */
+    private final List<byte[]> inputs = new ArrayList<byte[]>();
+
+    //Dernière entrée appliquée par le serveur pour tous les contrôleurs locaux
+    private int inputAck = -1;
+
+    /** Morceaux de l'état de la partie reçus en rejoignant la partie */
+    private final ByteArrayOutputStream joinData = new ByteArrayOutputStream();
+
     /**
      * Construit un client qui se connecte à l'adresse spécifiée
      * @param address Adresse du serveur
      * @throws Exception si échec de la connexion
      */
     public Client(InetAddress address) throws Exception {
+        this(address, Network.DEFAULT_ROOM);
+    }
+
+    /**
+     * Construit un client qui se connecte à l'adresse spécifiée et rejoint une salle
+     * @param address Adresse du serveur
+     * @param room Salle à rejoindre si le serveur est un serveur dédié
+     * @throws Exception si échec de la connexion
+     */
+    public Client(InetAddress address, int room) throws Exception {
         map = new Map(32) {
             @Override
             Tile newTile(TileType type) {
@@ -61,10 +98,8 @@ public class Client extends World implements Listener {
                 else {
                     return new BreakableTile() {
                         @Override
-                        Tile postExplosion() {
-                            EmptyTile tile = new EmptyTile();
-                            tile.setEntities(entities);
-                            return tile;
+                        void postExplosion(Map map, int column, int row) {
+                            map.setTile(TileType.Empty, null, column, row);
                         }
                     };
                 }
@@ -73,7 +108,7 @@ public class Client extends World implements Listener {
 
         controllers = new ArrayList<>();
 
-        messages = new ConcurrentLinkedQueue<Object>();
+        messages = new ConcurrentLinkedDeque<Object>();
 
         init = false;
 
@@ -95,6 +130,8 @@ public class Client extends World implements Listener {
         }
 
         this.address = address;
+
+        network.sendTCP(new JoinRoom(room));
     }
 
     /**
@@ -128,7 +165,7 @@ public class Client extends World implements Listener {
 
     @Override
     public GameState update() {
-        if (!init)
+        if (!isReady())
             return GameState.Init;
 
         if (!isConnected())
@@ -139,26 +176,98 @@ public class Client extends World implements Listener {
             processMessage(message);
         }
 
-        return super.update();
+        GameState state = super.update();
+        interpolate();
+        return state;
+    }
+
+    /**
+     * Place les entités à leur position interpolée entre les instantanés reçus, après la
+     * simulation locale de l'image ; les personnages locaux gardent leur position prédite
+     */
+    private void interpolate() {
+        interpolator.tick();
+        List<Entity> list = entities.getSnapshot();
+        for (int i = 0; i < list.size(); i++) {
+            Entity entity = list.get(i);
+            if (isPredicted(entity))
+                continue;
+            if (interpolator.sample(entity.getID())) {
+                entity.x = interpolator.getX();
+                entity.y = interpolator.getY();
+                entity.moved();
+            }
+        }
+    }
+
+    /**
+     * @return Le retard de l'affichage sur le serveur en images
+     */
+    public double getInterpolationDelay() {
+        return interpolator.getDelay();
+    }
+
+    /**
+     * Change le retard de l'affichage sur le serveur : plus il est grand, plus l'interpolation
+     * résiste aux pertes et à une fréquence d'envoi basse, au prix de la réactivité
+     * @param delay Retard en images, négatif pour deux intervalles entre instantanés
+     */
+    public void setInterpolationDelay(double delay) {
+        interpolator.setDelay(delay);
+    }
+
+    /**
+     * @param maxExtrapolation Durée pendant laquelle une entité continue sur sa lancée sans
+     *                         nouvel instantané, en images
+     */
+    public void setMaxExtrapolation(int maxExtrapolation) {
+        interpolator.setMaxExtrapolation(maxExtrapolation);
     }
 
+    /**
+     * Envoie au serveur les entrées des contrôleurs locaux, numérotées, une fois qu'ils ont
+     * décidé : ce sont celles que les personnages locaux appliquent dès cette image
+     */
     @Override
-    void roundUpdate() {
+    void updateControllers() {
+        super.updateControllers();
+
+        inputSequence++;
         for (int i = 0; i < controllers.size(); i++) {
-            network.sendUDP(new ControllerUpdate(i, controllers.get(i)));
+            if (inputs.size() <= i)
+                inputs.add(new byte[INPUT_HISTORY]);
+            Controller controller = controllers.get(i);
+            inputs.get(i)[inputSequence % INPUT_HISTORY] = InputBatch.encode(controller.getDirection(),
+                                                                             controller.isPlantingBomb());
         }
+        sendInputs();
+    }
 
-        super.roundUpdate();
+    /**
+     * Envoie en un seul paquet les entrées de tous les contrôleurs locaux que le serveur n'a pas
+     * encore appliquées, sur INPUT_REDUNDANCY images au plus : une entrée perdue, avec sa pose
+     * de bombe, est renvoyée avec les suivantes
+     */
+    private void sendInputs() {
+        if (controllers.isEmpty())
+            return;
+
+        int first = Math.max(inputSequence-INPUT_REDUNDANCY+1, inputAck+1);
+        int count = inputSequence-first+1;
+        byte[] batch = new byte[count*controllers.size()];
+        for (int k = 0; k < count; k++) {
+            for (int i = 0; i < controllers.size(); i++)
+                batch[k*controllers.size() + i] = inputs.get(i)[(first+k) % INPUT_HISTORY];
+        }
+        network.sendUDP(new InputBatch(inputSequence, controllers.size(), batch));
     }
 
     @Override
     void roundEndUpdate() {
         List<Integer> toRemove = new ArrayList<Integer>();
-        synchronized (entities) {
-            for (Entry<Integer, Entity> entry : entities.entrySet()) {
-                if (entry.getValue().isToRemove())
-                    toRemove.add(entry.getKey());
-            }
+        for (Entity entity : getEntities()) {
+            if (entity.isToRemove())
+                toRemove.add(entity.getID());
         }
         removeEntities(toRemove);
 
@@ -174,7 +283,7 @@ public class Client extends World implements Listener {
 
     @Override
     public boolean isReady() {
-        return init;
+        return init || messages.peekFirst() instanceof JoinState;
     }
 
     @Override
@@ -211,6 +320,8 @@ public class Client extends World implements Listener {
         roundEnded = false;
         nextRound = false;
         winner = null;
+        //Les entités sont recréées et leurs identifiants réutilisés : les anciens instantanés ne servent plus
+        interpolator.clear();
     }
 
     @Override
@@ -219,49 +330,77 @@ public class Client extends World implements Listener {
             super.nextRound();
     }
 
+    /**
+     * Réassemble l'état de la partie reçu en morceaux ; les autres messages, qui le suivent
+     * côté serveur, attendent qu'il soit chargé par le thread de la partie
+     */
     @Override
     public void received(Connection connection, Object object) {
-        if (object instanceof GameInfo) {
-            GameInfo info = (GameInfo)object;
-            this.fps = info.fps;
-            this.duration = info.duration;
-            this.timeRemaining = info.timeRemaining;
-            this.warmupDuration = info.warmupDuration;
-            this.warmupTimeRemaining = info.warmupTimeRemaining;
-            this.restTimeDuration = info.restTimeDuration;
-            this.restTimeRemaining = info.restTimeRemaining;
-            this.round = info.round;
-            this.roundMax = info.roundMax;
-            this.suddenDeathType = info.suddenDeathType;
-            this.map.setTileSize(info.tileSize);
-            this.map.setName(info.mapName);
-            this.map.loadMap(info.map);
-
-            for (Controller controller : controllers)
-                network.sendTCP(new Network.AddController(controller.getName()));
-
-            init = true;
-
-            if (info.suddenDeathType != null)
-                fireEvent(GameEvent.SuddenDeath);
-                //suddenDeath = true;
-        } else if (init)
+        if (object instanceof WorldChunk) {
+            WorldChunk chunk = (WorldChunk)object;
+            if (chunk.index == 0)
+                joinData.reset();
+            joinData.write(chunk.data, 0, chunk.data.length);
+            //Le thread de la partie ne lit pas les messages avant l'état : il passe devant ceux
+            //qui l'ont doublé entre deux morceaux
+            if (chunk.index == chunk.count-1)
+                messages.offerFirst(new JoinState(joinData.toByteArray()));
+        } else
             messages.offer(object);
     }
 
+    /**
+     * Charge l'état de la partie envoyé par le serveur, puis lui demande un joueur pour chaque
+     * contrôleur local
+     * @param state État reçu
+     */
+    private void load(JoinState state) {
+        this.fps = state.fps;
+        this.duration = state.duration;
+        this.timeRemaining = state.timeRemaining;
+        this.warmupDuration = state.warmupDuration;
+        this.warmupTimeRemaining = state.warmupTimeRemaining;
+        this.restTimeDuration = state.restTimeDuration;
+        this.restTimeRemaining = state.restTimeRemaining;
+        this.round = state.round;
+        this.roundMax = state.roundMax;
+        this.suddenDeathType = state.suddenDeathType;
+        this.map.setTileSize(state.tileSize);
+        state.loadMap(map);
+
+        for (int i = 0; i < state.entities.size(); i++)
+            addEntity(state.entities.newEntity(i), state.entities.getID(i));
+
+        for (int i = 0; i < state.playerIDs.length; i++) {
+            Player player = new Player(state.playerIDs[i], state.scores[i], new FollowController(), null);
+            player.getController().setName(state.names[i]);
+
+            Entity entity = entities.get(state.characterIDs[i]);
+            if (entity instanceof Character)
+                player.setCharacter((Character) entity);
+
+            players.put(player.getID(), player);
+        }
+        updatePlayerCounters();
+
+        for (Controller controller : controllers)
+            network.sendTCP(new Network.AddController(controller.getName()));
+
+        init = true;
+
+        if (state.suddenDeathType != null)
+            fireEvent(GameEvent.SuddenDeath);
+    }
+
     private void processMessage(Object object) {
-        if (object instanceof CommandMap) {
-            DeltaMap.executeDelta((CommandMap)object, map);
+        if (object instanceof JoinState) {
+            load((JoinState)object);
+        } else if (object instanceof MapUpdate) {
+            DeltaMap.executeDeltas(((MapUpdate)object).data, map);
         } else if (object instanceof Entity) {
             addEntity((Entity) object, ((Entity)object).getID());
-        } else if (object instanceof EntityUpdateList) {
-            EntityUpdateList updates = (EntityUpdateList) object;
-            if (updates.timestamp >= lastTimestamp) {
-                lastTimestamp = updates.timestamp;
-                for (Entity entity : updates.entities) {
-                    addEntity(entity, entity.getID());
-                }
-            }
+        } else if (object instanceof EntitySnapshotUpdate) {
+            receiveSnapshot((EntitySnapshotUpdate) object);
         } else if (object instanceof PlayerInfo) {
             PlayerInfo playerInfo = (PlayerInfo)object;
 
@@ -276,12 +415,14 @@ public class Client extends World implements Listener {
                     playerInfo.player.setCharacter((Character) entity);
 
                 players.put(player.getID(), player);
+                updatePlayerCounters();
             }
         } else if (object instanceof ControllerPlayer) {
             ControllerPlayer cP = (ControllerPlayer) object;
             Player player = players.get(cP.playerId);
             if (player != null && cP.controllerId >= 0 && cP.controllerId < controllers.size()) {
                 player.setController(controllers.get(cP.controllerId));
+                updatePlayerCounters();
             }
         } else if (object instanceof EntityPlayer) {
             EntityPlayer entityPlayer = (EntityPlayer) object;
@@ -291,6 +432,7 @@ public class Client extends World implements Listener {
                 Player player = players.get(entityPlayer.playerId);
                 if (player != null) {
                     player.setCharacter((Character) entity);
+                    updatePlayerCounters();
                 }
             }
         } else if (object instanceof TimeRemaining) {
@@ -316,15 +458,14 @@ public class Client extends World implements Listener {
             PlayerToRemove toRemove = (PlayerToRemove)object;
             for (Integer id : toRemove.toRemove)
                 players.remove(id);
+            updatePlayerCounters();
         } else if (object instanceof GameEvent) {
             fireEvent((GameEvent)object);
         } else if (object instanceof List<?>) {
             if (((List<?>)object).isEmpty())
                 return;
 
-            if (((List<?>) object).get(0) instanceof CommandMap)
-                DeltaMap.executeDeltas((List<CommandMap>)object, map);
-            else if (((List<?>) object).get(0) instanceof Entity) {
+            if (((List<?>) object).get(0) instanceof Entity) {
                 for (Entity entity : (List<Entity>) object) {
                     addEntity(entity, entity.getID());
                 }
@@ -342,6 +483,101 @@ public class Client extends World implements Listener {
         }
     }
 
+    /**
+     * Reconstruit l'état des entités envoyé par le serveur, en accuse réception et l'applique
+     * aux entités connues, sauf leur position qui est interpolée à chaque image ; les entités
+     * sont créées et supprimées par des messages TCP
+     * @param update Instantané codé par différence
+     */
+    private void receiveSnapshot(EntitySnapshotUpdate update) {
+        if (update.sequence <= lastSnapshot)
+            return;
+
+        EntitySnapshot base = null;
+        if (update.baseSequence >= 0) {
+            base = snapshots[update.baseSequence % snapshots.length];
+            //Base oubliée : le serveur se basera sur un accusé plus récent
+            if (base == null || base.sequence != update.baseSequence)
+                return;
+        }
+
+        int slot = update.sequence % snapshots.length;
+        if (snapshots[slot] == null)
+            snapshots[slot] = new EntitySnapshot();
+        EntitySnapshot snapshot = snapshots[slot];
+        snapshot.decode(base, new PacketReader(update.data), update.sequence, update.timestamp);
+        network.sendUDP(new SnapshotAck(update.sequence));
+
+        lastSnapshot = update.sequence;
+        lastTimestamp = update.timestamp;
+        interpolator.add(snapshot);
+        for (int i = 0; i < snapshot.size(); i++) {
+            Entity entity = entities.get(snapshot.getID(i));
+            if (entity != null)
+                snapshot.apply(i, entity, false);
+        }
+
+        if (update.inputSequences != null) {
+            for (int i = 0; i < update.inputSequences.length && i < controllers.size(); i++)
+                reconcile(snapshot, i, update.inputSequences[i]);
+            acknowledgeInputs(update.inputSequences);
+        }
+    }
+
+    /**
+     * Recale un personnage local sur l'état du serveur puis rejoue les entrées que le serveur
+     * n'avait pas encore appliquées, avec la même physique que le serveur
+     * @param snapshot Instantané reçu
+     * @param controllerId Indice du contrôleur local
+     * @param acknowledged Dernière entrée de ce contrôleur appliquée par le serveur
+     */
+    private void reconcile(EntitySnapshot snapshot, int controllerId, int acknowledged) {
+        Character character = controllers.get(controllerId).getCharacter();
+        if (character == null || character.isToRemove() || controllerId >= inputs.size())
+            return;
+
+        int index = snapshot.indexOf(character.getID());
+        if (index < 0)
+            return;
+
+        snapshot.apply(index, character, true);
+        byte[] history = inputs.get(controllerId);
+        for (int sequence = Math.max(acknowledged+1, inputSequence-INPUT_HISTORY+1); sequence <= inputSequence; sequence++) {
+            character.steer(InputBatch.getDirection(history[sequence % INPUT_HISTORY]));
+            character.move();
+        }
+    }
+
+    /**
+     * Retient la dernière entrée appliquée par le serveur pour tous les contrôleurs locaux, à
+     * partir de laquelle les entrées ne sont plus renvoyées
+     * @param sequences Dernière entrée appliquée pour chaque joueur du client
+     */
+    private void acknowledgeInputs(int[] sequences) {
+        //Un contrôleur sans joueur au serveur n'a encore rien reçu
+        if (sequences.length < controllers.size())
+            return;
+
+        int acknowledged = Integer.MAX_VALUE;
+        for (int i = 0; i < controllers.size(); i++)
+            acknowledged = Math.min(acknowledged, sequences[i]);
+        inputAck = Math.max(inputAck, acknowledged);
+    }
+
+    /**
+     * @param entity Entité
+     * @return true si l'entité est un personnage local, prédit plutôt qu'interpolé
+     */
+    private boolean isPredicted(Entity entity) {
+        if (!(entity instanceof Character))
+            return false;
+        for (int i = 0; i < controllers.size(); i++) {
+            if (controllers.get(i).getCharacter() == entity)
+                return true;
+        }
+        return false;
+    }
+
     @Override
     public String getWinnerName() {
         if (winner != null)
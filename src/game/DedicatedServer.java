@@ -0,0 +1,274 @@
+package game;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import com.esotericsoftware.kryonet.Connection;
+import com.esotericsoftware.kryonet.Listener;
+
+import network.GameConnection;
+import network.Network;
+import network.Network.JoinRoom;
+
+/**
+ * Serveur dédié qui héberge plusieurs parties indépendantes, les salles, sur une seule paire de ports
+ * Chaque client demande à sa connexion la salle qu'il veut rejoindre ; ses messages sont ensuite
+ * transmis à cette salle, qui n'envoie qu'à ses propres connexions. Les salles sont calculées par
+ * un ordonnanceur commun : une tâche périodique par salle, réparties sur un groupe de threads,
+ * une même salle n'étant jamais calculée par deux threads à la fois.
+ * Une salle terminée est recréée avec les mêmes réglages et les mêmes IA ; ses clients sont
+ * déconnectés.
+ */
+public class DedicatedServer implements Listener {
+    private final com.esotericsoftware.kryonet.Server network;
+
+    private final ExecutorService listenerPool;
+
+    private final ScheduledExecutorService scheduler;
+
+    private final ConcurrentMap<Integer, Room> rooms = new ConcurrentHashMap<>();
+
+    private int nextRoomID = Network.DEFAULT_ROOM;
+
+    /**
+     * Salle du serveur : sa partie en cours et la tâche qui la calcule
+     */
+    private class Room implements Runnable {
+        final int id;
+
+        final Engine.Builder builder;
+
+        volatile Server world;
+
+        ScheduledFuture<?> task;
+
+        Room(int id, Engine.Builder builder) throws Exception {
+            this.id = id;
+            this.builder = builder;
+            this.world = builder.buildRoom(network);
+        }
+
+        /**
+         * Calcule une image de la salle, puis la recrée si sa partie est terminée
+         */
+        @Override
+        public void run() {
+            try {
+                if (world.update() == GameState.End) {
+                    Server ended = world;
+                    //Les clients de la partie terminée ne sont pas transmis à la nouvelle
+                    for (Connection connection : ended.getConnections())
+                        ((GameConnection)connection).setRoom(-1);
+                    world = builder.buildRoom(network);
+                    ended.stop();
+                }
+            } catch (Exception e) {
+                //Une exception arrêterait la tâche sans prévenir : la salle est fermée
+                e.printStackTrace();
+                closeRoom(id);
+            }
+        }
+    }
+
+    /**
+     * Construit un serveur dédié sans salle, à l'écoute sur les ports du jeu
+     * @param threads Nombre de threads qui calculent les salles
+     * @throws IOException si les ports ne sont pas disponibles
+     */
+    public DedicatedServer(int threads) throws IOException {
+        if (threads <= 0)
+            throw new RuntimeException("Nombre de threads invalide : " + threads);
+
+        network = new com.esotericsoftware.kryonet.Server(16384, 8192) {
+            @Override
+            protected Connection newConnection() {
+                return new GameConnection();
+            }
+        };
+
+        Network.register(network);
+
+        //Un seul thread pour que les messages d'une connexion restent dans l'ordre
+        listenerPool = Executors.newFixedThreadPool(1);
+
+        network.addListener(new Listener.ThreadedListener(this, listenerPool));
+
+        scheduler = Executors.newScheduledThreadPool(threads);
+
+        network.bind(Network.tcpPort, Network.udpPort);
+
+        network.start();
+    }
+
+    /**
+     * Construit un serveur dédié avec un thread de calcul par cœur
+     * @throws IOException si les ports ne sont pas disponibles
+     */
+    public DedicatedServer() throws IOException {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Crée une salle et commence à la calculer à sa cadence nominale
+     * @param builder Réglages et IA de la salle, qui servent aussi à la recréer
+     * @return Le numéro de la salle, à donner aux clients
+     * @throws Exception s'il y a une erreur lors de la création de la partie
+     */
+    public synchronized int createRoom(Engine.Builder builder) throws Exception {
+        Room room = new Room(nextRoomID, builder);
+        nextRoomID++;
+        rooms.put(room.id, room);
+        room.task = scheduler.scheduleAtFixedRate(room, 0, 1000000000/room.world.getFps(), TimeUnit.NANOSECONDS);
+        return room.id;
+    }
+
+    /**
+     * Arrête une salle et déconnecte ses clients
+     * @param id Numéro de la salle
+     */
+    public void closeRoom(int id) {
+        Room room = rooms.remove(id);
+        if (room == null)
+            return;
+
+        room.task.cancel(false);
+        room.world.stop();
+    }
+
+    /**
+     * @return Les numéros des salles ouvertes
+     */
+    public List<Integer> getRooms() {
+        List<Integer> ids = new ArrayList<>(rooms.keySet());
+        ids.sort(null);
+        return ids;
+    }
+
+    /**
+     * @param id Numéro d'une salle
+     * @return La partie en cours dans la salle, null si elle n'existe pas
+     */
+    public World getRoom(int id) {
+        Room room = rooms.get(id);
+        return room != null ? room.world : null;
+    }
+
+    /**
+     * Arrête toutes les salles puis le serveur
+     */
+    public void stop() {
+        for (Integer id : getRooms())
+            closeRoom(id);
+
+        scheduler.shutdown();
+        network.close();
+        network.stop();
+        listenerPool.shutdown();
+    }
+
+    @Override
+    public void received(Connection connection, Object object) {
+        GameConnection gConnection = (GameConnection)connection;
+        if (object instanceof JoinRoom) {
+            if (gConnection.getRoom() >= 0)
+                return;
+
+            Room room = rooms.get(((JoinRoom)object).room);
+            if (room == null) {
+                connection.close();
+                return;
+            }
+
+            gConnection.setRoom(room.id);
+            room.world.connected(connection);
+        } else {
+            Room room = rooms.get(gConnection.getRoom());
+            if (room != null)
+                room.world.received(connection, object);
+        }
+    }
+
+    @Override
+    public void disconnected(Connection connection) {
+        Room room = rooms.get(((GameConnection)connection).getRoom());
+        if (room == null)
+            return;
+
+        room.world.disconnected(connection);
+    }
+
+    /**
+     * Lance un serveur dédié depuis la ligne de commande, jusqu'à son arrêt par le système
+     * Options : --rooms n --maps a,b --threads n --rounds n --duration s --warmup s --rest s
+     *           --ai LEVEL --ai-count n
+     * @param args Arguments lors de l'exécution
+     * @throws Exception si le serveur n'a pas pu démarrer
+     */
+    public static void main(String[] args) throws Exception {
+        int roomCount = 1;
+        int threads = Runtime.getRuntime().availableProcessors();
+        Engine.Builder builder = new Engine.Builder();
+        List<String> maps = null;
+        AIController.Level level = AIController.Level.HARD;
+        int aiCount = 0;
+
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            String value = args[i+1];
+            switch (args[i]) {
+            case "--rooms":
+                roomCount = Integer.parseInt(value);
+                break;
+            case "--maps":
+                maps = Arrays.asList(value.split(","));
+                break;
+            case "--threads":
+                threads = Integer.parseInt(value);
+                break;
+            case "--rounds":
+                builder.rounds(Integer.parseInt(value));
+                break;
+            case "--duration":
+                builder.duration(Double.parseDouble(value));
+                break;
+            case "--warmup":
+                builder.warmup(Double.parseDouble(value));
+                break;
+            case "--rest":
+                builder.restTime(Double.parseDouble(value));
+                break;
+            case "--ai":
+                level = AIController.Level.valueOf(value);
+                break;
+            case "--ai-count":
+                aiCount = Integer.parseInt(value);
+                break;
+            default:
+                throw new RuntimeException("Option inconnue : " + args[i]);
+            }
+        }
+
+        builder.maps(maps != null ? maps : Tournament.bundledMaps());
+        builder.ai(level, aiCount);
+
+        final DedicatedServer server = new DedicatedServer(threads);
+        Runtime.getRuntime().addShutdownHook(new Thread(server::stop));
+        try {
+            for (int i = 0; i < roomCount; i++)
+                server.createRoom(builder);
+        } catch (Exception e) {
+            server.stop();
+            throw e;
+        }
+
+        System.out.println(roomCount + " salle(s) ouverte(s) sur le port " + Network.tcpPort);
+    }
+}
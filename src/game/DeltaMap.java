@@ -1,17 +1,57 @@
 package game;
 
+import java.util.BitSet;
 import java.util.InputMismatchException;
-import java.util.LinkedList;
-import java.util.List;
 import java.util.Scanner;
 
-import network.Network.CommandMap;
+import network.PacketReader;
+import network.PacketWriter;
 
 /**
  * Carte avec historique
+ * Les modifications sont enregistrées sous forme binaire (code d'une commande, indice de case
+ * à longueur variable, quelques octets) jusqu'au prochain envoi. Les changements de tuile
+ * d'une même case sont fusionnés : seul l'état final de la case est envoyé, après les
+ * explosions. Les explosions d'une image forment un seul enregistrement.
  */
 public class DeltaMap extends Map {
-     List<CommandMap> deltas = new LinkedList<CommandMap>();
+    private static final TileType[] TILE_TYPES = TileType.values();
+
+    private static final BonusType[] BONUS_TYPES = BonusType.values();
+
+    private static final Direction[] DIRECTIONS = Direction.values();
+
+    private static final ExplosionType[] EXPLOSION_TYPES = ExplosionType.values();
+
+    private static final int NO_DIRECTION = 4;
+
+    //Codes des commandes
+    static final int NAME = 0;
+
+    static final int LOAD_MAP = 1;
+
+    /** Nouvelle tuile en conservant les explosions de la case */
+    static final int TILE = 2;
+
+    /** Nouvelle tuile en effaçant les explosions de la case */
+    static final int TILE_RESET = 3;
+
+    static final int EXPLOSION = 4;
+
+    static final int EXPLOSION_END = 5;
+
+    static final int BLASTS = 6;
+
+    /** Commandes dans l'ordre, sans les tuiles */
+    private final PacketWriter log = new PacketWriter();
+
+    private final PacketWriter packet = new PacketWriter();
+
+    /** Cases dont la tuile a changé depuis le dernier envoi */
+    private final BitSet dirtyTiles = new BitSet();
+
+    /** Cases dont la dernière modification de tuile efface les explosions */
+    private final BitSet resetTiles = new BitSet();
 
     /**
      * Construit une carte avec historique
@@ -35,99 +75,234 @@ public class DeltaMap extends Map {
     @Override
     public void setName(String name) {
         super.setName(name);
-        deltas.add(new CommandMap(CommandMap.Name.setName, name));
+        log.writeByte(NAME);
+        log.writeString(name);
     }
 
     @Override
     void loadMap(Scanner sc) throws InputMismatchException {
         super.loadMap(sc);
-        deltas.add(new CommandMap(CommandMap.Name.loadMap, saveMap()));
+        //La nouvelle carte remplace toutes les modifications précédentes
+        log.reset();
+        dirtyTiles.clear();
+        resetTiles.clear();
+        log.writeByte(LOAD_MAP);
+        writeMap(log);
     }
 
     @Override
     public void setTileType(TileType type, GridCoordinates gc) {
         super.setTileType(type, gc);
-        deltas.add(new CommandMap(CommandMap.Name.setTileType, type, new GridCoordinates(gc)));
+        int cell = toCellIndex(gc.x, gc.y);
+        dirtyTiles.set(cell);
+        resetTiles.set(cell);
     }
 
     @Override
     public void setBonusType(BonusType type, GridCoordinates gc) {
         super.setBonusType(type, gc);
-        deltas.add(new CommandMap(CommandMap.Name.setBonusType, type, new GridCoordinates(gc)));
+        dirtyTiles.set(toCellIndex(gc.x, gc.y));
     }
 
     @Override
     public void setArrowDirection(Direction direction, GridCoordinates gc) {
         super.setArrowDirection(direction, gc);
-        deltas.add(new CommandMap(CommandMap.Name.setArrowDirection, direction, new GridCoordinates(gc)));
+        dirtyTiles.set(toCellIndex(gc.x, gc.y));
+    }
+
+    @Override
+    void setTile(TileType type, BonusType bonusType, int column, int row) {
+        super.setTile(type, bonusType, column, row);
+        dirtyTiles.set(toCellIndex(column, row));
     }
 
     @Override
-    void setExplosion(int duration, ExplosionType type, Direction direction, Character owner, GridCoordinates gc) {
-        super.setExplosion(duration, type, direction, owner, gc);
-        deltas.add(new CommandMap(CommandMap.Name.setExplosion, duration, type, direction, new GridCoordinates(gc)));
+    void setExplosion(int duration, ExplosionType type, Direction direction, Character owner, int column, int row) {
+        super.setExplosion(duration, type, direction, owner, column, row);
+        int cell = toCellIndex(column, row);
+        resetTiles.clear(cell);
+        log.writeByte(EXPLOSION);
+        log.writeVarInt(cell);
+        log.writeVarInt(duration);
+        log.writeByte(type.ordinal() << 3 | (direction == null ? NO_DIRECTION : direction.ordinal()));
     }
 
+    /**
+     * Enregistre les explosions d'une image : durée, nombre d'explosions puis, pour chacune,
+     * l'écart avec la case précédente combiné au type et à la direction
+     */
     @Override
-    void setExplosionEnd(GridCoordinates gc) {
-        super.setExplosionEnd(gc);
-        deltas.add(new CommandMap(CommandMap.Name.setExplosionEnd, new GridCoordinates(gc)));
+    void addBlasts(BlastEvents blasts) {
+        super.addBlasts(blasts);
+        if (blasts.isEmpty())
+            return;
+
+        log.writeByte(BLASTS);
+        log.writeVarInt(blasts.getDuration());
+        log.writeVarInt(blasts.size());
+        int previous = 0;
+        for (int i = 0; i < blasts.size(); i++) {
+            int cell = blasts.getCell(i);
+            Direction direction = blasts.getDirection(i);
+            int delta = cell - previous;
+            log.writeVarInt(((delta << 1) ^ (delta >> 31)) << 5 | blasts.getType(i).ordinal() << 3 |
+                            (direction == null ? NO_DIRECTION : direction.ordinal()));
+            previous = cell;
+            //Une explosion posée après une tuile qui efface les explosions doit rester
+            resetTiles.clear(cell);
+        }
     }
 
     @Override
-    void setTile(Tile tile, GridCoordinates gc) {
-        if (tiles[gc.x][gc.y] != tile) {
-            deltas.add(new CommandMap(CommandMap.Name.setTileType, tile.getType(), new GridCoordinates(gc)));
-            if (tile.getType() == TileType.Bonus)
-                deltas.add(new CommandMap(CommandMap.Name.setBonusType, ((BonusTile)tile).getBonusType(), new GridCoordinates(gc)));
-            else if  (tile.getType() == TileType.Arrow)
-                deltas.add(new CommandMap(CommandMap.Name.setArrowDirection, ((ArrowTile)tile).getDirection(), new GridCoordinates(gc)));
+    void setExplosionEnd(int column, int row) {
+        super.setExplosionEnd(column, row);
+        log.writeByte(EXPLOSION_END);
+        log.writeVarInt(toCellIndex(column, row));
+    }
+
+    /**
+     * @return true si des modifications n'ont pas encore été envoyées
+     */
+    boolean hasDeltas() {
+        return log.size() > 0 || !dirtyTiles.isEmpty();
+    }
+
+    /**
+     * Termine l'enregistrement en cours : les commandes dans l'ordre, puis l'état final des
+     * tuiles modifiées
+     * @return Les modifications depuis le dernier appel, à appliquer avec executeDeltas
+     */
+    byte[] takeDeltas() {
+        packet.reset();
+        packet.append(log);
+        for (int cell = dirtyTiles.nextSetBit(0); cell >= 0; cell = dirtyTiles.nextSetBit(cell+1)) {
+            int column = getCellColumn(cell);
+            int row = getCellRow(cell);
+            TileType type = getTileType(column, row);
+            packet.writeByte(resetTiles.get(cell) ? TILE_RESET : TILE);
+            packet.writeVarInt(cell);
+            packet.writeByte(type.ordinal());
+            if (type == TileType.Bonus)
+                packet.writeByte(getBonusType(column, row).ordinal());
+            else if (type == TileType.Arrow)
+                packet.writeByte(getArrowDirection(column, row).ordinal());
         }
-        super.setTile(tile, gc);
+
+        log.reset();
+        dirtyTiles.clear();
+        resetTiles.clear();
+        return packet.toByteArray();
     }
 
     /**
-     * Applique une commande sur la map
-     * @param command Commande à exécuter
-     * @param map Map sur laquelle exécuter
+     * Écrit l'état complet d'une carte sous forme de commandes, à appliquer avec executeDeltas
+     * sur une carte vide : son nom, ses tuiles puis chaque explosion de chaque case, dans
+     * l'ordre où elles sont superposées et avec leur temps restant
+     * @param map Carte, qui ne doit pas être modifiée pendant l'écriture
+     * @param out Paquet dans lequel écrire
      */
-    public static void executeDelta(CommandMap command, Map map) {
-        switch (command.name) {
-        case setName:
-            map.setName((String)command.args[0]);
-            break;
-        case loadMap:
-            map.loadMap((String)command.args[0]);
-            break;
-        case setTileType:
-            map.setTileType((TileType)command.args[0], (GridCoordinates)command.args[1]);
-            break;
-        case setBonusType:
-            map.setBonusType((BonusType)command.args[0], (GridCoordinates)command.args[1]);
-            break;
-        case setArrowDirection:
-            map.setArrowDirection((Direction)command.args[0], (GridCoordinates)command.args[1]);
-            break;
-        case setExplosion:
-            map.setExplosion((int)command.args[0], (ExplosionType)command.args[1], (Direction)command.args[2], null, (GridCoordinates)command.args[3]);
-            break;
-        case setExplosionEnd:
-            map.setExplosionEnd((GridCoordinates)command.args[0]);
-            break;
-        default:
-            break;
+    static void writeState(Map map, PacketWriter out) {
+        if (map.getName() != null) {
+            out.writeByte(NAME);
+            out.writeString(map.getName());
         }
+
+        out.writeByte(LOAD_MAP);
+        map.writeMap(out);
+
+        ExplosionStates explosions = map.explosions;
+        for (int cell = 0; cell < map.tileTypes.length; cell++) {
+            for (int state = explosions.getFirstState(cell); state >= 0; state = explosions.getNextState(state)) {
+                Direction direction = explosions.getStateDirection(state);
+                out.writeByte(EXPLOSION);
+                out.writeVarInt(cell);
+                out.writeVarInt(explosions.getStateTime(state));
+                out.writeByte(explosions.getStateType(state).ordinal() << 3 |
+                              (direction == null ? NO_DIRECTION : direction.ordinal()));
+            }
+        }
+    }
+
+    /**
+     * Applique sur une carte les modifications enregistrées par une carte avec historique
+     * @param deltas Modifications produites par takeDeltas
+     * @param map Carte sur laquelle exécuter
+     */
+    public static void executeDeltas(byte[] deltas, Map map) {
+        executeDeltas(new PacketReader(deltas), map);
     }
 
     /**
-     * Charge l'historique sur la carte
-     * @param deltas Historique à charger
+     * Applique sur une carte les commandes qui restent dans un paquet
+     * @param in Paquet dont la fin contient des modifications produites par takeDeltas ou writeState
      * @param map Carte sur laquelle exécuter
      */
-    public static void executeDeltas(List<CommandMap> deltas, Map map) {
-        for (CommandMap command : deltas) {
-            executeDelta(command, map);
+    static void executeDeltas(PacketReader in, Map map) {
+        while (in.hasRemaining()) {
+            int command = in.readByte();
+            switch (command) {
+            case NAME:
+                map.setName(in.readString());
+                break;
+            case LOAD_MAP:
+                map.loadMap(in);
+                break;
+            case TILE:
+            case TILE_RESET:
+                executeTile(command, in, map);
+                break;
+            case EXPLOSION: {
+                int cell = in.readVarInt();
+                int duration = in.readVarInt();
+                int typeDirection = in.readByte();
+                int direction = typeDirection & 7;
+                map.setExplosion(duration, EXPLOSION_TYPES[typeDirection >> 3],
+                                 direction == NO_DIRECTION ? null : DIRECTIONS[direction], null,
+                                 map.getCellColumn(cell), map.getCellRow(cell));
+                break;
+            }
+            case EXPLOSION_END: {
+                int cell = in.readVarInt();
+                map.setExplosionEnd(map.getCellColumn(cell), map.getCellRow(cell));
+                break;
+            }
+            case BLASTS: {
+                BlastEvents blasts = new BlastEvents();
+                blasts.clear(in.readVarInt());
+                int count = in.readVarInt();
+                int cell = 0;
+                for (int i = 0; i < count; i++) {
+                    int event = in.readVarInt();
+                    int delta = event >>> 5;
+                    cell += (delta >>> 1) ^ -(delta & 1);
+                    int direction = event & 7;
+                    blasts.add(cell, EXPLOSION_TYPES[(event >> 3) & 3],
+                               direction == NO_DIRECTION ? null : DIRECTIONS[direction], null);
+                }
+                map.addBlasts(blasts);
+                break;
+            }
+            default:
+                throw new RuntimeException("Commande de carte inconnue : " + command);
+            }
         }
     }
 
+    private static void executeTile(int command, PacketReader in, Map map) {
+        int cell = in.readVarInt();
+        GridCoordinates gc = new GridCoordinates(map.getCellColumn(cell), map.getCellRow(cell));
+        TileType type = TILE_TYPES[in.readByte()];
+        BonusType bonusType = type == TileType.Bonus ? BONUS_TYPES[in.readByte()] : null;
+        Direction arrowDirection = type == TileType.Arrow ? DIRECTIONS[in.readByte()] : null;
+
+        if (command == TILE_RESET) {
+            map.setTileType(type, gc);
+            if (bonusType != null)
+                map.setBonusType(bonusType, gc);
+        } else
+            map.setTile(type, bonusType, gc.x, gc.y);
+
+        if (arrowDirection != null)
+            map.setArrowDirection(arrowDirection, gc);
+    }
 }
@@ -1,13 +1,38 @@
 package game;
 
+import java.util.Random;
+
 
 /** Représente les directions disponibles pour les joueurs */
 public enum Direction {
-    Right,
-    Up,
-    Left,
-    Down;
-    
+    Right(1, 0),
+    Up(0, -1),
+    Left(-1, 0),
+    Down(0, 1);
+
+    private final int deltaX;
+
+    private final int deltaY;
+
+    private Direction(int deltaX, int deltaY) {
+        this.deltaX = deltaX;
+        this.deltaY = deltaY;
+    }
+
+    /**
+     * @return Le déplacement en colonnes vers la case voisine dans cette direction
+     */
+    public int getDeltaX() {
+        return deltaX;
+    }
+
+    /**
+     * @return Le déplacement en lignes vers la case voisine dans cette direction
+     */
+    public int getDeltaY() {
+        return deltaY;
+    }
+
     /**
      * Vérifie si deux directions ont la même direction (mais pas forcément dans le même sens)
      * @param d1 la 1ère direction
@@ -29,10 +54,11 @@ public enum Direction {
     
     /**
      * Sélectionne une direction aléatoire
+     * @param random Générateur aléatoire
      * @return la direction aléatoire
      */
-    public static Direction getRandomDirection() {
-        return values()[(int)(Math.random()*values().length)];
+    public static Direction getRandomDirection(Random random) {
+        return values()[random.nextInt(values().length)];
     }
     
     public static Direction getOpposite(Direction direction) {
@@ -0,0 +1,431 @@
+package game;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Supplier;
+
+/**
+ * Cette classe exécute une partie sans interface graphique.
+ * Elle ne dépend d'aucune classe AWT/Swing et peut donc servir de serveur dédié
+ * ou de moteur de simulation pour des parties entre IA.
+ */
+public class Engine implements Runnable {
+    /** Cadence indiquant que la partie doit tourner aussi vite que possible */
+    public static final int UNCAPPED = 0;
+
+    /**
+     * Cadence indiquant que la partie tourne à son nombre d'images par seconde, lu une fois la
+     * partie prête : celui d'un client n'est connu qu'après la réception de l'état du serveur
+     */
+    public static final int WORLD_FPS = -1;
+
+    /**
+     * Écouteur appelé à la fin de chaque image de la partie
+     */
+    public interface TickListener {
+        /**
+         * @param state État de la partie après l'image
+         * @throws Exception si l'écouteur veut interrompre la partie
+         */
+        void tickEnded(GameState state) throws Exception;
+    }
+
+    private final World world;
+
+    private int tickRate;
+
+    private volatile boolean stop;
+
+    private long tickCount;
+
+    private TickListener tickListener;
+
+    /**
+     * Construit un moteur exécutant la partie à sa cadence nominale
+     * @param world Partie à exécuter
+     */
+    public Engine(World world) {
+        this(world, WORLD_FPS);
+    }
+
+    /**
+     * Construit un moteur exécutant la partie
+     * @param world Partie à exécuter
+     * @param tickRate Nombre d'images calculées par seconde, UNCAPPED pour aller aussi vite que possible,
+     *                 WORLD_FPS pour suivre le nombre d'images par seconde de la partie
+     */
+    public Engine(World world, int tickRate) {
+        this.world = world;
+        setTickRate(tickRate);
+    }
+
+    public World getWorld() {
+        return world;
+    }
+
+    /**
+     * @return La cadence d'exécution demandée, UNCAPPED ou WORLD_FPS
+     */
+    public int getTickRate() {
+        return tickRate;
+    }
+
+    /**
+     * Modifie la cadence d'exécution, indépendamment du nombre d'images par seconde de la partie
+     * @param tickRate Nombre d'images calculées par seconde, UNCAPPED pour aller aussi vite que possible,
+     *                 WORLD_FPS pour suivre le nombre d'images par seconde de la partie
+     */
+    public void setTickRate(int tickRate) {
+        if (tickRate < WORLD_FPS)
+            throw new RuntimeException("Cadence négative : " + tickRate);
+        this.tickRate = tickRate;
+    }
+
+    /**
+     * @return Le nombre d'images calculées depuis le lancement
+     */
+    public long getTickCount() {
+        return tickCount;
+    }
+
+    public void setTickListener(TickListener tickListener) {
+        this.tickListener = tickListener;
+    }
+
+    /**
+     * Calcule une image de la partie
+     * @return L'état de la partie après l'image
+     */
+    public GameState step() {
+        tickCount++;
+        return world.update();
+    }
+
+    /**
+     * Exécute la partie jusqu'à sa fin ou jusqu'à l'appel de stop()
+     * @return Le dernier état de la partie
+     * @throws Exception si un écouteur a échoué
+     * @throws InterruptedException si le thread est interrompu
+     */
+    public GameState play() throws Exception {
+        stop = false;
+
+        while (!stop && !world.isReady()) {
+            Thread.sleep(1000/world.getFps(), 0);
+        }
+
+        GameState state = GameState.Init;
+
+        long offset = 0;
+        long start = System.nanoTime();
+
+        while (!stop && (state = step()) != GameState.End) {
+            if (tickListener != null)
+                tickListener.tickEnded(state);
+
+            final int rate = tickRate == WORLD_FPS ? world.getFps() : tickRate;
+            if (rate == UNCAPPED) {
+                if (Thread.interrupted())
+                    throw new InterruptedException();
+                continue;
+            }
+
+            final long timeStep = 1000000000/rate;
+            long duration = System.nanoTime() - start;
+
+            if (timeStep-duration-offset > 0) {
+                Thread.sleep((timeStep-duration-offset)/1000000, (int)((timeStep-duration-offset)%1000000));
+            }
+
+            offset += (System.nanoTime() - start) - timeStep;
+
+            start = System.nanoTime();
+        }
+
+        return state;
+    }
+
+    /**
+     * Exécute la partie puis l'arrête
+     */
+    @Override
+    public void run() {
+        try {
+            play();
+        } catch (InterruptedException e) {
+            //Interrompu
+        } catch (Exception e) {
+            e.printStackTrace();
+        } finally {
+            world.stop();
+        }
+    }
+
+    /**
+     * Demande l'arrêt de la partie à la fin de l'image en cours
+     */
+    public void stop() {
+        this.stop = true;
+    }
+
+    /**
+     * Construit un moteur et sa partie
+     */
+    public static class Builder {
+        private List<String> maps = new ArrayList<>();
+
+        private int tileSize = 32;
+
+        private int fps = 60;
+
+        private int tickRate = -1;
+
+        private int roundMax = 1;
+
+        private double duration = 180;
+
+        private double warmupDuration = 2;
+
+        private double restTimeDuration = 5;
+
+        private boolean server = false;
+
+        private Long seed;
+
+        private ForkJoinPool decisionPool;
+
+        private boolean hasDecisionPool = false;
+
+        private boolean instantChainReaction = false;
+
+        private Integer aiPlanningInterval;
+
+        private Long aiTimeBudget;
+
+        private Long aiSearchTime;
+
+        //Les IA sont créées à chaque partie construite, pour que le constructeur serve plusieurs fois
+        private List<Supplier<Controller>> controllers = new ArrayList<>();
+
+        private boolean hasControllerInstances = false;
+
+        /**
+         * Ajoute une carte à la liste des cartes jouées
+         * @param map Nom de la carte (sans l'extension .map)
+         * @return Le constructeur
+         */
+        public Builder map(String map) {
+            maps.add(map);
+            return this;
+        }
+
+        public Builder maps(List<String> maps) {
+            this.maps.addAll(maps);
+            return this;
+        }
+
+        public Builder tileSize(int tileSize) {
+            this.tileSize = tileSize;
+            return this;
+        }
+
+        /**
+         * @param fps Nombre d'images par seconde simulées par la partie
+         * @return Le constructeur
+         */
+        public Builder fps(int fps) {
+            this.fps = fps;
+            return this;
+        }
+
+        /**
+         * @param tickRate Nombre d'images calculées par seconde réelle, UNCAPPED pour aller aussi vite que possible
+         * @return Le constructeur
+         */
+        public Builder tickRate(int tickRate) {
+            this.tickRate = tickRate;
+            return this;
+        }
+
+        /**
+         * Exécute la partie aussi vite que possible
+         * @return Le constructeur
+         */
+        public Builder uncapped() {
+            return tickRate(UNCAPPED);
+        }
+
+        public Builder rounds(int roundMax) {
+            this.roundMax = roundMax;
+            return this;
+        }
+
+        /**
+         * @param duration Durée d'un round en secondes
+         * @return Le constructeur
+         */
+        public Builder duration(double duration) {
+            this.duration = duration;
+            return this;
+        }
+
+        /**
+         * @param warmupDuration Durée de l'échauffement en secondes
+         * @return Le constructeur
+         */
+        public Builder warmup(double warmupDuration) {
+            this.warmupDuration = warmupDuration;
+            return this;
+        }
+
+        /**
+         * @param restTimeDuration Durée entre deux rounds en secondes
+         * @return Le constructeur
+         */
+        public Builder restTime(double restTimeDuration) {
+            this.restTimeDuration = restTimeDuration;
+            return this;
+        }
+
+        /**
+         * @param server true pour héberger la partie en réseau
+         * @return Le constructeur
+         */
+        public Builder server(boolean server) {
+            this.server = server;
+            return this;
+        }
+
+        /**
+         * @param seed Graine du générateur aléatoire, pour rejouer une partie à l'identique
+         * @return Le constructeur
+         */
+        public Builder seed(long seed) {
+            this.seed = seed;
+            return this;
+        }
+
+        /**
+         * Par défaut, les IA d'une partie locale décident en parallèle sur ForkJoinPool.commonPool()
+         * et celles d'un serveur sur le thread de simulation
+         * @param decisionPool Groupe de threads qui exécute les décisions des IA,
+         *                     null pour les prendre sur le thread de simulation
+         * @return Le constructeur
+         */
+        public Builder decisionPool(ForkJoinPool decisionPool) {
+            this.decisionPool = decisionPool;
+            this.hasDecisionPool = true;
+            return this;
+        }
+
+        /**
+         * @param instantChainReaction true pour que les bombes touchées par une explosion explosent
+         *                             dans la même image, false pour que leur compte à rebours s'accélère
+         * @return Le constructeur
+         */
+        public Builder instantChainReaction(boolean instantChainReaction) {
+            this.instantChainReaction = instantChainReaction;
+            return this;
+        }
+
+        /**
+         * Règle la planification de toutes les IA de la partie
+         * @param planningInterval Nombre d'images entre deux plans lorsque rien ne change,
+         *                         0 pour suivre AIController.DEFAULT_PLANNING_RATE
+         * @param timeBudget Temps de calcul accordé à chaque IA par image en nanosecondes, 0 pour ne pas le limiter
+         * @return Le constructeur
+         */
+        public Builder aiPlanning(int planningInterval, long timeBudget) {
+            this.aiPlanningInterval = planningInterval;
+            this.aiTimeBudget = timeBudget;
+            return this;
+        }
+
+        /**
+         * Règle le temps de recherche des IA qui explorent des copies de la partie
+         * @param searchTime Temps accordé à chaque décision en nanosecondes
+         * @return Le constructeur
+         */
+        public Builder aiSearchTime(long searchTime) {
+            this.aiSearchTime = searchTime;
+            return this;
+        }
+
+        public Builder controller(Controller controller) {
+            controllers.add(() -> controller);
+            hasControllerInstances = true;
+            return this;
+        }
+
+        /**
+         * Ajoute des intelligences artificielles à la partie
+         * @param level Niveau des IA
+         * @param count Nombre d'IA
+         * @return Le constructeur
+         */
+        public Builder ai(AIController.Level level, int count) {
+            for (int i = 0; i < count; i++)
+                controllers.add(() -> new AIController(level));
+            return this;
+        }
+
+        /**
+         * Crée la partie puis le moteur qui l'exécute
+         * @return Le moteur
+         * @throws Exception s'il y a une erreur lors de la création de la partie
+         */
+        public Engine build() throws Exception {
+            return new Engine(buildWorld(null), tickRate < 0 ? WORLD_FPS : tickRate);
+        }
+
+        /**
+         * Crée une salle de serveur dédié, exécutée par son ordonnanceur plutôt que par un moteur
+         * Une salle peut être recréée à chaque partie : elle n'accepte que des IA, pas de
+         * contrôleurs ajoutés avec controller().
+         * @param network Serveur réseau partagé par les salles
+         * @return La salle
+         * @throws Exception s'il y a une erreur lors de la création de la partie
+         */
+        Server buildRoom(com.esotericsoftware.kryonet.Server network) throws Exception {
+            if (hasControllerInstances)
+                throw new RuntimeException("Une salle ne peut accueillir que des IA et des joueurs en réseau");
+            return (Server)buildWorld(network);
+        }
+
+        private World buildWorld(com.esotericsoftware.kryonet.Server network) throws Exception {
+            if (maps.isEmpty())
+                throw new Exception("Il faut sélectionner au moins une carte !");
+
+            World world;
+            if (network != null)
+                world = new Server(maps, tileSize, fps, roundMax, (int)(duration*fps),
+                                   (int)(warmupDuration*fps), (int)(restTimeDuration*fps), network);
+            else if (server)
+                world = new Server(maps, tileSize, fps, roundMax, (int)(duration*fps),
+                                   (int)(warmupDuration*fps), (int)(restTimeDuration*fps));
+            else
+                world = new Local(maps, tileSize, fps, roundMax, (int)(duration*fps),
+                                  (int)(warmupDuration*fps), (int)(restTimeDuration*fps));
+
+            if (seed != null)
+                world.setSeed(seed);
+            if (hasDecisionPool)
+                world.setDecisionPool(decisionPool);
+            world.setInstantChainReaction(instantChainReaction);
+
+            for (Supplier<Controller> supplier : controllers) {
+                Controller controller = supplier.get();
+                if (controller instanceof AIController && aiPlanningInterval != null) {
+                    ((AIController)controller).setPlanningInterval(aiPlanningInterval);
+                    ((AIController)controller).setTimeBudget(aiTimeBudget);
+                }
+                if (controller instanceof AIController && aiSearchTime != null)
+                    ((AIController)controller).setSearchTime(aiSearchTime);
+                world.newPlayer(controller);
+            }
+
+            return world;
+        }
+    }
+}
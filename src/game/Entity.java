@@ -20,6 +20,11 @@ public abstract class Entity {
      static final double OFFSET_PERCENTAGE = 1./3.;
 
      transient World world;
+
+    /**
+     * Case de la carte dans laquelle l'entité est indexée, -1 si elle n'est pas sur la carte
+     */
+     transient int cell = -1;
     
     /**
      * Construit une entité
@@ -59,6 +64,7 @@ public abstract class Entity {
         if(value >= world.getMap().getTileSize()/2. &&
            value < world.getMap().getWidth()-(world.getMap().getTileSize()/2.)) {
             this.x = value;
+            moved();
         } else {
             throw new RuntimeException("x = " + value + " can't be outside of the map");
         }
@@ -72,6 +78,7 @@ public abstract class Entity {
         if(value >= world.getMap().getTileSize()/2. &&
            value < world.getMap().getHeight()-(world.getMap().getTileSize()/2.)) {
              this.y = value;
+             moved();
         } else {
             throw new RuntimeException("y = " + value + " can't be outside of the map");
         }
@@ -117,6 +124,16 @@ public abstract class Entity {
         this.world = world;
     }
 
+    /**
+     * Vérifie si le centre de l'entité se trouve dans une case
+     * @param column Colonne de la case
+     * @param row Ligne de la case
+     * @return Vrai si l'entité est dans la case
+     */
+    boolean isInsideCell(int column, int row) {
+        return world.getMap().toColumn(x) == column && world.getMap().toRow(y) == row;
+    }
+
     /**
      * Vérifie la collision dans une direction à une certaine distance
      * @param direction Direction
@@ -157,6 +174,14 @@ public abstract class Entity {
      * Met à jour l'entité
      */
     void update() {
+        move();
+    }
+
+    /**
+     * Déplace l'entité d'une image selon sa direction et sa vitesse, en s'arrêtant contre les obstacles
+     * C'est la physique partagée par le serveur et par la prédiction des clients.
+     */
+    void move() {
         if (!isColliding(this.direction, this.speed))
             updatePosition(this.speed);
         else {
@@ -188,28 +213,38 @@ public abstract class Entity {
         case Left:
             this.x -= move;
             if (canCollide(getBorderLeft(), getBorderTop()) || canCollide(getBorderLeft(), getBorderDown())) {
-                this.y -= clamp(this.y - world.getMap().toCenterY(world.getMap().toGridCoordinates(x, y)), -1, 1);
+                this.y -= clamp(this.y - world.getMap().toCenterY(y), -1, 1);
             }
             break;
         case Right:
             this.x += move;
             if (canCollide(getBorderRight(), getBorderTop()) || canCollide(getBorderRight(), getBorderDown())) {
-                this.y -= clamp(this.y - world.getMap().toCenterY(world.getMap().toGridCoordinates(x, y)), -1, 1);
+                this.y -= clamp(this.y - world.getMap().toCenterY(y), -1, 1);
             }
             break;
         case Up:
             this.y -= move;
             if (canCollide(getBorderLeft(), getBorderTop()) || canCollide(getBorderRight(), getBorderTop())) {
-                this.x -= clamp(this.x - world.getMap().toCenterX(world.getMap().toGridCoordinates(x, y)), -1, 1);
+                this.x -= clamp(this.x - world.getMap().toCenterX(x), -1, 1);
             }
             break;
         case Down:
             if (canCollide(getBorderLeft(), getBorderDown()) || canCollide(getBorderRight(), getBorderDown())) {
-                this.x -= clamp(this.x - world.getMap().toCenterX(world.getMap().toGridCoordinates(x, y)), -1, 1);
+                this.x -= clamp(this.x - world.getMap().toCenterX(x), -1, 1);
             }
             this.y += move;
             break;
         }
+
+        moved();
+    }
+
+    /**
+     * Signale le déplacement de l'entité à la carte pour mettre à jour son index spatial
+     */
+    void moved() {
+        if (world != null)
+            world.map.moveEntity(this);
     }
 
     /**
@@ -222,6 +257,7 @@ public abstract class Entity {
         this.y = entity.y;
         this.direction = entity.direction;
         this.speed = entity.speed;
+        moved();
     }
 
 }
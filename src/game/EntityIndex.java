@@ -0,0 +1,180 @@
+package game;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Index spatial des entités d'une carte
+ * Chaque case possède la liste des entités dont le centre s'y trouve, et des
+ * ensembles de bits indiquent quelles cases contiennent des bombes ou des personnages.
+ * L'index est mis à jour au fur et à mesure des déplacements des entités. La liste d'une case
+ * n'est créée qu'à l'arrivée de sa première entité, ce qui rend l'index peu coûteux à construire
+ * pour les copies de la carte.
+ */
+class EntityIndex {
+    private final List<Entity>[] buckets;
+
+    //Vues en lecture seule des listes, créées avec elles pour ne pas en allouer à chaque lecture
+    private final List<Entity>[] views;
+
+    private final int[] bombCounts;
+
+    private final BitSet bombCells;
+
+    private final int[] characterCounts;
+
+    private final BitSet characterCells;
+
+    private int bombVersion;
+
+    /**
+     * Construit un index vide
+     * @param cellCount Nombre de cases de la carte
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    EntityIndex(int cellCount) {
+        buckets = new List[cellCount];
+        views = new List[cellCount];
+        bombCounts = new int[cellCount];
+        bombCells = new BitSet(cellCount);
+        characterCounts = new int[cellCount];
+        characterCells = new BitSet(cellCount);
+    }
+
+    /**
+     * @param cell Indice de la case
+     * @return Les entités de la case, en lecture seule
+     */
+    List<Entity> get(int cell) {
+        if (views[cell] == null)
+            return Collections.emptyList();
+        return views[cell];
+    }
+
+    /**
+     * @return L'ensemble des entités indexées
+     */
+    List<Entity> getAll() {
+        List<Entity> all = new ArrayList<Entity>();
+        for (List<Entity> bucket : buckets) {
+            if (bucket != null)
+                all.addAll(bucket);
+        }
+        return all;
+    }
+
+    boolean isEmpty(int cell) {
+        return buckets[cell] == null || buckets[cell].isEmpty();
+    }
+
+    boolean hasBomb(int cell) {
+        return bombCells.get(cell);
+    }
+
+    boolean hasCharacter(int cell) {
+        return characterCells.get(cell);
+    }
+
+    /**
+     * @param fromCell Indice de départ
+     * @return L'indice de la première case contenant une bombe à partir de fromCell, -1 s'il n'y en a pas
+     */
+    int nextBombCell(int fromCell) {
+        return bombCells.nextSetBit(fromCell);
+    }
+
+    /**
+     * @param cell Indice de la case
+     * @return La première bombe de la case, null s'il n'y en a pas
+     */
+    Bomb getFirstBomb(int cell) {
+        if (!bombCells.get(cell))
+            return null;
+
+        List<Entity> bucket = buckets[cell];
+        for (int i = 0; i < bucket.size(); i++) {
+            if (bucket.get(i) instanceof Bomb)
+                return (Bomb)bucket.get(i);
+        }
+        return null;
+    }
+
+    /**
+     * Ajoute une entité dans une case
+     * @param entity Entité à ajouter
+     * @param cell Indice de la case
+     */
+    void add(Entity entity, int cell) {
+        if (buckets[cell] == null) {
+            buckets[cell] = new ArrayList<Entity>(2);
+            views[cell] = Collections.unmodifiableList(buckets[cell]);
+        }
+        buckets[cell].add(entity);
+        entity.cell = cell;
+        count(entity, cell, 1);
+    }
+
+    /**
+     * Déplace une entité dans une autre case
+     * @param entity Entité à déplacer
+     * @param cell Indice de la nouvelle case
+     */
+    void move(Entity entity, int cell) {
+        remove(entity);
+        add(entity, cell);
+    }
+
+    /**
+     * Retire une entité de sa case
+     * @param entity Entité à retirer
+     * @return true si l'entité était indexée
+     */
+    boolean remove(Entity entity) {
+        int cell = entity.cell;
+        entity.cell = -1;
+        if (cell < 0 || cell >= buckets.length || buckets[cell] == null || !buckets[cell].remove(entity))
+            return false;
+
+        count(entity, cell, -1);
+        return true;
+    }
+
+    /**
+     * Retire les entités à supprimer d'une case
+     * @param cell Indice de la case
+     */
+    void removeToRemove(int cell) {
+        List<Entity> bucket = buckets[cell];
+        if (bucket == null)
+            return;
+
+        for (int i = bucket.size()-1; i >= 0; i--) {
+            Entity entity = bucket.get(i);
+            if (entity.isToRemove()) {
+                bucket.remove(i);
+                entity.cell = -1;
+                count(entity, cell, -1);
+            }
+        }
+    }
+
+    /**
+     * @return Un numéro qui change à chaque fois qu'une bombe est ajoutée, retirée ou change de case
+     */
+    int getBombVersion() {
+        return bombVersion;
+    }
+
+    private void count(Entity entity, int cell, int delta) {
+        if (entity instanceof Bomb) {
+            bombVersion++;
+            bombCounts[cell] += delta;
+            bombCells.set(cell, bombCounts[cell] > 0);
+        } else if (entity instanceof Character) {
+            characterCounts[cell] += delta;
+            characterCells.set(cell, characterCounts[cell] > 0);
+        }
+    }
+}
@@ -0,0 +1,139 @@
+package game;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Registre des entités d'une partie
+ * Les modifications se font sous verrou (le serveur ajoute des personnages depuis ses
+ * threads réseau) ; après chaque série de modifications, publish() publie une copie en
+ * lecture seule que les autres threads (simulation, affichage, réseau) peuvent parcourir
+ * sans verrou ni allocation.
+ */
+class EntityRegistry {
+    private final java.util.Map<Integer, Entity> entities = new HashMap<Integer, Entity>();
+
+    private boolean dirty;
+
+    private volatile List<Entity> snapshot = Collections.emptyList();
+
+    private volatile List<Character> characterSnapshot = Collections.emptyList();
+
+    private volatile int characterCount;
+
+    private volatile int humanCharacterCount;
+
+    /**
+     * @param id Identifiant de l'entité
+     * @return L'entité, null si elle n'existe pas
+     */
+    synchronized Entity get(int id) {
+        return entities.get(id);
+    }
+
+    synchronized void put(int id, Entity entity) {
+        Entity previous = entities.put(id, entity);
+        if (previous != null)
+            count(previous, -1);
+        count(entity, 1);
+        dirty = true;
+    }
+
+    synchronized Entity remove(int id) {
+        Entity entity = entities.remove(id);
+        if (entity != null) {
+            count(entity, -1);
+            dirty = true;
+        }
+        return entity;
+    }
+
+    /**
+     * @return Le nombre de personnages enregistrés
+     */
+    int getCharacterCount() {
+        return characterCount;
+    }
+
+    /**
+     * @return Le nombre de personnages enregistrés qui ne sont pas contrôlés par une IA
+     */
+    int getHumanCharacterCount() {
+        return humanCharacterCount;
+    }
+
+    /**
+     * Recompte les personnages humains, à appeler lorsque le contrôleur d'un personnage change
+     */
+    synchronized void recount() {
+        int characters = 0;
+        int humans = 0;
+        for (Entity entity : entities.values()) {
+            if (entity instanceof Character) {
+                characters++;
+                if (isHuman((Character)entity))
+                    humans++;
+            }
+        }
+        characterCount = characters;
+        humanCharacterCount = humans;
+    }
+
+    private void count(Entity entity, int delta) {
+        if (entity instanceof Character) {
+            characterCount += delta;
+            if (isHuman((Character)entity))
+                humanCharacterCount += delta;
+        }
+    }
+
+    static boolean isHuman(Character character) {
+        return !(character.getController() instanceof AIController);
+    }
+
+    synchronized int size() {
+        return entities.size();
+    }
+
+    /**
+     * @return Une copie des identifiants des entités
+     */
+    synchronized List<Integer> ids() {
+        return new ArrayList<Integer>(entities.keySet());
+    }
+
+    /**
+     * Publie l'état courant du registre s'il a été modifié depuis la dernière publication
+     */
+    synchronized void publish() {
+        if (!dirty)
+            return;
+
+        List<Entity> newSnapshot = new ArrayList<Entity>(entities.values());
+        List<Character> newCharacterSnapshot = new ArrayList<Character>();
+        for (Entity entity : newSnapshot) {
+            if (entity instanceof Character)
+                newCharacterSnapshot.add((Character)entity);
+        }
+
+        snapshot = Collections.unmodifiableList(newSnapshot);
+        characterSnapshot = Collections.unmodifiableList(newCharacterSnapshot);
+        dirty = false;
+    }
+
+    /**
+     * @return Les entités lors de la dernière publication, en lecture seule
+     */
+    List<Entity> getSnapshot() {
+        return snapshot;
+    }
+
+    /**
+     * @return Les personnages lors de la dernière publication, en lecture seule
+     */
+    List<Character> getCharacterSnapshot() {
+        return characterSnapshot;
+    }
+}
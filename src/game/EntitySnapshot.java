@@ -0,0 +1,480 @@
+package game;
+
+import java.util.Arrays;
+import java.util.List;
+
+import network.PacketReader;
+import network.PacketWriter;
+
+
+/**
+ * État quantifié de toutes les entités d'une partie à un instant, tel qu'il circule entre le
+ * serveur et les clients
+ * Chaque entité tient dans une ligne d'entiers (positions au seizième de pixel, vitesse au
+ * 256e de pixel par image, capacités en masque de bits), triée par identifiant. Un instantané
+ * s'encode par différence avec un instantané de base que le client a déjà reçu : seules les
+ * entités modifiées sont écrites, avec un masque des champs modifiés et l'écart de chaque
+ * champ par rapport à sa valeur prévue (voir expected). Sans base, toutes les entités sont
+ * écrites en entier.
+ * Le serveur peut n'envoyer à un client qu'une partie des entités modifiées (voir
+ * captureView) : les autres gardent la valeur prévue et ne sont pas marquées comme mises à jour.
+ */
+class EntitySnapshot {
+    static final int POSITION_SCALE = 16;
+
+    static final int SPEED_SCALE = 256;
+
+    static final int CHARACTER = 0;
+
+    static final int BOMB = 1;
+
+    //Champs communs
+    static final int X = 0;
+
+    static final int Y = 1;
+
+    static final int DIRECTION = 2;
+
+    static final int SPEED = 3;
+
+    //Champs d'un personnage
+    static final int LIVES = 4;
+
+    static final int BOMB_COUNT = 5;
+
+    static final int BOMB_MAX = 6;
+
+    static final int RANGE = 7;
+
+    static final int ABILITIES = 8;
+
+    static final int INVULNERABILITY = 9;
+
+    //Champs d'une bombe
+    static final int BOMB_RANGE = 4;
+
+    static final int DURATION = 5;
+
+    static final int TIME_REMAINING = 6;
+
+    static final int FIELD_COUNT = 10;
+
+    /** Bit du masque indiquant une entité absente de la base, suivie de son type */
+    private static final int NEW_ENTITY = 1 << FIELD_COUNT;
+
+    private static final Direction[] DIRECTIONS = Direction.values();
+
+    private static final CharacterAbility[] ABILITY_VALUES = CharacterAbility.values();
+
+    int sequence = -1;
+
+    int timestamp;
+
+    private int size;
+
+    private int[] ids = new int[16];
+
+    private byte[] types = new byte[16];
+
+    private int[] fields = new int[16*FIELD_COUNT];
+
+    //Entités dont l'état a été transmis avec cet instantané, plutôt que prévu à partir de la base
+    private boolean[] updated = new boolean[16];
+
+    /**
+     * Enregistre l'état des entités
+     * @param entities Entités de la partie
+     * @param sequence Numéro de l'instantané
+     * @param timestamp Image du serveur
+     */
+    void capture(List<Entity> entities, int sequence, int timestamp) {
+        this.sequence = sequence;
+        this.timestamp = timestamp;
+        size = 0;
+        for (int i = 0; i < entities.size(); i++) {
+            Entity entity = entities.get(i);
+            if (!(entity instanceof Character) && !(entity instanceof Bomb))
+                continue;
+
+            int row = insert(entity.getID());
+            int offset = row*FIELD_COUNT;
+            updated[row] = true;
+            Arrays.fill(fields, offset, offset+FIELD_COUNT, 0);
+            fields[offset+X] = (int)Math.round(entity.x*POSITION_SCALE);
+            fields[offset+Y] = (int)Math.round(entity.y*POSITION_SCALE);
+            fields[offset+DIRECTION] = entity.direction == null ? 0 : entity.direction.ordinal()+1;
+            fields[offset+SPEED] = (int)Math.round(entity.speed*SPEED_SCALE);
+            if (entity instanceof Character) {
+                Character character = (Character)entity;
+                types[row] = CHARACTER;
+                fields[offset+LIVES] = character.lives;
+                fields[offset+BOMB_COUNT] = character.bombCount;
+                fields[offset+BOMB_MAX] = character.bombMax;
+                fields[offset+RANGE] = character.range;
+                fields[offset+INVULNERABILITY] = character.invulnerability;
+                int abilities = 0;
+                for (int a = 0; a < character.characterAbilities.size(); a++) {
+                    if (character.characterAbilities.get(a))
+                        abilities |= 1 << a;
+                }
+                fields[offset+ABILITIES] = abilities;
+            } else {
+                Bomb bomb = (Bomb)entity;
+                types[row] = BOMB;
+                fields[offset+BOMB_RANGE] = bomb.range;
+                fields[offset+DURATION] = bomb.duration;
+                fields[offset+TIME_REMAINING] = bomb.timeRemaining;
+            }
+        }
+    }
+
+    /**
+     * Écrit cet instantané par différence avec une base
+     * @param base Instantané déjà reçu par le destinataire, null pour tout écrire
+     * @param out Paquet dans lequel écrire
+     */
+    void encode(EntitySnapshot base, PacketWriter out) {
+        final int baseSize = base == null ? 0 : base.size;
+
+        //Premier passage pour compter les entités à écrire
+        int records = 0;
+        for (int i = 0, j = 0; i < size; i++) {
+            while (j < baseSize && base.ids[j] < ids[i])
+                j++;
+            if (changes(i, base, j, baseSize) != 0)
+                records++;
+        }
+
+        out.writeVarInt(records);
+        int previousID = 0;
+        for (int i = 0, j = 0; i < size; i++) {
+            while (j < baseSize && base.ids[j] < ids[i])
+                j++;
+            int mask = changes(i, base, j, baseSize);
+            if (mask == 0)
+                continue;
+
+            out.writeVarInt(ids[i] - previousID);
+            previousID = ids[i];
+            out.writeVarInt(mask);
+            boolean isNew = (mask & NEW_ENTITY) != 0;
+            if (isNew)
+                out.writeByte(types[i]);
+            for (int field = 0; field < FIELD_COUNT; field++) {
+                if ((mask & (1 << field)) != 0)
+                    out.writeSignedVarInt(fields[i*FIELD_COUNT+field] - (isNew ? 0 : base.expected(j, field, timestamp)));
+            }
+        }
+
+        //Entités de la base qui n'existent plus
+        int removed = 0;
+        for (int j = 0; j < baseSize; j++) {
+            if (indexOf(base.ids[j]) < 0)
+                removed++;
+        }
+        out.writeVarInt(removed);
+        previousID = 0;
+        for (int j = 0; j < baseSize; j++) {
+            if (indexOf(base.ids[j]) < 0) {
+                out.writeVarInt(base.ids[j] - previousID);
+                previousID = base.ids[j];
+            }
+        }
+    }
+
+    /**
+     * Reconstruit un instantané à partir d'une base et d'un paquet écrit par encode()
+     * @param base Instantané de base, null si le paquet contient toutes les entités
+     * @param in Paquet
+     * @param sequence Numéro de l'instantané
+     * @param timestamp Image du serveur
+     */
+    void decode(EntitySnapshot base, PacketReader in, int sequence, int timestamp) {
+        if (base == this)
+            throw new RuntimeException("Un instantané ne peut pas être sa propre base");
+
+        this.sequence = sequence;
+        this.timestamp = timestamp;
+        size = 0;
+        if (base != null) {
+            //Les champs non transmis prennent la valeur prévue à partir de la base
+            ensureCapacity(base.size);
+            System.arraycopy(base.ids, 0, ids, 0, base.size);
+            System.arraycopy(base.types, 0, types, 0, base.size);
+            Arrays.fill(updated, 0, base.size, false);
+            for (int j = 0; j < base.size; j++) {
+                for (int field = 0; field < FIELD_COUNT; field++)
+                    fields[j*FIELD_COUNT+field] = base.expected(j, field, timestamp);
+            }
+            size = base.size;
+        }
+
+        int records = in.readVarInt();
+        int id = 0;
+        for (int r = 0; r < records; r++) {
+            id += in.readVarInt();
+            int mask = in.readVarInt();
+            int row;
+            if ((mask & NEW_ENTITY) != 0) {
+                row = insert(id);
+                types[row] = (byte)in.readByte();
+                Arrays.fill(fields, row*FIELD_COUNT, (row+1)*FIELD_COUNT, 0);
+            } else {
+                row = indexOf(id);
+                if (row < 0)
+                    throw new RuntimeException("Entité absente de l'instantané de base : " + id);
+            }
+            updated[row] = true;
+            for (int field = 0; field < FIELD_COUNT; field++) {
+                if ((mask & (1 << field)) != 0)
+                    fields[row*FIELD_COUNT+field] += in.readSignedVarInt();
+            }
+        }
+
+        int removed = in.readVarInt();
+        id = 0;
+        for (int r = 0; r < removed; r++) {
+            id += in.readVarInt();
+            int row = indexOf(id);
+            if (row >= 0)
+                delete(row);
+        }
+    }
+
+    /**
+     * Prépare l'instantané envoyé à un client qui n'a pas la place de recevoir toutes les
+     * entités modifiées : les entités choisies prennent leur état dans l'instantané complet, les
+     * autres gardent la valeur prévue à partir de la base du client, ou sont absentes si le
+     * client ne les a jamais reçues. Les entités disparues sont retirées.
+     * @param current Instantané complet de la partie
+     * @param base Dernier instantané reçu par le client, null s'il n'en a aucun
+     * @param selected Entités à transmettre, indexées comme dans current
+     */
+    void captureView(EntitySnapshot current, EntitySnapshot base, boolean[] selected) {
+        if (current == this || base == this)
+            throw new RuntimeException("Un instantané ne peut pas être sa propre base");
+
+        sequence = current.sequence;
+        timestamp = current.timestamp;
+        size = 0;
+        ensureCapacity(current.size);
+        for (int i = 0; i < current.size; i++) {
+            int j = base == null ? -1 : base.indexOf(current.ids[i]);
+            boolean known = j >= 0 && base.types[j] == current.types[i];
+            if (!selected[i] && !known)
+                continue;
+
+            ids[size] = current.ids[i];
+            types[size] = current.types[i];
+            updated[size] = selected[i];
+            for (int field = 0; field < FIELD_COUNT; field++)
+                fields[size*FIELD_COUNT+field] = selected[i] ? current.fields[i*FIELD_COUNT+field]
+                                                             : base.expected(j, field, timestamp);
+            size++;
+        }
+    }
+
+    /**
+     * @param index Position d'une entité dans cet instantané
+     * @param base Instantané de base, null pour aucun
+     * @return Le masque des champs à écrire pour cette entité, 0 si elle n'a pas changé
+     */
+    int changeMask(int index, EntitySnapshot base) {
+        if (base == null)
+            return changes(index, null, 0, 0);
+
+        int j = base.indexOf(ids[index]);
+        return j >= 0 ? changes(index, base, j, base.size) : changes(index, base, base.size, base.size);
+    }
+
+    /**
+     * Estime la place prise par une entité dans un paquet écrit par encode()
+     * @param index Position de l'entité dans cet instantané
+     * @param base Instantané de base, null pour aucun
+     * @param mask Masque renvoyé par changeMask
+     * @return Nombre d'octets, à un octet près pour l'écart d'identifiant
+     */
+    int recordSize(int index, EntitySnapshot base, int mask) {
+        boolean isNew = (mask & NEW_ENTITY) != 0;
+        int j = isNew ? -1 : base.indexOf(ids[index]);
+        int bytes = 1 + PacketWriter.varIntSize(mask) + (isNew ? 1 : 0);
+        for (int field = 0; field < FIELD_COUNT; field++) {
+            if ((mask & (1 << field)) != 0) {
+                int delta = fields[index*FIELD_COUNT+field] - (isNew ? 0 : base.expected(j, field, timestamp));
+                bytes += PacketWriter.varIntSize((delta << 1) ^ (delta >> 31));
+            }
+        }
+        return bytes;
+    }
+
+    /**
+     * @param mask Masque renvoyé par changeMask
+     * @return true si l'entité est absente de la base
+     */
+    static boolean isNew(int mask) {
+        return (mask & NEW_ENTITY) != 0;
+    }
+
+    /**
+     * @return Le nombre d'entités de l'instantané
+     */
+    int size() {
+        return size;
+    }
+
+    int getID(int index) {
+        return ids[index];
+    }
+
+    int getType(int index) {
+        return types[index];
+    }
+
+    int getField(int index, int field) {
+        return fields[index*FIELD_COUNT+field];
+    }
+
+    /**
+     * @param index Position d'une entité dans l'instantané
+     * @return true si son état a été transmis avec cet instantané, false s'il est prévu à partir
+     *         d'un instantané précédent
+     */
+    boolean isUpdated(int index) {
+        return updated[index];
+    }
+
+    /**
+     * Applique l'état d'une entité de l'instantané à une entité de la partie
+     * @param index Position de l'entité dans l'instantané
+     * @param entity Entité de même identifiant et de même type
+     * @param position false pour laisser la position à l'appelant, par exemple pour l'interpoler
+     */
+    void apply(int index, Entity entity, boolean position) {
+        final int offset = index*FIELD_COUNT;
+        if (position) {
+            entity.x = (double)fields[offset+X]/POSITION_SCALE;
+            entity.y = (double)fields[offset+Y]/POSITION_SCALE;
+        }
+        int direction = fields[offset+DIRECTION];
+        entity.direction = direction == 0 ? null : DIRECTIONS[direction-1];
+        entity.speed = (double)fields[offset+SPEED]/SPEED_SCALE;
+        if (types[index] == CHARACTER && entity instanceof Character) {
+            Character character = (Character)entity;
+            character.lives = fields[offset+LIVES];
+            character.bombCount = fields[offset+BOMB_COUNT];
+            character.bombMax = fields[offset+BOMB_MAX];
+            character.range = fields[offset+RANGE];
+            character.invulnerability = fields[offset+INVULNERABILITY];
+            int abilities = fields[offset+ABILITIES];
+            for (int a = 0; a < ABILITY_VALUES.length && a < character.characterAbilities.size(); a++)
+                character.characterAbilities.set(a, (abilities & (1 << a)) != 0);
+        } else if (types[index] == BOMB && entity instanceof Bomb) {
+            Bomb bomb = (Bomb)entity;
+            bomb.range = fields[offset+BOMB_RANGE];
+            bomb.duration = fields[offset+DURATION];
+            bomb.timeRemaining = fields[offset+TIME_REMAINING];
+        }
+        entity.moved();
+    }
+
+    /**
+     * Crée une entité hors de toute partie avec l'état enregistré
+     * @param index Position de l'entité dans l'instantané
+     * @return Un personnage sans joueur ou une bombe sans propriétaire
+     */
+    Entity newEntity(int index) {
+        final int offset = index*FIELD_COUNT;
+        final double x = (double)fields[offset+X]/POSITION_SCALE;
+        final double y = (double)fields[offset+Y]/POSITION_SCALE;
+        Entity entity;
+        if (types[index] == CHARACTER)
+            entity = new Character(null, x, y, fields[offset+LIVES], fields[offset+BOMB_MAX], fields[offset+RANGE],
+                                   fields[offset+INVULNERABILITY], null);
+        else
+            entity = new Bomb(null, x, y, fields[offset+BOMB_RANGE], fields[offset+DURATION]);
+        entity.setID(ids[index]);
+        apply(index, entity, true);
+        return entity;
+    }
+
+    /**
+     * @param id Identifiant d'une entité
+     * @return Sa position dans l'instantané, -1 si elle n'y est pas
+     */
+    int indexOf(int id) {
+        int index = Arrays.binarySearch(ids, 0, size, id);
+        return index >= 0 ? index : -1;
+    }
+
+    /**
+     * Prévoit la valeur d'un champ à une image ultérieure : les comptes à rebours continuent de
+     * décroître, le reste ne change pas. Seul l'écart avec cette prévision est transmis.
+     * @param index Position de l'entité dans cet instantané
+     * @param field Champ
+     * @param timestamp Image du serveur visée
+     * @return La valeur prévue
+     */
+    private int expected(int index, int field, int timestamp) {
+        int value = fields[index*FIELD_COUNT+field];
+        int elapsed = timestamp - this.timestamp;
+        if (types[index] == BOMB && field == TIME_REMAINING)
+            return value - elapsed;
+        if (types[index] == CHARACTER && field == INVULNERABILITY)
+            return Math.max(0, value - elapsed);
+        return value;
+    }
+
+    /**
+     * @return Le masque des champs de la ligne i qui diffèrent de la prévision faite à partir
+     *         de la ligne j de la base, avec NEW_ENTITY si l'entité n'est pas dans la base
+     */
+    private int changes(int i, EntitySnapshot base, int j, int baseSize) {
+        boolean isNew = j >= baseSize || base.ids[j] != ids[i] || base.types[j] != types[i];
+        int mask = isNew ? NEW_ENTITY : 0;
+        for (int field = 0; field < FIELD_COUNT; field++) {
+            int value = fields[i*FIELD_COUNT+field];
+            if (isNew ? value != 0 : value != base.expected(j, field, timestamp))
+                mask |= 1 << field;
+        }
+        return mask;
+    }
+
+    /**
+     * Réserve la ligne d'une entité en gardant les identifiants triés
+     * @return La position de la ligne, dont les champs ne sont pas initialisés
+     */
+    private int insert(int id) {
+        int index = Arrays.binarySearch(ids, 0, size, id);
+        if (index >= 0)
+            return index;
+
+        index = -index-1;
+        ensureCapacity(size+1);
+        System.arraycopy(ids, index, ids, index+1, size-index);
+        System.arraycopy(types, index, types, index+1, size-index);
+        System.arraycopy(updated, index, updated, index+1, size-index);
+        System.arraycopy(fields, index*FIELD_COUNT, fields, (index+1)*FIELD_COUNT, (size-index)*FIELD_COUNT);
+        ids[index] = id;
+        size++;
+        return index;
+    }
+
+    private void delete(int index) {
+        System.arraycopy(ids, index+1, ids, index, size-index-1);
+        System.arraycopy(types, index+1, types, index, size-index-1);
+        System.arraycopy(updated, index+1, updated, index, size-index-1);
+        System.arraycopy(fields, (index+1)*FIELD_COUNT, fields, index*FIELD_COUNT, (size-index-1)*FIELD_COUNT);
+        size--;
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity <= ids.length)
+            return;
+
+        int length = Math.max(capacity, 2*ids.length);
+        ids = Arrays.copyOf(ids, length);
+        types = Arrays.copyOf(types, length);
+        updated = Arrays.copyOf(updated, length);
+        fields = Arrays.copyOf(fields, length*FIELD_COUNT);
+    }
+}
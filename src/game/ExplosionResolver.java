@@ -0,0 +1,123 @@
+package game;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.List;
+
+
+/**
+ * Calcule en une passe toutes les explosions d'une image
+ * Les rayons de chaque bombe avancent case par case dans les tableaux de la carte jusqu'à leur
+ * portée, une tuile non explosible, une tuile percutable ou une bombe. En réaction en chaîne
+ * instantanée, les bombes touchées explosent dans la même passe ; sinon elles restent sur la
+ * carte et leur compte à rebours s'accélère tant que leur case explose (voir Bomb.update).
+ * Un ensemble de bits retient les cases dont les bombes ont déjà été déclenchées.
+ */
+class ExplosionResolver {
+    private static final Direction[] DIRECTIONS = Direction.values();
+
+    private final BlastEvents events = new BlastEvents();
+
+    private final List<Bomb> pending = new ArrayList<Bomb>();
+
+    private final List<Bomb> chained = new ArrayList<Bomb>();
+
+    private final BitSet visited = new BitSet();
+
+    /**
+     * Calcule les explosions des bombes qui explosent pendant cette image
+     * @param map Carte
+     * @param bombs Bombes qui explosent, déjà retirées de la partie
+     * @param duration Durée des explosions en images
+     * @param instantChain true pour faire exploser immédiatement les bombes touchées
+     * @return Les explosions, dans l'ordre où elles doivent être posées sur la carte ; la liste
+     *         est réutilisée à l'appel suivant
+     */
+    BlastEvents resolve(Map map, Collection<Bomb> bombs, int duration, boolean instantChain) {
+        events.clear(duration);
+        pending.clear();
+        chained.clear();
+        visited.clear();
+        pending.addAll(bombs);
+
+        //Les bombes déclenchées en chaîne sont ajoutées à la fin de la liste pendant le parcours
+        for (int i = 0; i < pending.size(); i++)
+            blast(map, pending.get(i), instantChain);
+
+        return events;
+    }
+
+    /**
+     * @return Les bombes déclenchées en chaîne lors du dernier calcul, marquées comme supprimées,
+     *         que la partie doit encore retirer
+     */
+    List<Bomb> getChainedBombs() {
+        return chained;
+    }
+
+    private void blast(Map map, Bomb bomb, boolean instantChain) {
+        final int rowCount = map.getRowCount();
+        final int bombColumn = map.toColumn(bomb.getX());
+        final int bombRow = map.toRow(bomb.getY());
+        final int center = map.toCellIndex(bombColumn, bombRow);
+        if (!(map.getTile(center) instanceof ExplodableTile))
+            return;
+
+        final Character owner = bomb.getOwner();
+        final int centerEvent = events.size();
+        events.add(center, ExplosionType.Center, null, owner);
+
+        for (Direction direction : DIRECTIONS) {
+            //Déplacement d'une case dans les indices de la carte : column*rowCount+row
+            final int step = direction.getDeltaX()*rowCount + direction.getDeltaY();
+            int column = bombColumn;
+            int row = bombRow;
+            int cell = center;
+            int lastEvent = centerEvent;
+            for (int i = 0; i < bomb.getRange(); i++) {
+                column += direction.getDeltaX();
+                row += direction.getDeltaY();
+                if (!map.isInsideMap(column, row))
+                    break;
+
+                Tile tile = map.getTile(cell + step);
+                if (!(tile instanceof ExplodableTile))
+                    break;
+
+                cell += step;
+                lastEvent = events.size();
+                events.add(cell, ExplosionType.Branch, direction, owner);
+
+                boolean hasBomb = map.getEntityIndex().hasBomb(cell);
+                if (hasBomb && instantChain)
+                    chain(map, cell);
+                if (tile.isCollidable() || hasBomb)
+                    break;
+            }
+            events.setType(lastEvent, ExplosionType.End);
+        }
+    }
+
+    /**
+     * Déclenche les bombes d'une case touchée par une explosion
+     * @param map Carte
+     * @param cell Indice de la case
+     */
+    private void chain(Map map, int cell) {
+        if (visited.get(cell))
+            return;
+        visited.set(cell);
+
+        List<Entity> entities = map.getEntityIndex().get(cell);
+        for (int i = 0; i < entities.size(); i++) {
+            Entity entity = entities.get(i);
+            if (entity instanceof Bomb && !entity.isToRemove()) {
+                Bomb bomb = (Bomb)entity;
+                bomb.remove();
+                chained.add(bomb);
+                pending.add(bomb);
+            }
+        }
+    }
+}
@@ -0,0 +1,315 @@
+package game;
+
+import java.util.Arrays;
+
+/**
+ * Explosions superposées sur les cases d'une carte, stockées dans des tableaux primitifs.
+ * Chaque case possède une liste chaînée d'explosions dont les maillons sont réutilisés,
+ * ainsi que l'état affiché qui en résulte (type, direction, temps restant, propriétaire).
+ */
+class ExplosionStates {
+    private static final ExplosionType[] TYPES = ExplosionType.values();
+
+    private static final Direction[] DIRECTIONS = Direction.values();
+
+    private static final int NONE = -1;
+
+    //État affiché de chaque case
+    private final byte[] types;
+
+    private final byte[] directions;
+
+    private final int[] timesRemaining;
+
+    private final Character[] owners;
+
+    //Première et dernière explosion de chaque case
+    private final int[] first;
+
+    private final int[] last;
+
+    //Maillons des explosions
+    private int[] stateTimes;
+
+    private byte[] stateTypes;
+
+    private byte[] stateDirections;
+
+    private Character[] stateOwners;
+
+    private int[] stateNext;
+
+    private int free;
+
+    private int explodingCount;
+
+    /**
+     * Construit des explosions vides
+     * @param cellCount Nombre de cases de la carte
+     */
+    ExplosionStates(int cellCount) {
+        types = new byte[cellCount];
+        directions = new byte[cellCount];
+        timesRemaining = new int[cellCount];
+        owners = new Character[cellCount];
+        first = new int[cellCount];
+        last = new int[cellCount];
+        Arrays.fill(types, (byte)NONE);
+        Arrays.fill(directions, (byte)NONE);
+        Arrays.fill(first, NONE);
+        Arrays.fill(last, NONE);
+
+        stateTimes = new int[0];
+        stateTypes = new byte[0];
+        stateDirections = new byte[0];
+        stateOwners = new Character[0];
+        stateNext = new int[0];
+        free = NONE;
+    }
+
+    /**
+     * Copie les explosions d'une autre carte
+     * @param source Explosions à copier
+     * @param characters Correspondance entre les propriétaires des explosions copiées et ceux
+     *                   des copies, les propriétaires absents sont remplacés par null
+     */
+    ExplosionStates(ExplosionStates source, java.util.Map<Character, Character> characters) {
+        types = source.types.clone();
+        directions = source.directions.clone();
+        timesRemaining = source.timesRemaining.clone();
+        owners = copyOwners(source.owners, characters);
+        first = source.first.clone();
+        last = source.last.clone();
+
+        stateTimes = source.stateTimes.clone();
+        stateTypes = source.stateTypes.clone();
+        stateDirections = source.stateDirections.clone();
+        stateOwners = copyOwners(source.stateOwners, characters);
+        stateNext = source.stateNext.clone();
+        free = source.free;
+        explodingCount = source.explodingCount;
+    }
+
+    private static Character[] copyOwners(Character[] owners, java.util.Map<Character, Character> characters) {
+        Character[] copy = new Character[owners.length];
+        for (int i = 0; i < owners.length; i++) {
+            if (owners[i] != null)
+                copy[i] = characters.get(owners[i]);
+        }
+        return copy;
+    }
+
+    boolean isExploding(int cell) {
+        return first[cell] != NONE;
+    }
+
+    /**
+     * @return Le nombre de cases en train d'exploser
+     */
+    int getExplodingCount() {
+        return explodingCount;
+    }
+
+    ExplosionType getType(int cell) {
+        return types[cell] == NONE ? null : TYPES[types[cell]];
+    }
+
+    Direction getDirection(int cell) {
+        return directions[cell] == NONE ? null : DIRECTIONS[directions[cell]];
+    }
+
+    int getTimeRemaining(int cell) {
+        return timesRemaining[cell];
+    }
+
+    Character getOwner(int cell) {
+        return owners[cell];
+    }
+
+    /**
+     * @param cell Indice de la case
+     * @return La première explosion de la case, -1 si elle n'explose pas
+     */
+    int getFirstState(int cell) {
+        return first[cell];
+    }
+
+    /**
+     * @param state Explosion d'une case
+     * @return L'explosion suivante sur la même case, -1 si c'est la dernière
+     */
+    int getNextState(int state) {
+        return stateNext[state];
+    }
+
+    int getStateTime(int state) {
+        return stateTimes[state];
+    }
+
+    ExplosionType getStateType(int state) {
+        return TYPES[stateTypes[state]];
+    }
+
+    Direction getStateDirection(int state) {
+        return stateDirections[state] == NONE ? null : DIRECTIONS[stateDirections[state]];
+    }
+
+    /**
+     * Rajoute une explosion sur une case
+     * @param cell Indice de la case
+     * @param duration Durée de l'explosion
+     * @param type Type d'explosion
+     * @param direction Direction de l'explosion
+     * @param owner Propriétaire de l'explosion
+     */
+    void add(int cell, int duration, ExplosionType type, Direction direction, Character owner) {
+        int state = newState();
+        stateTimes[state] = duration;
+        stateTypes[state] = (byte)type.ordinal();
+        stateDirections[state] = direction == null ? NONE : (byte)direction.ordinal();
+        stateOwners[state] = owner;
+        stateNext[state] = NONE;
+
+        if (last[cell] == NONE) {
+            first[cell] = state;
+            explodingCount++;
+        }
+        else
+            stateNext[last[cell]] = state;
+        last[cell] = state;
+
+        updateExternalState(cell);
+    }
+
+    /**
+     * Transforme la dernière explosion d'une case en bout d'explosion
+     * @param cell Indice de la case
+     */
+    void setLastEnd(int cell) {
+        stateTypes[last[cell]] = (byte)ExplosionType.End.ordinal();
+        updateExternalState(cell);
+    }
+
+    /**
+     * Diminue le temps restant des explosions d'une case et retire celles qui sont finies
+     * @param cell Indice de la case
+     * @return true si la dernière explosion de la case vient de se terminer
+     */
+    boolean update(int cell) {
+        if (first[cell] == NONE)
+            return false;
+
+        boolean needUpdate = false;
+        int previous = NONE;
+        int state = first[cell];
+        while (state != NONE) {
+            int next = stateNext[state];
+            stateTimes[state]--;
+            if (stateTimes[state] <= 0) {
+                if (previous == NONE)
+                    first[cell] = next;
+                else
+                    stateNext[previous] = next;
+                if (last[cell] == state)
+                    last[cell] = previous;
+                releaseState(state);
+                needUpdate = true;
+            } else
+                previous = state;
+            state = next;
+        }
+
+        timesRemaining[cell]--;
+
+        if (needUpdate) {
+            updateExternalState(cell);
+            if (first[cell] == NONE) {
+                explodingCount--;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Retire toutes les explosions d'une case
+     * @param cell Indice de la case
+     */
+    void clear(int cell) {
+        if (first[cell] != NONE)
+            explodingCount--;
+
+        int state = first[cell];
+        while (state != NONE) {
+            int next = stateNext[state];
+            releaseState(state);
+            state = next;
+        }
+        first[cell] = NONE;
+        last[cell] = NONE;
+        updateExternalState(cell);
+    }
+
+    /**
+     * Déduit le type d'explosion que la case affiche, sa direction, sa durée et son propriétaire
+     * @param cell Indice de la case
+     */
+    private void updateExternalState(int cell) {
+        if (first[cell] == NONE) {
+            types[cell] = NONE;
+            directions[cell] = NONE;
+            timesRemaining[cell] = 0;
+            owners[cell] = null;
+            return;
+        }
+
+        ExplosionType type = ExplosionType.End;
+        Direction direction = stateDirections[first[cell]] == NONE ? null : DIRECTIONS[stateDirections[first[cell]]];
+        int timeRemaining = 0;
+
+        for (int state = first[cell]; state != NONE; state = stateNext[state]) {
+            if (type != ExplosionType.Center) {
+                Direction stateDirection = stateDirections[state] == NONE ? null : DIRECTIONS[stateDirections[state]];
+                if (stateTypes[state] == ExplosionType.Center.ordinal() || !Direction.doHaveSameAxis(direction, stateDirection)) {
+                    type = ExplosionType.Center;
+                    direction = null;
+                } else if (stateTypes[state] == ExplosionType.Branch.ordinal()) {
+                    type = ExplosionType.Branch;
+                } //Si le type est End, alors soit type l'est déjà, soit il n'est pas pris en compte
+            }
+
+            timeRemaining = Math.max(timeRemaining, stateTimes[state]);
+        }
+
+        types[cell] = (byte)type.ordinal();
+        directions[cell] = direction == null ? NONE : (byte)direction.ordinal();
+        timesRemaining[cell] = timeRemaining;
+        owners[cell] = stateOwners[last[cell]];
+    }
+
+    private int newState() {
+        if (free == NONE) {
+            int capacity = Math.max(16, 2*stateTimes.length);
+            int start = stateTimes.length;
+            stateTimes = Arrays.copyOf(stateTimes, capacity);
+            stateTypes = Arrays.copyOf(stateTypes, capacity);
+            stateDirections = Arrays.copyOf(stateDirections, capacity);
+            stateOwners = Arrays.copyOf(stateOwners, capacity);
+            stateNext = Arrays.copyOf(stateNext, capacity);
+            for (int i = capacity-1; i >= start; i--) {
+                stateNext[i] = free;
+                free = i;
+            }
+        }
+
+        int state = free;
+        free = stateNext[state];
+        return state;
+    }
+
+    private void releaseState(int state) {
+        stateOwners[state] = null;
+        stateNext[state] = free;
+        free = state;
+    }
+}
@@ -0,0 +1,56 @@
+package game;
+
+import java.util.Random;
+
+/**
+ * Générateur pseudo-aléatoire d'une partie (algorithme SplitMix64)
+ * Contrairement à Random, il n'est pas synchronisé : il ne doit être utilisé que
+ * depuis un seul thread. Deux générateurs initialisés avec la même graine
+ * produisent exactement la même suite, ce qui permet de rejouer une partie.
+ */
+public class GameRandom extends Random {
+    private static final long serialVersionUID = 1L;
+
+    private static final long GOLDEN_GAMMA = 0x9e3779b97f4a7c15L;
+
+    private long state;
+
+    /**
+     * Construit un générateur avec une graine dépendant de l'heure
+     */
+    public GameRandom() {
+        this(System.nanoTime() * GOLDEN_GAMMA);
+    }
+
+    /**
+     * Construit un générateur
+     * @param seed Graine du générateur
+     */
+    public GameRandom(long seed) {
+        super(seed);
+    }
+
+    @Override
+    public void setSeed(long seed) {
+        super.setSeed(seed); //Réinitialise le cache de nextGaussian()
+        state = seed;
+    }
+
+    @Override
+    protected int next(int bits) {
+        return (int)(nextLong() >>> (64 - bits));
+    }
+
+    @Override
+    public long nextLong() {
+        long z = (state += GOLDEN_GAMMA);
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+
+    @Override
+    public double nextDouble() {
+        return (nextLong() >>> 11) * 0x1.0p-53;
+    }
+}
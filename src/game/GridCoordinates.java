@@ -1,7 +1,5 @@
 package game;
 
-import java.util.Objects;
-
 
 /** Représente les coordonnées de grille de la carte */
 public class GridCoordinates {
@@ -46,7 +44,7 @@ public class GridCoordinates {
     
     @Override
     public int hashCode() {
-        return Objects.hash(x, y);
+        return 31*x + y;
     }
 
     @Override
@@ -60,17 +58,7 @@ public class GridCoordinates {
      * @return Les coordonnées de la case voisine
      */
     public GridCoordinates neighbor(Direction direction) {
-        switch (direction) {
-        case Left:
-            return new GridCoordinates(x-1, y);
-        case Right:
-            return new GridCoordinates(x+1, y);
-        case Up:
-            return new GridCoordinates(x, y-1);
-        case Down:
-            return new GridCoordinates(x, y+1);
-        }
-        return null;
+        return new GridCoordinates(x+direction.getDeltaX(), y+direction.getDeltaY());
     }
 
     /**
@@ -80,7 +68,19 @@ public class GridCoordinates {
      * @return La distance entre les 2 coordonnées
      */
     public static int distance(GridCoordinates gc1, GridCoordinates gc2) {
-        return Math.abs(gc2.x-gc1.x) + Math.abs(gc2.y-gc1.y); //Norme 1 #Maths 2A
+        return distance(gc1.x, gc1.y, gc2.x, gc2.y);
+    }
+
+    /**
+     * Mesure la distance entre 2 cases à partir d'une norme de type 1
+     * @param x1 La colonne de la première case
+     * @param y1 La ligne de la première case
+     * @param x2 La colonne de la seconde case
+     * @param y2 La ligne de la seconde case
+     * @return La distance entre les 2 cases
+     */
+    public static int distance(int x1, int y1, int x2, int y2) {
+        return Math.abs(x2-x1) + Math.abs(y2-y1); //Norme 1 #Maths 2A
     }
 
 }
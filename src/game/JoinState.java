@@ -0,0 +1,207 @@
+package game;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+import com.esotericsoftware.kryonet.Connection;
+
+import network.Network.WorldChunk;
+import network.PacketReader;
+import network.PacketWriter;
+
+/**
+ * État complet de la partie envoyé à un client qui la rejoint
+ * Il est pris par le thread de la partie entre deux images sur des copies qui ne bougent plus :
+ * la carte partage ses tuiles jusqu'à sa prochaine modification, les entités sont enregistrées
+ * dans un instantané. Le codage en binaire et l'envoi, en morceaux au rythme où la connexion se
+ * vide, se font ensuite sur un autre thread sans retarder la partie ni les autres clients.
+ */
+class JoinState {
+    /** Taille des morceaux envoyés, bien inférieure au tampon des objets du réseau */
+    static final int CHUNK_SIZE = 4096; //octets
+
+    /** Octets en attente d'envoi au-delà desquels le morceau suivant attend */
+    static final int MAX_PENDING = CHUNK_SIZE;
+
+    private static final SuddenDeathType[] SUDDEN_DEATH_TYPES = SuddenDeathType.values();
+
+    int fps;
+
+    int duration;
+
+    int timeRemaining;
+
+    int warmupDuration;
+
+    int warmupTimeRemaining;
+
+    int restTimeDuration;
+
+    int restTimeRemaining;
+
+    int round;
+
+    int roundMax;
+
+    SuddenDeathType suddenDeathType;
+
+    int tileSize;
+
+    int timestamp;
+
+    final EntitySnapshot entities = new EntitySnapshot();
+
+    //Joueurs : identifiant, score, identifiant du personnage (-1 sans personnage) et nom
+    int[] playerIDs;
+
+    int[] scores;
+
+    int[] characterIDs;
+
+    String[] names;
+
+    /** Copie de la carte côté serveur */
+    private Map map;
+
+    /** Fin du paquet contenant la carte côté client */
+    private PacketReader mapData;
+
+    /**
+     * Prend l'état de la partie, à appeler par le thread de la partie entre deux images
+     * @param server Partie
+     * @param timestamp Image du serveur
+     */
+    JoinState(Server server, int timestamp) {
+        fps = server.fps;
+        duration = server.duration;
+        timeRemaining = server.timeRemaining;
+        warmupDuration = server.warmupDuration;
+        warmupTimeRemaining = server.warmupTimeRemaining;
+        restTimeDuration = server.restTimeDuration;
+        restTimeRemaining = server.restTimeRemaining;
+        round = server.round;
+        roundMax = server.roundMax;
+        suddenDeathType = server.suddenDeathType;
+        tileSize = server.map.getTileSize();
+        this.timestamp = timestamp;
+
+        map = new Map(server.map, new HashMap<Character, Character>());
+        entities.capture(server.getEntities(), -1, timestamp);
+
+        List<Player> players;
+        synchronized (server.players) {
+            players = new ArrayList<Player>(server.players.values());
+        }
+        allocatePlayers(players.size());
+        for (int i = 0; i < players.size(); i++) {
+            Player player = players.get(i);
+            playerIDs[i] = player.getID();
+            scores[i] = player.getScore();
+            characterIDs[i] = player.getCharacter() != null ? player.getCharacter().getID() : -1;
+            names[i] = player.getController() != null ? player.getController().getName() : null;
+        }
+    }
+
+    /**
+     * Lit l'état reçu par un client
+     * @param data Octets écrits par encode(), morceaux réassemblés
+     */
+    JoinState(byte[] data) {
+        PacketReader in = new PacketReader(data);
+        fps = in.readVarInt();
+        duration = in.readSignedVarInt();
+        timeRemaining = in.readSignedVarInt();
+        warmupDuration = in.readSignedVarInt();
+        warmupTimeRemaining = in.readSignedVarInt();
+        restTimeDuration = in.readSignedVarInt();
+        restTimeRemaining = in.readSignedVarInt();
+        round = in.readVarInt();
+        roundMax = in.readVarInt();
+        int suddenDeath = in.readByte();
+        suddenDeathType = suddenDeath == 0 ? null : SUDDEN_DEATH_TYPES[suddenDeath-1];
+        tileSize = in.readVarInt();
+        timestamp = in.readVarInt();
+
+        allocatePlayers(in.readVarInt());
+        for (int i = 0; i < playerIDs.length; i++) {
+            playerIDs[i] = in.readVarInt();
+            scores[i] = in.readSignedVarInt();
+            characterIDs[i] = in.readSignedVarInt();
+            names[i] = in.readByte() != 0 ? in.readString() : null;
+        }
+
+        entities.decode(null, in, -1, timestamp);
+        mapData = in;
+    }
+
+    private void allocatePlayers(int count) {
+        playerIDs = new int[count];
+        scores = new int[count];
+        characterIDs = new int[count];
+        names = new String[count];
+    }
+
+    /**
+     * @return L'état codé en binaire : informations de la partie, joueurs, entités puis carte
+     */
+    byte[] encode() {
+        PacketWriter out = new PacketWriter();
+        out.writeVarInt(fps);
+        out.writeSignedVarInt(duration);
+        out.writeSignedVarInt(timeRemaining);
+        out.writeSignedVarInt(warmupDuration);
+        out.writeSignedVarInt(warmupTimeRemaining);
+        out.writeSignedVarInt(restTimeDuration);
+        out.writeSignedVarInt(restTimeRemaining);
+        out.writeVarInt(round);
+        out.writeVarInt(roundMax);
+        out.writeByte(suddenDeathType == null ? 0 : suddenDeathType.ordinal()+1);
+        out.writeVarInt(tileSize);
+        out.writeVarInt(timestamp);
+
+        out.writeVarInt(playerIDs.length);
+        for (int i = 0; i < playerIDs.length; i++) {
+            out.writeVarInt(playerIDs[i]);
+            out.writeSignedVarInt(scores[i]);
+            out.writeSignedVarInt(characterIDs[i]);
+            out.writeByte(names[i] != null ? 1 : 0);
+            if (names[i] != null)
+                out.writeString(names[i]);
+        }
+
+        entities.encode(null, out);
+        DeltaMap.writeState(map, out);
+        return out.toByteArray();
+    }
+
+    /**
+     * Charge la carte reçue
+     * @param map Carte vide du client
+     */
+    void loadMap(Map map) {
+        DeltaMap.executeDeltas(mapData, map);
+    }
+
+    /**
+     * Code l'état et l'envoie en morceaux, chacun attendant que la connexion ait presque vidé
+     * son tampon d'envoi pour que les messages de la partie passent entre deux morceaux
+     * @param connection Connexion du client qui rejoint la partie
+     */
+    void send(Connection connection) {
+        byte[] data = encode();
+        int count = (data.length + CHUNK_SIZE - 1)/CHUNK_SIZE;
+        try {
+            for (int i = 0; i < count && connection.isConnected(); i++) {
+                while (connection.isConnected() && connection.getTcpWriteBufferSize() > MAX_PENDING)
+                    Thread.sleep(1);
+
+                connection.sendTCP(new WorldChunk(i, count, Arrays.copyOfRange(data, i*CHUNK_SIZE,
+                                                                               Math.min(data.length, (i+1)*CHUNK_SIZE))));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -4,13 +4,11 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
-import java.util.HashMap;
-import java.util.LinkedList;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map.Entry;
-import java.util.Queue;
-import java.util.Random;
 
 
 /** Cette classe gère une partie de type Local */
@@ -19,17 +17,23 @@ public class Local extends World {
 
      int actualMap = -1;
 
-     Random random = new Random();
-
      public static final int SUDDEN_DEATH_DURATION = 60; //s
 
-     HashMap<Bomb, Direction> queueKickBomb = new HashMap<>();
+     LinkedHashMap<Bomb, Direction> queueKickBomb = new LinkedHashMap<>();
+
+     List<Character> queueCharacter = new ArrayList<Character>();
+
+     List<Bomb> queueBomb = new ArrayList<Bomb>();
 
-     Queue<Character> queueCharacter = new LinkedList<Character>();
+     List<GridCoordinates> queueBonus = new ArrayList<GridCoordinates>();
 
-     Queue<Bomb> queueBomb = new LinkedList<Bomb>();
+    private final ExplosionResolver explosionResolver = new ExplosionResolver();
 
-     Queue<GridCoordinates> queueBonus = new LinkedList<GridCoordinates>();
+    /** Bombes retirées lors d'une image précédente, réutilisées pour les prochaines bombes */
+    private final List<Bomb> bombPool = new ArrayList<Bomb>();
+
+    /** Bombes retirées pendant l'image en cours, encore visibles par ceux qui la traitent */
+    private final List<Bomb> releasedBombs = new ArrayList<Bomb>();
 
     /**
      * Construit une partie de jeu en local
@@ -44,6 +48,7 @@ public class Local extends World {
     public Local(List<String> maps, int tileSize, int fps, int roundMax, int duration, int warmup, int restTime) throws Exception {
         this.maps = new ArrayList<>(maps);
         createMap(tileSize);
+        map.setRandom(random);
         setFps(fps);
         setRoundMax(roundMax);
         setDuration(duration);
@@ -52,6 +57,13 @@ public class Local extends World {
         newRound();
     }
 
+    /**
+     * Construit une partie locale sans carte ni round, que la sous-classe initialise elle-même
+     */
+    Local() {
+        this.maps = Collections.emptyList();
+    }
+
     /**
      * Crée une carte
      * @param tileSize taille des tuiles de la carte
@@ -80,7 +92,7 @@ public class Local extends World {
 
         map.setName(maps.get(index));
 
-        destroyEntities(entities.keySet());
+        destroyEntities(entities.ids());
     }
 
     @Override
@@ -91,6 +103,7 @@ public class Local extends World {
     Player newPlayer(Controller controller, int playerID) {
         Player player = new Player(playerID, controller);
         players.put(playerID, player);
+        updatePlayerCounters();
         newCharacter(player);
         return player;
     }
@@ -142,18 +155,21 @@ public class Local extends World {
      */
     @Override
     void roundUpdate() {
+        if (!releasedBombs.isEmpty()) {
+            bombPool.addAll(releasedBombs);
+            releasedBombs.clear();
+        }
+
         super.roundUpdate();
 
         //sudden death case
         if (timeRemaining == 0) {
-            for (Entity entity : entities.values()) {
-                if (entity.toRemove)
+            for (Character character : getCharacters()) {
+                if (character.toRemove)
                     continue;
 
-                if (entity instanceof Character) {
-                    ((Character)entity).setLives(1);
-                    ((Character)entity).removeShield();
-                }
+                character.setLives(1);
+                character.removeShield();
             }
         }
 
@@ -168,10 +184,10 @@ public class Local extends World {
                 if (interval <= 0 || timeRemaining % interval == 0) {
                     boolean bombPlanted = false;
                     while(!bombPlanted){
-                        double x = Math.random()*map.getWidth();
-                        double y = Math.random()*map.getHeight();
+                        double x = random.nextDouble()*map.getWidth();
+                        double y = random.nextDouble()*map.getHeight();
                         if(!map.isCollidable(x, y)) {
-                            addEntity(new Bomb(this, map.toCenterX(x), map.toCenterY(y), 4,(int)(TIME_BEFORE_EXPLOSION*fps)));
+                            addEntity(newBomb(map.toCenterX(x), map.toCenterY(y), 4, (int)(TIME_BEFORE_EXPLOSION*fps), null));
                             bombPlanted = true;
                         }
                     }
@@ -182,45 +198,28 @@ public class Local extends World {
         }
 
         //update of the new bombs
-        for (Character character : queueCharacter) {
-            addEntity(new Bomb(this, character, (int)(TIME_BEFORE_EXPLOSION*fps)));
+        for (int i = 0; i < queueCharacter.size(); i++) {
+            Character character = queueCharacter.get(i);
+            addEntity(newBomb(map.toCenterX(character.getX()), map.toCenterY(character.getY()),
+                              character.getRange(), (int)(TIME_BEFORE_EXPLOSION*fps), character));
         }
 
         //update of the bonus
-        for (GridCoordinates bonus : queueBonus) {
-            map.setTileType(TileType.Empty,bonus);
+        for (int i = 0; i < queueBonus.size(); i++) {
+            map.setTileType(TileType.Empty, queueBonus.get(i));
         }
 
         //update of the bombs explosions
-        for (Bomb bomb : queueBomb) {
-            //locate center of the bomb impact
-            GridCoordinates bombGC = map.toGridCoordinates(bomb.getX(), bomb.getY());
-            GridCoordinates explosionGC = new GridCoordinates(bombGC);
-
-            if (map.isExplodable(explosionGC)) {
-                map.setExplosion((int)(EXPLOSION_DURATION*fps), ExplosionType.Center, null, bomb.getOwner(), explosionGC);
-
-                for (Direction direction : Direction.values()) {
-                    explosionGC = bombGC;
-                    GridCoordinates nextGC = bombGC.neighbor(direction);
-                    boolean hasCollided = false;
-                    while (GridCoordinates.distance(bombGC, nextGC) <= bomb.getRange() &&
-                            map.isInsideMap(nextGC) && !hasCollided && map.isExplodable(nextGC)) {
-                        explosionGC = nextGC;
-                        map.setExplosion((int)(EXPLOSION_DURATION*fps), ExplosionType.Branch, direction, bomb.getOwner(), explosionGC);
-                        hasCollided = map.isCollidable(explosionGC) || map.hasBomb(explosionGC);
-                        nextGC = explosionGC.neighbor(direction);
-                    }
-                    map.setExplosionEnd(explosionGC);
-                }
-            }
-        }
+        if (!queueBomb.isEmpty())
+            explode(queueBomb);
 
         //Update kicks
-        for (Entry<Bomb, Direction> entry : queueKickBomb.entrySet()) {
-            if (entry.getValue() != null) {
-                entry.getKey().setDirection(entry.getValue());
-                entry.getKey().setSpeed(Bomb.BOMB_DEFAULT_SPEED*map.getTileSize()/getFps());
+        if (!queueKickBomb.isEmpty()) {
+            for (Entry<Bomb, Direction> entry : queueKickBomb.entrySet()) {
+                if (entry.getValue() != null) {
+                    entry.getKey().setDirection(entry.getValue());
+                    entry.getKey().setSpeed(Bomb.BOMB_DEFAULT_SPEED*map.getTileSize()/getFps());
+                }
             }
         }
 
@@ -238,13 +237,69 @@ public class Local extends World {
         queueKickBomb.clear();
     }
 
+    /**
+     * Propage en une passe les explosions des bombes de l'image sur la carte, réactions en chaîne
+     * comprises, puis retire les bombes déclenchées en chaîne
+     * @param bombs Bombes qui explosent
+     */
+    void explode(Collection<Bomb> bombs) {
+        BlastEvents blasts = explosionResolver.resolve(map, bombs, (int)(EXPLOSION_DURATION*fps),
+                                                       map.isInstantChainReaction());
+
+        List<Bomb> chained = explosionResolver.getChainedBombs();
+        if (!chained.isEmpty()) {
+            List<Integer> chainedIDs = new ArrayList<Integer>(chained.size());
+            for (Bomb bomb : chained) {
+                map.removeEntity(bomb);
+                chainedIDs.add(bomb.getID());
+            }
+            removeEntities(chainedIDs);
+        }
+
+        map.addBlasts(blasts);
+    }
+
+    /**
+     * Crée une bombe, en réutilisant si possible une bombe retirée
+     * @param x Position horizontale en pixel
+     * @param y Position verticale en pixel
+     * @param range Portée de l'explosion (en cases)
+     * @param duration Durée avant explosion (en ticks)
+     * @param owner Joueur à qui appartient la bombe, null pour aucun
+     * @return La bombe, pas encore ajoutée à la partie
+     */
+    Bomb newBomb(double x, double y, int range, int duration, Character owner) {
+        if (bombPool.isEmpty()) {
+            Bomb bomb = new Bomb(this, x, y, range, duration);
+            bomb.owner = owner;
+            return bomb;
+        }
+
+        Bomb bomb = bombPool.remove(bombPool.size()-1);
+        bomb.reset(x, y, range, duration, owner);
+        return bomb;
+    }
+
+    /**
+     * Retire des entités ; les bombes retirées seront réutilisées à partir de l'image suivante
+     */
+    @Override
+    void removeEntities(Collection<Integer> entityIDs) {
+        for (Integer id : entityIDs) {
+            Entity entity = entities.get(id);
+            if (entity instanceof Bomb)
+                releasedBombs.add((Bomb)entity);
+        }
+        super.removeEntities(entityIDs);
+    }
+
     @Override
     void prepareNextRound() {
         super.prepareNextRound();
 
         //renew players
         List<Player> playerList = getPlayers();
-        Collections.shuffle(playerList);
+        Collections.shuffle(playerList, random);
         for (Player player : playerList) {
             newCharacter(player);
         }
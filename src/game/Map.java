@@ -4,24 +4,100 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.InputMismatchException;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Random;
 import java.util.Scanner;
 import java.util.StringJoiner;
 
+import network.PacketReader;
+import network.PacketWriter;
 
-/** Cette classe gère la carte dans laquelle évoluent les entités et les tuiles */
+
+/**
+ * Cette classe gère la carte dans laquelle évoluent les entités et les tuiles
+ * Le contenu des cases est rangé dans des tableaux indexés par toCellIndex(column, row),
+ * les tuiles n'étant que des comportements partagés par toutes les cases d'un même type.
+ */
 public class Map implements MapView {
+    private static final TileType[] TILE_TYPES = TileType.values();
+
+    private static final BonusType[] BONUS_TYPES = BonusType.values();
+
+    private static final Direction[] DIRECTIONS = Direction.values();
+
+    private static final byte NONE = -1;
+
      String name;
 
      int tileSize;
 
-     Tile[][] tiles;
+     int columnCount;
+
+     int rowCount;
+
+     byte[] tileTypes;
+
+     byte[] bonusTypes;
+
+     byte[] arrowDirections;
+
+     ExplosionStates explosions;
+
+     BlastMap blasts;
+
+    /**
+     * Nombre de mises à jour de la carte, sert d'horloge à la carte des dangers
+     */
+    private int tick;
+
+    /**
+     * Numéro qui change à chaque modification des tuiles ou des explosions
+     */
+    private int version;
+
+     EntityIndex entities;
 
      List<GridCoordinates> spawningLocations;
 
+    /**
+     * Générateur aléatoire utilisé par les tuiles, partagé avec la partie
+     */
+     Random random = new GameRandom();
+
+    /**
+     * Cases contenant des explosions ou des entités, seules mises à jour à chaque image
+     */
+    private int[] activeCells;
+
+    private int activeCount;
+
+    private boolean[] active;
+
+    /**
+     * Met à jour toutes les cases et vérifie que les cases actives sont bien suivies
+     */
+    private boolean fullScan;
+
+    /**
+     * Les bombes touchées par une explosion explosent immédiatement au lieu d'accélérer leur compte à rebours
+     */
+    private boolean instantChainReaction;
+
+    /**
+     * Les tableaux des tuiles sont partagés avec une copie de la carte et doivent être
+     * dupliqués avant d'être modifiés
+     */
+    private boolean tilesShared;
+
+    /**
+     * Tuile partagée par toutes les cases de chaque type
+     */
+    private final Tile[] tiles = new Tile[TILE_TYPES.length];
+
     /**
      * Crée une carte de jeu vierge
      * @param tileSize La taille des cases de grille dans cette carte
@@ -29,7 +105,7 @@ public class Map implements MapView {
     public Map(int tileSize) {
         this.tileSize = tileSize;
         this.spawningLocations = new ArrayList<GridCoordinates>();
-        this.tiles = new Tile[0][0];
+        allocate(0, 0);
     }
 
     /**
@@ -40,15 +116,93 @@ public class Map implements MapView {
      */
     public Map(int columns, int rows, int tileSize) {
         this(tileSize);
-        tiles = new Tile[columns][rows];
-        GridCoordinates gc = new GridCoordinates();
-        for (gc.x = 0; gc.x < getColumnCount(); gc.x++) {
-            for (gc.y = 0; gc.y < getRowCount(); gc.y++) {
-                setTileType(TileType.Empty, gc);
-            }
+        allocate(columns, rows);
+    }
+
+    /**
+     * Copie une carte pour la faire évoluer indépendamment de l'originale
+     * Les tuiles sont partagées jusqu'à la première modification de l'une des deux cartes,
+     * les explosions sont copiées et l'index des entités est laissé vide : c'est à l'appelant
+     * d'y ajouter les copies des entités.
+     * @param source Carte à copier
+     * @param characters Correspondance entre les personnages de la carte copiée et leurs copies,
+     *                   pour les propriétaires des explosions
+     */
+    Map(Map source, java.util.Map<Character, Character> characters) {
+        int cellCount = source.tileTypes.length;
+        name = source.name;
+        tileSize = source.tileSize;
+        columnCount = source.columnCount;
+        rowCount = source.rowCount;
+        spawningLocations = source.spawningLocations;
+
+        tileTypes = source.tileTypes;
+        bonusTypes = source.bonusTypes;
+        arrowDirections = source.arrowDirections;
+        tilesShared = true;
+        //Une carte qui partage déjà ses tuiles n'est pas modifiée : plusieurs threads peuvent la copier
+        if (!source.tilesShared)
+            source.tilesShared = true;
+
+        explosions = new ExplosionStates(source.explosions, characters);
+        blasts = new BlastMap(this, cellCount);
+        entities = new EntityIndex(cellCount);
+        tick = source.tick;
+        version = source.version;
+        instantChainReaction = source.instantChainReaction;
+
+        activeCells = Arrays.copyOf(source.activeCells, cellCount);
+        activeCount = source.activeCount;
+        active = Arrays.copyOf(source.active, cellCount);
+        System.arraycopy(source.tiles, 0, tiles, 0, tiles.length);
+    }
+
+    /**
+     * Remplace le contenu de la carte par une grille de cases vides
+     * @param columns Nombre de colonnes
+     * @param rows Nombre de lignes
+     */
+    private void allocate(int columns, int rows) {
+        int cellCount = columns*rows;
+        columnCount = columns;
+        rowCount = rows;
+        tileTypes = new byte[cellCount];
+        bonusTypes = new byte[cellCount];
+        arrowDirections = new byte[cellCount];
+        explosions = new ExplosionStates(cellCount);
+        blasts = new BlastMap(this, cellCount);
+        version++;
+        entities = new EntityIndex(cellCount);
+        Arrays.fill(tileTypes, (byte)TileType.Empty.ordinal());
+        Arrays.fill(bonusTypes, NONE);
+        Arrays.fill(arrowDirections, NONE);
+        activeCells = new int[cellCount];
+        activeCount = 0;
+        active = new boolean[cellCount];
+        tilesShared = false;
+    }
+
+    /**
+     * Duplique les tableaux des tuiles s'ils sont partagés avec une copie de la carte,
+     * à appeler avant toute modification de ces tableaux
+     */
+    private void ownTiles() {
+        if (tilesShared) {
+            tileTypes = tileTypes.clone();
+            bonusTypes = bonusTypes.clone();
+            arrowDirections = arrowDirections.clone();
+            tilesShared = false;
         }
     }
 
+    Random getRandom() {
+        return random;
+    }
+
+    void setRandom(Random random) {
+        this.random = random;
+    }
+
     @Override
     public String getName() {
         return name;
@@ -56,15 +210,12 @@ public class Map implements MapView {
 
     @Override
     public int getColumnCount() {
-        return tiles.length;
+        return columnCount;
     }
 
     @Override
     public int getRowCount() {
-        if (getColumnCount() > 0)
-            return tiles[0].length;
-        else
-            return 0;
+        return rowCount;
     }
 
     @Override
@@ -84,14 +235,37 @@ public class Map implements MapView {
 
     @Override
     public GridCoordinates toGridCoordinates(double x, double y) {
-        int X = (int) (x/tileSize);
-        int Y = (int) (y/tileSize);
-        return new GridCoordinates(X, Y);
+        return new GridCoordinates(toColumn(x), toRow(y));
+    }
+
+    @Override
+    public int toColumn(double x) {
+        return (int) (x/tileSize);
+    }
+
+    @Override
+    public int toRow(double y) {
+        return (int) (y/tileSize);
+    }
+
+    @Override
+    public int toCellIndex(int column, int row) {
+        return column*rowCount+row;
+    }
+
+    @Override
+    public int getCellColumn(int cell) {
+        return cell/rowCount;
+    }
+
+    @Override
+    public int getCellRow(int cell) {
+        return cell%rowCount;
     }
 
     @Override
     public boolean isInsideMap(GridCoordinates gc) {
-        return gc.x >= 0 && gc.x < getColumnCount() && gc.y >= 0 && gc.y < getRowCount();
+        return isInsideMap(gc.x, gc.y);
     }
 
     @Override
@@ -99,6 +273,11 @@ public class Map implements MapView {
         return x >= 0 && x < getWidth() && y >= 0 && y < getHeight();
     }
 
+    @Override
+    public boolean isInsideMap(int column, int row) {
+        return column >= 0 && column < columnCount && row >= 0 && row < rowCount;
+    }
+
     @Override
     public double toCenterX(GridCoordinates gc) {
         return (gc.x+0.5)*tileSize;
@@ -121,9 +300,7 @@ public class Map implements MapView {
 
     @Override
     public boolean isCollidable(GridCoordinates gc) {
-        if (!isInsideMap(gc))
-            return true;
-        return tiles[gc.x][gc.y].isCollidable();
+        return isCollidable(gc.x, gc.y);
     }
 
     @Override
@@ -131,74 +308,111 @@ public class Map implements MapView {
         if (!isInsideMap(x,y)) //La vérification dans la version GC n'est pas suffisante
             return true;       //car si x= -31, gc.x = 0 donc pas de détection
 
-        GridCoordinates gc = toGridCoordinates(x, y);
-        return tiles[gc.x][gc.y].isCollidable();
+        return getTile(toColumn(x), toRow(y)).isCollidable();
+    }
+
+    @Override
+    public boolean isCollidable(int column, int row) {
+        if (!isInsideMap(column, row))
+            return true;
+        return getTile(column, row).isCollidable();
     }
 
     @Override
     public boolean isExplodable(GridCoordinates gc) {
-        return tiles[gc.x][gc.y] instanceof ExplodableTile;
+        return isExplodable(gc.x, gc.y);
+    }
+
+    @Override
+    public boolean isExplodable(int column, int row) {
+        return getTile(column, row) instanceof ExplodableTile;
     }
 
     @Override
     public boolean isExploding(GridCoordinates gc) {
-        return isExplodable(gc) && ((ExplodableTile)tiles[gc.x][gc.y]).isExploding();
+        return isExploding(gc.x, gc.y);
     }
 
     @Override
     public boolean isExploding(double x, double y) {
-        GridCoordinates gc = toGridCoordinates(x, y);
-        return isExploding(gc);
+        return isExploding(toColumn(x), toRow(y));
+    }
+
+    @Override
+    public boolean isExploding(int column, int row) {
+        return explosions.isExploding(toCellIndex(column, row));
     }
 
     @Override
     public ExplosionType getExplosionType(GridCoordinates gc) {
-        return ((ExplodableTile)tiles[gc.x][gc.y]).getExplosionType();
+        return explosions.getType(toCellIndex(gc.x, gc.y));
     }
 
     @Override
     public Direction getExplosionDirection(GridCoordinates gc) {
-        return ((ExplodableTile)tiles[gc.x][gc.y]).getExplosionDirection();
+        return explosions.getDirection(toCellIndex(gc.x, gc.y));
     }
 
     @Override
     public int getExplosionTimeRemaining(GridCoordinates gc) {
-        return ((ExplodableTile)tiles[gc.x][gc.y]).getExplosionTimeRemaining();
+        return getExplosionTimeRemaining(gc.x, gc.y);
+    }
+
+    @Override
+    public int getExplosionTimeRemaining(int column, int row) {
+        return explosions.getTimeRemaining(toCellIndex(column, row));
     }
 
     @Override
     public Character getExplosionOwner(GridCoordinates gc) {
-        return ((ExplodableTile)tiles[gc.x][gc.y]).getExplosionOwner();
+        return explosions.getOwner(toCellIndex(gc.x, gc.y));
     }
 
     @Override
     public TileType getTileType(GridCoordinates gc) {
-        return tiles[gc.x][gc.y].getType();
+        return getTileType(gc.x, gc.y);
     }
 
     @Override
     public TileType getTileType(double x, double y) {
-        return getTileType(toGridCoordinates(x, y));
+        return getTileType(toColumn(x), toRow(y));
+    }
+
+    @Override
+    public TileType getTileType(int column, int row) {
+        return TILE_TYPES[tileTypes[toCellIndex(column, row)]];
     }
 
     @Override
     public BonusType getBonusType(GridCoordinates gc) {
-        return(((BonusTile)(tiles[gc.x][gc.y])).getBonusType());
+        return getBonusType(gc.x, gc.y);
     }
 
     @Override
     public BonusType getBonusType(double x, double y) {
-        return getBonusType(toGridCoordinates(x, y));
+        return getBonusType(toColumn(x), toRow(y));
+    }
+
+    @Override
+    public BonusType getBonusType(int column, int row) {
+        byte bonusType = bonusTypes[toCellIndex(column, row)];
+        return bonusType == NONE ? null : BONUS_TYPES[bonusType];
     }
 
     @Override
     public Direction getArrowDirection(GridCoordinates gc) {
-        return(((ArrowTile)(tiles[gc.x][gc.y])).getDirection());
+        return getArrowDirection(gc.x, gc.y);
     }
 
     @Override
     public Direction getArrowDirection(double x, double y) {
-        return getArrowDirection(toGridCoordinates(x, y));
+        return getArrowDirection(toColumn(x), toRow(y));
+    }
+
+    @Override
+    public Direction getArrowDirection(int column, int row) {
+        byte direction = arrowDirections[toCellIndex(column, row)];
+        return direction == NONE ? null : DIRECTIONS[direction];
     }
 
     @Override
@@ -231,12 +445,8 @@ public class Map implements MapView {
             throw new RuntimeException("Taille des tuiles inférieure à 1 :" + value);
 
         this.tileSize = value;
-        GridCoordinates gc = new GridCoordinates();
-        for(gc.x= 0; gc.x < getColumnCount(); gc.x++){
-            for(gc.y= 0; gc.y < getRowCount(); gc.y++){
-                updateEntities(gc);
-            }
-        }
+        for (Entity entity : entities.getAll())
+            moveEntity(entity);
     }
 
     public void setSize(int columns, int rows) {
@@ -245,24 +455,36 @@ public class Map implements MapView {
         else if (rows <= 0)
             throw new RuntimeException("Nombre de lignes négatif ou nul : " + rows);
 
-        Tile[][] newTiles = new Tile[columns][rows];
-
-        for (int i = 0; i < columns; i++) {
-            for (int j = 0; j < rows; j++) {
-                if (i < getColumnCount() && j < getRowCount())
-                    newTiles[i][j] = tiles[i][j];
-                else
-                    newTiles[i][j] = new EmptyTile();
+        int oldRowCount = rowCount;
+        byte[] oldTileTypes = tileTypes;
+        byte[] oldBonusTypes = bonusTypes;
+        byte[] oldArrowDirections = arrowDirections;
+        List<Entity> oldEntities = entities.getAll();
+        int keptColumns = Math.min(columns, columnCount);
+        int keptRows = Math.min(rows, rowCount);
+
+        allocate(columns, rows);
+
+        for (int i = 0; i < keptColumns; i++) {
+            for (int j = 0; j < keptRows; j++) {
+                int oldCell = i*oldRowCount+j;
+                int cell = toCellIndex(i, j);
+                tileTypes[cell] = oldTileTypes[oldCell];
+                bonusTypes[cell] = oldBonusTypes[oldCell];
+                arrowDirections[cell] = oldArrowDirections[oldCell];
             }
         }
 
+        for (Entity entity : oldEntities) {
+            if (isInsideMap(entity.getX(), entity.getY()))
+                addEntity(entity);
+        }
+
         Iterator<GridCoordinates> iterator = spawningLocations.iterator();
         while (iterator.hasNext()) {
             if (!isInsideMap(iterator.next()))
                 iterator.remove();
         }
-
-        tiles = newTiles;
     }
 
     public void setName(String name) {
@@ -278,34 +500,72 @@ public class Map implements MapView {
         int columnCount = sc.nextInt();
         int rowCount = sc.nextInt();
 
-        Tile[][] newTiles = new Tile[columnCount][rowCount];
-
         int spawningLocationsCount = sc.nextInt();
-        spawningLocations = new ArrayList<GridCoordinates>(spawningLocationsCount);
+        List<GridCoordinates> newSpawningLocations = new ArrayList<GridCoordinates>(spawningLocationsCount);
         for (int i = 0; i < spawningLocationsCount; i++)
-            spawningLocations.add(new GridCoordinates(sc.nextInt(), sc.nextInt()));
+            newSpawningLocations.add(new GridCoordinates(sc.nextInt(), sc.nextInt()));
+
+        int cellCount = columnCount*rowCount;
+        byte[] newTileTypes = new byte[cellCount];
+        byte[] newBonusTypes = new byte[cellCount];
+        byte[] newArrowDirections = new byte[cellCount];
+        Arrays.fill(newBonusTypes, NONE);
+        Arrays.fill(newArrowDirections, NONE);
+
+        for (int cell = 0; cell < cellCount; cell++) {
+            TileType type = TILE_TYPES[sc.nextInt()];
+            newTileTypes[cell] = (byte)type.ordinal();
+
+            if (type == TileType.Bonus)
+                newBonusTypes[cell] = (byte)BONUS_TYPES[sc.nextInt()].ordinal();
+            else if (type == TileType.Arrow)
+                newArrowDirections[cell] = (byte)DIRECTIONS[sc.nextInt()].ordinal();
+        }
 
-        TileType[] types = TileType.values();
-        BonusType[] bonuses = BonusType.values();
-        Direction[] directions = Direction.values();
+        sc.close();
 
-        GridCoordinates grid = new GridCoordinates();
+        allocate(columnCount, rowCount);
+        spawningLocations = newSpawningLocations;
+        tileTypes = newTileTypes;
+        bonusTypes = newBonusTypes;
+        arrowDirections = newArrowDirections;
+    }
 
-        for (grid.x = 0; grid.x < columnCount; grid.x++) {
-            for (grid.y = 0; grid.y < rowCount; grid.y++) {
-                TileType type = types[sc.nextInt()];
-                setTileType(newTiles, type, grid);
+    /**
+     * Charge une carte écrite par writeMap
+     * @param in Paquet positionné au début de la carte
+     */
+    void loadMap(PacketReader in) {
+        int columnCount = in.readVarInt();
+        int rowCount = in.readVarInt();
 
-                if (type == TileType.Bonus)
-                    ((BonusTile)newTiles[grid.x][grid.y]).setBonusType(bonuses[sc.nextInt()]);
-                else if (type == TileType.Arrow)
-                    ((ArrowTile)newTiles[grid.x][grid.y]).setDirection(directions[sc.nextInt()]);
-            }
+        int spawningLocationsCount = in.readVarInt();
+        List<GridCoordinates> newSpawningLocations = new ArrayList<GridCoordinates>(spawningLocationsCount);
+        for (int i = 0; i < spawningLocationsCount; i++)
+            newSpawningLocations.add(new GridCoordinates(in.readVarInt(), in.readVarInt()));
+
+        int cellCount = columnCount*rowCount;
+        byte[] newTileTypes = new byte[cellCount];
+        byte[] newBonusTypes = new byte[cellCount];
+        byte[] newArrowDirections = new byte[cellCount];
+        Arrays.fill(newBonusTypes, NONE);
+        Arrays.fill(newArrowDirections, NONE);
+
+        for (int cell = 0; cell < cellCount; cell++) {
+            TileType type = TILE_TYPES[in.readByte()];
+            newTileTypes[cell] = (byte)type.ordinal();
+
+            if (type == TileType.Bonus)
+                newBonusTypes[cell] = (byte)BONUS_TYPES[in.readByte()].ordinal();
+            else if (type == TileType.Arrow)
+                newArrowDirections[cell] = (byte)DIRECTIONS[in.readByte()].ordinal();
         }
 
-        sc.close();
-
-        tiles = newTiles;
+        allocate(columnCount, rowCount);
+        spawningLocations = newSpawningLocations;
+        tileTypes = newTileTypes;
+        bonusTypes = newBonusTypes;
+        arrowDirections = newArrowDirections;
     }
 
     /**
@@ -349,42 +609,116 @@ public class Map implements MapView {
         for (GridCoordinates coordinates : spawningLocations)
             content.add(String.valueOf(coordinates.x)).add(String.valueOf(coordinates.y));
 
-        for (int i = 0; i < getColumnCount(); i++) {
-            for (int j = 0; j < getRowCount(); j++) {
-                TileType type = tiles[i][j].getType();
-                content.add(String.valueOf(type.ordinal()));
+        for (int cell = 0; cell < tileTypes.length; cell++) {
+            content.add(String.valueOf(tileTypes[cell]));
 
-                if (type == TileType.Bonus)
-                    content.add(String.valueOf(((BonusTile)tiles[i][j]).getBonusType().ordinal()));
-                else if (type == TileType.Arrow)
-                    content.add(String.valueOf(((ArrowTile)tiles[i][j]).getDirection().ordinal()));
-            }
+            if (tileTypes[cell] == TileType.Bonus.ordinal())
+                content.add(String.valueOf(bonusTypes[cell]));
+            else if (tileTypes[cell] == TileType.Arrow.ordinal())
+                content.add(String.valueOf(arrowDirections[cell]));
         }
         return content.toString();
     }
 
+    /**
+     * Écrit la carte sous forme binaire, dans le même ordre que saveMap : un octet par case,
+     * plus un pour le type de bonus ou la direction d'une flèche
+     * @param out Paquet dans lequel écrire
+     */
+    void writeMap(PacketWriter out) {
+        out.writeVarInt(getColumnCount());
+        out.writeVarInt(getRowCount());
+        out.writeVarInt(spawningLocations.size());
+
+        for (GridCoordinates coordinates : spawningLocations) {
+            out.writeVarInt(coordinates.x);
+            out.writeVarInt(coordinates.y);
+        }
+
+        for (int cell = 0; cell < tileTypes.length; cell++) {
+            out.writeByte(tileTypes[cell]);
+
+            if (tileTypes[cell] == TileType.Bonus.ordinal())
+                out.writeByte(bonusTypes[cell]);
+            else if (tileTypes[cell] == TileType.Arrow.ordinal())
+                out.writeByte(arrowDirections[cell]);
+        }
+    }
+
+    /**
+     * Crée la tuile partagée par toutes les cases d'un type
+     * @param type Type de tuile
+     * @return La tuile
+     */
     Tile newTile(TileType type) {
         return type.newTile();
     }
 
+    /**
+     * @param type Type de tuile
+     * @return La tuile partagée par toutes les cases de ce type
+     */
+    Tile getTile(TileType type) {
+        Tile tile = tiles[type.ordinal()];
+        if (tile == null) {
+            tile = newTile(type);
+            tiles[type.ordinal()] = tile;
+        }
+        return tile;
+    }
+
+    /**
+     * @param cell Indice de la case
+     * @return La tuile de la case
+     */
+    Tile getTile(int cell) {
+        return getTile(TILE_TYPES[tileTypes[cell]]);
+    }
+
+    Tile getTile(int column, int row) {
+        return getTile(TILE_TYPES[tileTypes[toCellIndex(column, row)]]);
+    }
+
+    /**
+     * Remplace une case par une nouvelle tuile, sans explosion, en conservant ses entités
+     * @param type Type de la nouvelle tuile
+     * @param gc Coordonnées de la case
+     */
     public void setTileType(TileType type, GridCoordinates gc) {
-        setTileType(tiles, type, gc);
+        int cell = toCellIndex(gc.x, gc.y);
+        putTile(type, type == TileType.Bonus ? BonusType.Random : null, cell);
+        explosions.clear(cell);
     }
 
     public void setTileType(TileType type, double x, double y) {
         setTileType(type, toGridCoordinates(x, y));
     }
 
-    private void setTileType(Tile[][] tiles, TileType type, GridCoordinates gc) {
-        Tile newTile = newTile(type);
+    /**
+     * Remplace une case par une nouvelle tuile en conservant ses explosions et ses entités
+     * @param type Type de la nouvelle tuile
+     * @param bonusType Type de bonus si la tuile est un bonus
+     * @param column Colonne de la case
+     * @param row Ligne de la case
+     */
+    void setTile(TileType type, BonusType bonusType, int column, int row) {
+        putTile(type, bonusType, toCellIndex(column, row));
+    }
 
-        if (tiles[gc.x][gc.y] != null)
-            newTile.setEntities(tiles[gc.x][gc.y].getEntities());
-        tiles[gc.x][gc.y] = newTile;
+    private void putTile(TileType type, BonusType bonusType, int cell) {
+        version++;
+        ownTiles();
+        tileTypes[cell] = (byte)type.ordinal();
+        bonusTypes[cell] = type == TileType.Bonus ? (byte)bonusType.ordinal() : NONE;
+        arrowDirections[cell] = type == TileType.Arrow ? (byte)Direction.Up.ordinal() : NONE;
     }
 
     public void setBonusType(BonusType type, GridCoordinates gc) {
-        ((BonusTile)(tiles[gc.x][gc.y])).setBonusType(type);
+        int cell = toCellIndex(gc.x, gc.y);
+        if (tileTypes[cell] != TileType.Bonus.ordinal())
+            throw new RuntimeException("La case n'est pas un bonus : " + gc);
+        ownTiles();
+        bonusTypes[cell] = (byte)type.ordinal();
     }
 
     public void setBonusType(BonusType type, double x, double y) {
@@ -392,7 +726,11 @@ public class Map implements MapView {
     }
 
     public void setArrowDirection(Direction direction, GridCoordinates gc) {
-        ((ArrowTile)(tiles[gc.x][gc.y])).setDirection(direction);
+        int cell = toCellIndex(gc.x, gc.y);
+        if (tileTypes[cell] != TileType.Arrow.ordinal())
+            throw new RuntimeException("La case n'est pas une flèche : " + gc);
+        ownTiles();
+        arrowDirections[cell] = (byte)direction.ordinal();
     }
 
     public void setArrowDirection(Direction direction, double x, double y) {
@@ -400,99 +738,262 @@ public class Map implements MapView {
     }
 
     void setExplosion(int duration, ExplosionType type, Direction direction, Character owner, GridCoordinates gc) {
-        ((ExplodableTile)tiles[gc.x][gc.y]).explode(duration, type, direction, owner);
+        setExplosion(duration, type, direction, owner, gc.x, gc.y);
+    }
+
+    void setExplosion(int duration, ExplosionType type, Direction direction, Character owner, int column, int row) {
+        int cell = toCellIndex(column, row);
+        explosions.add(cell, duration, type, direction, owner);
+        version++;
+        activate(cell);
+    }
+
+    /**
+     * Pose les explosions d'une image sur la carte
+     * @param blasts Explosions, dans l'ordre où elles ont été calculées
+     */
+    void addBlasts(BlastEvents blasts) {
+        for (int i = 0; i < blasts.size(); i++) {
+            int cell = blasts.getCell(i);
+            explosions.add(cell, blasts.getDuration(), blasts.getType(i), blasts.getDirection(i), blasts.getOwner(i));
+            activate(cell);
+        }
+        if (!blasts.isEmpty())
+            version++;
+    }
+
+    /**
+     * Retire une entité de l'index avant la prochaine mise à jour de la carte
+     * @param entity Entité à retirer
+     */
+    void removeEntity(Entity entity) {
+        entities.remove(entity);
     }
 
     void setExplosionEnd(GridCoordinates gc) {
-        ((ExplodableTile)tiles[gc.x][gc.y]).setLastExplosionEnd();
+        setExplosionEnd(gc.x, gc.y);
+    }
+
+    void setExplosionEnd(int column, int row) {
+        explosions.setLastEnd(toCellIndex(column, row));
     }
 
     @Override
     public List<Entity> getEntities(GridCoordinates gc) {
-        return Collections.unmodifiableList(tiles[gc.x][gc.y].getEntities());
+        return getEntities(gc.x, gc.y);
     }
 
     @Override
     public List<Entity> getEntities(double x, double y) {
-        return getEntities(toGridCoordinates(x, y));
+        return getEntities(toColumn(x), toRow(y));
+    }
+
+    @Override
+    public List<Entity> getEntities(int column, int row) {
+        return entities.get(toCellIndex(column, row));
     }
 
     @Override
     public boolean hasBomb(GridCoordinates gc) {
-        List<Entity> entities = getEntities(gc);
-        for (Entity entity : entities) {
-            if (entity instanceof Bomb)
-                return true;
-        }
-        return false;
+        return hasBomb(gc.x, gc.y);
     }
 
     @Override
     public boolean hasBomb(double x, double y) {
-        return hasBomb(toGridCoordinates(x, y));
+        return hasBomb(toColumn(x), toRow(y));
+    }
+
+    @Override
+    public boolean hasBomb(int column, int row) {
+        return entities.hasBomb(toCellIndex(column, row));
     }
 
     @Override
     public Bomb getFirstBomb(GridCoordinates gc) {
-        List<Entity> entities = getEntities(gc);
-        for (Entity entity : entities) {
-            if (entity instanceof Bomb)
-                return (Bomb)entity;
-        }
-        return null;
+        return getFirstBomb(gc.x, gc.y);
     }
 
     @Override
     public Bomb getFirstBomb(double x, double y) {
-        return getFirstBomb(toGridCoordinates(x, y));
+        return getFirstBomb(toColumn(x), toRow(y));
+    }
+
+    @Override
+    public Bomb getFirstBomb(int column, int row) {
+        return entities.getFirstBomb(toCellIndex(column, row));
+    }
+
+    @Override
+    public int getBlastTimeRemaining(int column, int row) {
+        return blasts.getTimeRemaining(toCellIndex(column, row));
+    }
+
+    @Override
+    public int getTick() {
+        return tick;
     }
 
-    Tile[][] getTiles() {
-        return this.tiles;
+    @Override
+    public long getVersion() {
+        return (long)version + entities.getBombVersion();
+    }
+
+    /**
+     * Effectue les calculs paresseux de la carte pour qu'elle puisse ensuite être lue
+     * par plusieurs threads à la fois, tant qu'elle n'est pas modifiée
+     */
+    void prepareConcurrentReads() {
+        for (TileType type : TILE_TYPES)
+            getTile(type);
+        blasts.refresh();
+    }
+
+    /**
+     * @return true si au moins une case est en train d'exploser
+     */
+    boolean hasExplosions() {
+        return explosions.getExplodingCount() > 0;
+    }
+
+    /**
+     * @return L'index spatial des entités de la carte
+     */
+    EntityIndex getEntityIndex() {
+        return entities;
     }
 
     void addEntity(Entity entity) {
-        GridCoordinates gc = toGridCoordinates(entity.getX(), entity.getY());
-        tiles[gc.x][gc.y].addEntity(entity);
+        int cell = toCellIndex(toColumn(entity.getX()), toRow(entity.getY()));
+        entities.add(entity, cell);
+        activate(cell);
+    }
+
+    /**
+     * Range une entité dans la case où se trouve son centre après un déplacement
+     * @param entity Entité déplacée
+     */
+    void moveEntity(Entity entity) {
+        if (entity.cell < 0)
+            return;
+
+        int cell = toCellIndex(toColumn(entity.x), toRow(entity.y));
+        if (cell != entity.cell) {
+            entities.move(entity, cell);
+            activate(cell);
+        }
+    }
+
+    public boolean isInstantChainReaction() {
+        return instantChainReaction;
+    }
+
+    /**
+     * @param instantChainReaction true pour que les bombes touchées par une explosion explosent dans
+     *                             la même image, false pour que leur compte à rebours s'accélère
+     */
+    public void setInstantChainReaction(boolean instantChainReaction) {
+        this.instantChainReaction = instantChainReaction;
+        version++;
+    }
+
+    public boolean isFullScan() {
+        return fullScan;
+    }
+
+    /**
+     * Active ou non le mode de vérification, dans lequel toutes les cases sont parcourues
+     * à chaque image et où une case active non suivie lève une exception
+     * @param fullScan true pour parcourir toutes les cases
+     */
+    public void setFullScan(boolean fullScan) {
+        this.fullScan = fullScan;
+    }
+
+    /**
+     * @return Le nombre de cases contenant des explosions ou des entités
+     */
+    int getActiveCellCount() {
+        return activeCount;
+    }
+
+    /**
+     * Ajoute une case à l'ensemble des cases à mettre à jour
+     * @param cell Indice de la case
+     */
+    private void activate(int cell) {
+        if (!active[cell]) {
+            active[cell] = true;
+            activeCells[activeCount++] = cell;
+        }
+    }
+
+    private boolean isActive(int cell) {
+        return explosions.isExploding(cell) || !entities.isEmpty(cell);
     }
 
     /**
      * Met à jour la carte
      */
     void update() {
-        GridCoordinates gc = new GridCoordinates();
-        for(gc.x=0; gc.x<getColumnCount(); gc.x++){
-            for(gc.y=0; gc.y<getRowCount(); gc.y++){
-                //on parcours le tableau et on update les cases
-               setTile(tiles[gc.x][gc.y].update(), gc);
-               updateEntities(gc);
+        tick++;
+
+        //Les cases sont mises à jour dans l'ordre de leurs indices, colonne par colonne, quel que
+        //soit l'ordre d'activation : les bonus tirés au hasard ne dépendent pas du mode de parcours
+        int count = activeCount;
+        Arrays.sort(activeCells, 0, count);
+
+        //Les cases activées pendant le parcours seront mises à jour à l'image suivante
+        if (fullScan) {
+            for (int cell = 0; cell < tileTypes.length; cell++) {
+                if (isActive(cell) && !active[cell])
+                    throw new RuntimeException("Case active non suivie : " + new GridCoordinates(getCellColumn(cell), getCellRow(cell)));
             }
+
+            int next = 0;
+            for (int cell = 0; cell < tileTypes.length; cell++) {
+                if (next < count && activeCells[next] == cell) {
+                    next++;
+                    updateCell(cell);
+                } else if (!active[cell])
+                    updateCell(cell);
+            }
+        } else {
+            for (int i = 0; i < count; i++)
+                updateCell(activeCells[i]);
         }
-    }
 
-    void setTile(Tile tile, GridCoordinates gc) {
-        tiles[gc.x][gc.y] = tile;
+        //Retire les cases redevenues inactives
+        int kept = 0;
+        for (int i = 0; i < activeCount; i++) {
+            int cell = activeCells[i];
+            if (isActive(cell))
+                activeCells[kept++] = cell;
+            else
+                active[cell] = false;
+        }
+        activeCount = kept;
     }
 
     /**
-     * Met à jour les entités contenues dans une case de grille
-     * @param gc les coordonnées de la case étudiée
+     * Met à jour les explosions et les entités d'une case
+     * @param cell Indice de la case
      */
-    private void updateEntities(GridCoordinates gc) {
-        Iterator<Entity> iterator = tiles[gc.x][gc.y].entities.iterator();
-        while(iterator.hasNext()){
-            //parcours les entités pour virer ceux qui sont à remove
-            Entity entity = iterator.next();
-            if(entity.isToRemove()){
-                iterator.remove();
-            } else {
-                GridCoordinates pos = toGridCoordinates(entity.x, entity.y);
-                if (!gc.equals(pos)) {
-                    //parcours les entités et déplace puis remove celles qui sont pas dans la bonne case
-                    tiles[pos.x][pos.y].addEntity(entity);
-                    iterator.remove();
+    private void updateCell(int cell) {
+        if (explosions.update(cell)) {
+            version++;
+            Tile tile = getTile(TILE_TYPES[tileTypes[cell]]);
+            if (tile instanceof ExplodableTile)
+                ((ExplodableTile)tile).postExplosion(this, getCellColumn(cell), getCellRow(cell));
+        }
+        if (!entities.isEmpty(cell)) {
+            if (fullScan) {
+                for (Entity entity : entities.get(cell)) {
+                    if (toCellIndex(toColumn(entity.x), toRow(entity.y)) != cell)
+                        throw new RuntimeException("Entité mal indexée : " + entity.getID());
                 }
             }
+            //Les déplacements sont suivis au fur et à mesure, il ne reste qu'à retirer les entités supprimées
+            entities.removeToRemove(cell);
         }
     }
 
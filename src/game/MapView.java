@@ -27,6 +27,40 @@ public interface MapView {
      */
     GridCoordinates toGridCoordinates(double x, double y);
 
+    /**
+     * Convertit une coordonnée en x en pixel en colonne de la grille
+     * @param x coordonnée en x en pixel
+     * @return la colonne
+     */
+    int toColumn(double x);
+
+    /**
+     * Convertit une coordonnée en y en pixel en ligne de la grille
+     * @param y coordonnée en y en pixel
+     * @return la ligne
+     */
+    int toRow(double y);
+
+    /**
+     * Calcule l'indice compact (colonne*lignes+ligne) d'une case de la grille
+     * @param column la colonne de la case
+     * @param row la ligne de la case
+     * @return l'indice de la case
+     */
+    int toCellIndex(int column, int row);
+
+    /**
+     * @param cell l'indice compact d'une case
+     * @return la colonne de la case
+     */
+    int getCellColumn(int cell);
+
+    /**
+     * @param cell l'indice compact d'une case
+     * @return la ligne de la case
+     */
+    int getCellRow(int cell);
+
     /**
      * Récupère la coordonnée en x en pixel du centre d'une case de grille
      * @param gc les coordonnées de grille de la case
@@ -70,6 +104,14 @@ public interface MapView {
      */
     boolean isInsideMap(double x, double y);
 
+    /**
+     * Vérifie si la case appartient à la grille de la carte
+     * @param column la colonne de la case
+     * @param row la ligne de la case
+     * @return true si oui, false sinon
+     */
+    boolean isInsideMap(int column, int row);
+
     /**
      * Vérifie si la case de grille est percutable
      * @param gc les coordonnées de grille à tester
@@ -85,6 +127,14 @@ public interface MapView {
      */
     boolean isCollidable(double x, double y);
 
+    /**
+     * Vérifie si la case de grille est percutable
+     * @param column la colonne de la case
+     * @param row la ligne de la case
+     * @return true si oui, false sinon
+     */
+    boolean isCollidable(int column, int row);
+
     /**
      * Vérifie si le contenu de la case de grille est déstructible
      * @param gc les coordonnées de grille à tester
@@ -92,6 +142,8 @@ public interface MapView {
      */
     boolean isExplodable(GridCoordinates gc);
 
+    boolean isExplodable(int column, int row);
+
     /**
      * Vérifie si une case de grille explose
      * @param gc les coordonnées de grille à tester
@@ -107,32 +159,62 @@ public interface MapView {
      */
     boolean isExploding(double x, double y);
 
+    boolean isExploding(int column, int row);
+
     ExplosionType getExplosionType(GridCoordinates gc);
 
     Direction getExplosionDirection(GridCoordinates gc);
 
     int getExplosionTimeRemaining(GridCoordinates gc);
 
+    int getExplosionTimeRemaining(int column, int row);
+
+    /**
+     * Calculé une fois pour toutes les bombes, réactions en chaîne comprises
+     * @param column Colonne de la case
+     * @param row Ligne de la case
+     * @return le nombre d'images avant que le souffle d'une bombe n'atteigne la case, -1 si aucune ne l'atteint
+     */
+    int getBlastTimeRemaining(int column, int row);
+
+    /**
+     * @return Le nombre de mises à jour de la carte depuis son chargement
+     */
+    int getTick();
+
+    /**
+     * @return Un numéro qui change à chaque modification des tuiles, des explosions ou des bombes
+     */
+    long getVersion();
+
     Character getExplosionOwner(GridCoordinates gc);
 
     TileType getTileType(GridCoordinates gc);
 
     TileType getTileType(double x, double y);
 
+    TileType getTileType(int column, int row);
+
     BonusType getBonusType(GridCoordinates gc);
 
     BonusType getBonusType(double x, double y);
 
+    BonusType getBonusType(int column, int row);
+
     Direction getArrowDirection(GridCoordinates gc);
 
     Direction getArrowDirection(double x, double y);
 
+    Direction getArrowDirection(int column, int row);
+
     List<GridCoordinates> getSpawningLocations();
 
     List<Entity> getEntities(GridCoordinates gc);
 
     List<Entity> getEntities(double x, double y);
 
+    List<Entity> getEntities(int column, int row);
+
     /**
      * Vérifie si la case contient une bombe
      * @param gc les coordonnées de grille à tester
@@ -148,6 +230,14 @@ public interface MapView {
      */
     boolean hasBomb(double x, double y);
 
+    /**
+     * Vérifie si la case contient une bombe
+     * @param column la colonne de la case
+     * @param row la ligne de la case
+     * @return true si oui, false sinon
+     */
+    boolean hasBomb(int column, int row);
+
     /**
      * Récupère la première entité qui est une bombe dans une case de grille
      * @param gc les coordonnées de grille
@@ -163,4 +253,12 @@ public interface MapView {
      */
     Bomb getFirstBomb(double x, double y);
 
+    /**
+     * Récupère la première entité qui est une bombe dans une case de grille
+     * @param column la colonne de la case
+     * @param row la ligne de la case
+     * @return la bombe
+     */
+    Bomb getFirstBomb(int column, int row);
+
 }
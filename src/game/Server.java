@@ -1,32 +1,42 @@
 package game;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
 import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 import com.esotericsoftware.kryonet.Connection;
 import com.esotericsoftware.kryonet.Listener;
 
 import network.GameConnection;
-import network.GameInfo;
 import network.Network;
 import network.Network.AddController;
-import network.Network.CommandMap;
 import network.Network.ControllerPlayer;
-import network.Network.ControllerUpdate;
 import network.Network.EntityPlayer;
 import network.Network.EntityToRemove;
-import network.Network.EntityUpdateList;
+import network.Network.InputBatch;
+import network.Network.MapUpdate;
+import network.Network.EntitySnapshotUpdate;
 import network.Network.NextRound;
 import network.Network.PlayerInfo;
 import network.Network.PlayerToRemove;
 import network.Network.RoundEnded;
+import network.Network.SnapshotAck;
 import network.Network.TimeRemaining;
 import network.Network.WarmupTimeRemaining;
 import network.NetworkController;
+import network.PacketWriter;
 
 /**
  * Cette classe gère une partie de type Serveur
@@ -41,7 +51,41 @@ public class Server extends Local implements Listener {
 
     private int timestamp;
 
-    private static final int UPDATE_RATE = 20; //Hz
+    static final int DEFAULT_UPDATE_RATE = 20; //Hz
+
+    private int updateRate = DEFAULT_UPDATE_RATE;
+
+    /** Nombre d'instantanés des entités gardés pour servir de base aux différences */
+    static final int SNAPSHOT_HISTORY = 32;
+
+    /** Taille visée des instantanés envoyés à chaque client, pour tenir dans un datagramme */
+    static final int DEFAULT_SNAPSHOT_BUDGET = 1000; //octets
+
+    private int snapshotBudget = DEFAULT_SNAPSHOT_BUDGET;
+
+    private final EntitySnapshot snapshot = new EntitySnapshot();
+
+    private int snapshotSequence = -1;
+
+    private final ConcurrentHashMap<Connection, SnapshotChannel> channels = new ConcurrentHashMap<>();
+
+    private final PacketWriter snapshotWriter = new PacketWriter();
+
+    /** Connexions qui reçoivent les messages de la partie, ajoutées quand leur état est pris */
+    private volatile Connection[] connections = new Connection[0];
+
+    /** Connexions qui attendent l'état de la partie */
+    private final Set<Connection> joining = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Arrivées, joueurs ajoutés et départs des clients, reçus par le thread du réseau et
+     * exécutés dans l'ordre par le thread de la partie au début de l'image suivante
+     */
+    private final Queue<Runnable> clientActions = new ConcurrentLinkedQueue<>();
+
+    /** Thread qui code et envoie l'état de la partie aux clients qui la rejoignent */
+    private final ExecutorService joinPool = new ThreadPoolExecutor(0, 1, 60, TimeUnit.SECONDS,
+                                                                    new LinkedBlockingQueue<Runnable>());
 
     /**
      * Construit un serveur de jeu
@@ -53,13 +97,9 @@ public class Server extends Local implements Listener {
      * @throws java.lang.Exception Erreur liée au chargement de la carte
      */
     public Server(List<String> maps, int tileSize, int fps, int roundMax, int duration, int warmup, int restTime) throws Exception {
-        super(maps, tileSize, fps, roundMax, duration, warmup, restTime);
-
-        timestamp = 0;
-
-        players = Collections.synchronizedMap(players);
+        this(maps, tileSize, fps, roundMax, duration, warmup, restTime, null);
 
-        network = new com.esotericsoftware.kryonet.Server() {
+        network = new com.esotericsoftware.kryonet.Server(16384, 8192) {
             @Override
             protected Connection newConnection() {
                 return new GameConnection();
@@ -77,6 +117,27 @@ public class Server extends Local implements Listener {
         network.start();
     }
 
+    /**
+     * Construit une salle d'un serveur dédié, qui partage ses ports avec les autres salles et
+     * n'envoie qu'aux connexions qui l'ont rejointe
+     * @param network Serveur réseau commun, déjà démarré, null pour un serveur seul
+     * @see DedicatedServer
+     */
+    Server(List<String> maps, int tileSize, int fps, int roundMax, int duration, int warmup, int restTime,
+           com.esotericsoftware.kryonet.Server network) throws Exception {
+        super(maps, tileSize, fps, roundMax, duration, warmup, restTime);
+
+        timestamp = 0;
+
+        players = Collections.synchronizedMap(players);
+
+        //Les IA décident sur le thread de la partie : un serveur dédié fait déjà tourner ses salles
+        //en parallèle, et les décisions parallèles restent possibles avec setDecisionPool()
+        setDecisionPool(null);
+
+        this.network = network;
+    }
+
     @Override
     void createMap(int tileSize) {
         map = new DeltaMap(tileSize);
@@ -89,6 +150,7 @@ public class Server extends Local implements Listener {
 
     @Override
     public GameState update() {
+        runClientActions();
         timestamp++;
 
         boolean hasEnded = isRoundEnded();
@@ -99,7 +161,7 @@ public class Server extends Local implements Listener {
             sendEntityUpdates();
             sendScoreUpdates();
             sendMapUpdates();
-            network.sendToAllTCP(new RoundEnded(getWinnerName(), getWinnerID()));
+            sendToAllTCP(new RoundEnded(getWinnerName(), getWinnerID()));
         }
 
         return state;
@@ -109,43 +171,111 @@ public class Server extends Local implements Listener {
     void warmupUpdate() {
         super.warmupUpdate();
         if (warmupTimeRemaining % (fps/2) == 0)
-            network.sendToAllUDP(new WarmupTimeRemaining(warmupTimeRemaining));
+            sendToAllUDP(new WarmupTimeRemaining(warmupTimeRemaining));
     }
 
     @Override
     void roundUpdate() {
         super.roundUpdate();
 
-        if (timeRemaining % (fps/UPDATE_RATE) == 0) {
+        if (timeRemaining % Math.max(1, fps/updateRate) == 0) {
             sendEntityUpdates();
             sendScoreUpdates();
             sendMapUpdates();
         }
 
         if (timeRemaining % fps == 0)
-            network.sendToAllUDP(new TimeRemaining(timeRemaining));
+            sendToAllUDP(new TimeRemaining(timeRemaining));
 
         if (timeRemaining == 0)
-            network.sendToAllTCP(suddenDeathType);
+            sendToAllTCP(suddenDeathType);
+    }
+
+    /**
+     * @return Le nombre d'envois de l'état des entités et de la carte par seconde
+     */
+    public int getUpdateRate() {
+        return updateRate;
+    }
+
+    /**
+     * Change la fréquence d'envoi de l'état des entités et de la carte ; les clients
+     * interpolent entre les envois
+     * @param updateRate Nombre d'envois par seconde, au plus le nombre d'images par seconde
+     */
+    public void setUpdateRate(int updateRate) {
+        if (updateRate <= 0 || updateRate > fps)
+            throw new RuntimeException("Fréquence d'envoi invalide : " + updateRate);
+        this.updateRate = updateRate;
     }
 
+    /**
+     * @return La taille visée des instantanés envoyés à chaque client, en octets
+     */
+    public int getSnapshotBudget() {
+        return snapshotBudget;
+    }
+
+    /**
+     * Change la taille visée des instantanés envoyés à chaque client : au-delà, les entités
+     * modifiées les moins prioritaires attendent un envoi suivant
+     * @param snapshotBudget Nombre d'octets par envoi, 0 pour envoyer toutes les entités modifiées
+     */
+    public void setSnapshotBudget(int snapshotBudget) {
+        if (snapshotBudget < 0)
+            throw new RuntimeException("Taille des instantanés invalide : " + snapshotBudget);
+        this.snapshotBudget = snapshotBudget;
+    }
+
+    /**
+     * Envoie à chaque client un seul paquet avec l'état des entités, par différence avec le
+     * dernier instantané qu'il a accusé, ou en entier s'il n'en a pas ou s'il est trop ancien ;
+     * chaque client reçoit en priorité les entités qui le concernent (voir SnapshotChannel)
+     */
     private void sendEntityUpdates() {
-        List<Entity> updates = getEntities();
-        for (int start = 0; start < updates.size(); start += 5)
-            network.sendToAllUDP(new EntityUpdateList(timestamp, updates.subList(start, Math.min(start+5, updates.size()))));
+        snapshotSequence++;
+        snapshot.capture(getEntities(), snapshotSequence, timestamp);
+
+        for (Connection connection : getConnections()) {
+            GameConnection gConnection = (GameConnection)connection;
+            SnapshotChannel channel = channels.get(connection);
+            if (channel == null) {
+                channel = new SnapshotChannel();
+                channels.put(connection, channel);
+            }
+
+            snapshotWriter.reset();
+            int baseSequence = channel.encode(snapshot, gConnection.getSnapshotAck(), gConnection.getPlayers(),
+                                              map.getTileSize(), snapshotBudget, snapshotWriter);
+            connection.sendUDP(new EntitySnapshotUpdate(snapshot.sequence, baseSequence, timestamp,
+                                                        snapshotWriter.toByteArray(),
+                                                        getInputSequences(gConnection)));
+        }
+    }
+
+    /**
+     * @param connection Connexion d'un client
+     * @return La dernière entrée appliquée pour chacun de ses contrôleurs, pour sa prédiction
+     */
+    private static int[] getInputSequences(GameConnection connection) {
+        List<Player> players = connection.getPlayers();
+        int[] sequences = new int[players.size()];
+        for (int i = 0; i < sequences.length; i++) {
+            Controller controller = players.get(i).getController();
+            sequences[i] = controller instanceof NetworkController ? ((NetworkController)controller).getAppliedSequence() : -1;
+        }
+        return sequences;
     }
 
     private void sendScoreUpdates() {
         List<Player> updates = getPlayers();
-        network.sendToAllUDP(updates);
+        sendToAllUDP(updates);
     }
 
     private void sendMapUpdates() {
-        List<CommandMap> deltas = ((DeltaMap)map).deltas;
-        if (!deltas.isEmpty()) {
-            network.sendToAllTCP(deltas);
-            deltas.clear();
-        }
+        DeltaMap deltaMap = (DeltaMap)map;
+        if (deltaMap.hasDeltas())
+            sendToAllTCP(new MapUpdate(deltaMap.takeDeltas()));
     }
 
     @Override
@@ -160,11 +290,86 @@ public class Server extends Local implements Listener {
         super.removeEntities(entityIDs);
 
         if (!message.toRemove.isEmpty())
-            network.sendToAllTCP(message);
+            sendToAllTCP(message);
+    }
+
+    /**
+     * Exécute les actions des clients reçues depuis l'image précédente : la partie n'est modifiée
+     * que par son propre thread, entre deux images
+     */
+    private void runClientActions() {
+        Runnable action;
+        while ((action = clientActions.poll()) != null)
+            action.run();
+    }
+
+    /**
+     * Prend l'état de la partie pour un client qui la rejoint et l'ajoute aux destinataires des
+     * messages : il reçoit toutes les modifications suivantes et aucune de celles déjà comprises
+     * dans l'état. L'état est codé et envoyé par un autre thread.
+     * @param connection Connexion du client
+     */
+    private void acceptJoin(Connection connection) {
+        if (!joining.remove(connection))
+            return;
+
+        //Les modifications de la carte en attente partent avant l'état qui les contient
+        sendMapUpdates();
+        final JoinState state = new JoinState(this, timestamp);
+        addConnection(connection);
+        joinPool.execute(() -> state.send(connection));
+    }
+
+    /**
+     * @return Les connexions des clients de la partie
+     */
+    Connection[] getConnections() {
+        return connections;
+    }
+
+    private synchronized void addConnection(Connection connection) {
+        Connection[] added = Arrays.copyOf(connections, connections.length+1);
+        added[added.length-1] = connection;
+        connections = added;
+    }
+
+    /**
+     * @param connection Connexion qui quitte la partie
+     * @return false si la connexion n'était pas dans la partie
+     */
+    private synchronized boolean removeConnection(Connection connection) {
+        List<Connection> remaining = new ArrayList<Connection>(Arrays.asList(connections));
+        if (!remaining.remove(connection))
+            return false;
+        connections = remaining.toArray(new Connection[remaining.size()]);
+        return true;
     }
 
+    private void sendToAllTCP(Object object) {
+        for (Connection connection : connections)
+            connection.sendTCP(object);
+    }
+
+    private void sendToAllUDP(Object object) {
+        for (Connection connection : connections)
+            connection.sendUDP(object);
+    }
+
+    /**
+     * Arrête le serveur ; une salle ferme seulement ses connexions, le réseau restant à la
+     * disposition des autres salles
+     */
     @Override
     public void stop() {
+        joinPool.shutdownNow();
+        for (Connection connection : joining)
+            connection.close();
+        for (Connection connection : connections)
+            connection.close();
+
+        if (threadPool == null)
+            return;
+
         network.close();
         network.stop();
         threadPool.shutdown();
@@ -180,18 +385,18 @@ public class Server extends Local implements Listener {
     @Override
     void prepareNextRound() {
         sendMapUpdates(); // Send new map
-        network.sendToAllTCP(new NextRound());
+        sendToAllTCP(new NextRound());
         super.prepareNextRound();
     }
 
     @Override
     void addEntity(Entity entity) {
         super.addEntity(entity);
-        network.sendToAllTCP(entity);
+        sendToAllTCP(entity);
         if (entity instanceof Character) {
             Player player = ((Character) entity).getPlayer();
             if (player != null)
-                network.sendToAllTCP(new EntityPlayer(entity.getID(), player.getID()));
+                sendToAllTCP(new EntityPlayer(entity.getID(), player.getID()));
         }
     }
 
@@ -200,21 +405,12 @@ public class Server extends Local implements Listener {
         super.fireEvent(e);
         if (network != null) {
             if (e != GameEvent.SuddenDeath)
-                network.sendToAllUDP(e);
+                sendToAllUDP(e);
             else
-                network.sendToAllTCP(e);
+                sendToAllTCP(e);
         }
     }
 
-    /**
-     * @return Les informations de la partie en cours
-     */
-    public GameInfo getGameInfo() {
-        return new GameInfo(fps, duration, timeRemaining, warmupDuration, warmupTimeRemaining,
-                            restTimeDuration, restTimeRemaining, round, roundMax, suddenDeathType,
-                            map.getTileSize(), map.getName(), map.saveMap());
-    }
-
     private PlayerInfo getPlayerInfo(Player player) {
         PlayerInfo playerInfo = new PlayerInfo(player, null, -1);
         if (player.getController() != null)
@@ -225,14 +421,13 @@ public class Server extends Local implements Listener {
         return playerInfo;
     }
 
+    /**
+     * Met le client en attente de l'état de la partie, pris au début de la prochaine image
+     */
     @Override
     public void connected(Connection connection) {
-        connection.sendTCP(getGameInfo());
-        List<Entity> entities = getEntities();
-        connection.sendTCP(entities);
-        for (Player player : getPlayers()) {
-            connection.sendTCP(getPlayerInfo(player));
-        }
+        joining.add(connection);
+        clientActions.offer(() -> acceptJoin(connection));
     }
 
     @Override
@@ -249,7 +444,7 @@ public class Server extends Local implements Listener {
         }
 
         player = newPlayer(controller, ID.intValue());
-        network.sendToAllTCP(getPlayerInfo(player));
+        sendToAllTCP(getPlayerInfo(player));
         return player;
     }
 
@@ -257,20 +452,53 @@ public class Server extends Local implements Listener {
     public void received(Connection connection, Object object) {
         GameConnection gConnection = (GameConnection)connection;
         if (object instanceof AddController) {
-            AddController message = (AddController) object;
-            NetworkController controller = new NetworkController(gConnection, gConnection.getPlayers().size(), message.name);
-            Player player = newPlayer(controller);
-            gConnection.addPlayer(player);
-            connection.sendTCP(new ControllerPlayer(controller.getID(), player.getID()));
-        } else if (object instanceof ControllerUpdate) {
-            ControllerUpdate update = (ControllerUpdate) object;
-            if (update.id >= 0 && update.id < gConnection.getPlayers().size())
-                ((NetworkController) gConnection.getPlayers().get(update.id).getController()).update(update);
+            String name = ((AddController) object).name;
+            clientActions.offer(() -> addController(gConnection, name));
+        } else if (object instanceof InputBatch) {
+            InputBatch batch = (InputBatch) object;
+            if (!batch.isValid())
+                return;
+
+            List<Player> connectionPlayers = gConnection.getPlayers();
+            int count = Math.min(batch.controllerCount, connectionPlayers.size());
+            int first = batch.getFirstSequence();
+            for (int i = 0; i < count; i++) {
+                NetworkController controller = (NetworkController) connectionPlayers.get(i).getController();
+                for (int input = i; input < batch.inputs.length; input += batch.controllerCount)
+                    controller.receive(first + input/batch.controllerCount, batch.inputs[input]);
+            }
+        } else if (object instanceof SnapshotAck) {
+            gConnection.ackSnapshot(((SnapshotAck)object).sequence);
         }
     }
 
+    /**
+     * Crée le joueur d'un contrôleur du client
+     * @param connection Connexion du client
+     * @param name Nom du contrôleur
+     */
+    private void addController(GameConnection connection, String name) {
+        NetworkController controller = new NetworkController(connection, connection.getPlayers().size(), name);
+        Player player = newPlayer(controller);
+        connection.addPlayer(player);
+        connection.sendTCP(new ControllerPlayer(controller.getID(), player.getID()));
+    }
+
     @Override
     public void disconnected(Connection connection) {
+        clientActions.offer(() -> removeClient(connection));
+    }
+
+    /**
+     * Retire un client de la partie avec ses joueurs
+     * @param connection Connexion du client
+     */
+    private void removeClient(Connection connection) {
+        joining.remove(connection);
+        channels.remove(connection);
+        if (!removeConnection(connection))
+            return;
+
         GameConnection gConnection = (GameConnection)connection;
         List<Player> playerList = gConnection.getPlayers();
         if (playerList.isEmpty())
@@ -287,8 +515,9 @@ public class Server extends Local implements Listener {
             message.toRemove.add(playerID);
             players.remove(playerID);
         }
+        updatePlayerCounters();
 
-        network.sendToAllTCP(message);
+        sendToAllTCP(message);
 
         synchronized (freeIDs) {
             freeIDs.addAll(message.toRemove);
@@ -0,0 +1,213 @@
+package game;
+
+import java.util.Arrays;
+import java.util.List;
+
+import network.PacketWriter;
+
+
+/**
+ * Envoi des instantanés des entités à un client, dans une enveloppe d'octets par envoi
+ * À chaque envoi où elle n'est pas transmise, une entité modifiée accumule de la priorité :
+ * d'autant plus vite qu'elle est proche des personnages du client, qu'elle vient d'apparaître
+ * ou que son état (vies, bonus, compte à rebours...) a changé, et lentement pour une bombe
+ * immobile. Les entités de plus grande priorité sont transmises tant que l'enveloppe le permet,
+ * puis leur priorité retombe à zéro ; aucune n'attend indéfiniment. Les personnages du client,
+ * nécessaires à sa prédiction, et les disparitions sont toujours transmis.
+ * Chaque instantané envoyé est gardé tel que le client le reconstruira, pour servir de base
+ * aux suivants.
+ */
+class SnapshotChannel {
+    /** Priorité gagnée à chaque envoi par un personnage ou une bombe en mouvement */
+    static final double MOVING_PRIORITY = 1;
+
+    /** Priorité gagnée à chaque envoi par une bombe immobile */
+    static final double STATIC_BOMB_PRIORITY = 0.25;
+
+    /**
+     * Priorité supplémentaire d'une entité sur la case d'un personnage du client, divisée par
+     * un plus la distance en cases
+     */
+    static final double NEARBY_PRIORITY = 8;
+
+    /** Facteur de priorité d'une entité apparue ou dont l'état a changé */
+    static final double STATE_CHANGE_PRIORITY = 2;
+
+    //Bits des champs de mouvement dans le masque des changements
+    private static final int MOVEMENT_MASK = (1 << EntitySnapshot.X) | (1 << EntitySnapshot.Y) |
+                                             (1 << EntitySnapshot.DIRECTION) | (1 << EntitySnapshot.SPEED);
+
+    private final EntitySnapshot[] views = new EntitySnapshot[Server.SNAPSHOT_HISTORY];
+
+    private int lastSequence = -1;
+
+    //Priorités accumulées, indexées comme l'instantané complet du dernier envoi
+    private int[] priorityIDs = new int[16];
+
+    private double[] priorities = new double[16];
+
+    private int prioritySize;
+
+    private int[] nextPriorityIDs = new int[16];
+
+    private double[] nextPriorities = new double[16];
+
+    private boolean[] selected = new boolean[16];
+
+    //Entités candidates, triées par priorité : priorité (flottant positif) puis position
+    private long[] candidates = new long[16];
+
+    /**
+     * Écrit l'instantané du client par différence avec le dernier qu'il a accusé
+     * @param current Instantané complet de la partie
+     * @param ack Dernier instantané reçu par le client, -1 pour aucun
+     * @param players Joueurs du client
+     * @param tileSize Taille des tuiles
+     * @param budget Nombre d'octets par envoi, 0 pour transmettre toutes les entités modifiées
+     * @param out Paquet dans lequel écrire
+     * @return Le numéro de l'instantané de base, -1 si tout a été écrit sans base
+     */
+    int encode(EntitySnapshot current, int ack, List<Player> players, int tileSize, int budget, PacketWriter out) {
+        //La base ne doit pas occuper la place du nouvel instantané
+        EntitySnapshot base = current.sequence - ack < views.length ? getView(ack) : null;
+
+        select(current, base, players, tileSize, budget);
+
+        int slot = current.sequence % views.length;
+        if (views[slot] == null)
+            views[slot] = new EntitySnapshot();
+        EntitySnapshot view = views[slot];
+        view.captureView(current, base, selected);
+        lastSequence = current.sequence;
+
+        view.encode(base, out);
+        return base == null ? -1 : base.sequence;
+    }
+
+    /**
+     * @param sequence Numéro d'un instantané envoyé
+     * @return L'instantané tel que le client l'a reconstruit, null s'il n'est plus gardé
+     */
+    EntitySnapshot getView(int sequence) {
+        if (sequence < 0 || sequence > lastSequence || lastSequence - sequence >= views.length)
+            return null;
+
+        EntitySnapshot view = views[sequence % views.length];
+        return view != null && view.sequence == sequence ? view : null;
+    }
+
+    /**
+     * Choisit les entités transmises et met à jour les priorités
+     */
+    private void select(EntitySnapshot current, EntitySnapshot base, List<Player> players, int tileSize, int budget) {
+        final int size = current.size();
+        ensureCapacity(size);
+
+        int remaining = budget;
+        int candidateCount = 0;
+        for (int i = 0, p = 0; i < size; i++) {
+            final int id = current.getID(i);
+            while (p < prioritySize && priorityIDs[p] < id)
+                p++;
+            double priority = p < prioritySize && priorityIDs[p] == id ? priorities[p] : 0;
+
+            nextPriorityIDs[i] = id;
+            selected[i] = false;
+            int mask = current.changeMask(i, base);
+            if (mask == 0) {
+                //Rien à transmettre : le client est à jour
+                nextPriorities[i] = 0;
+                continue;
+            }
+
+            if (budget <= 0 || isControlled(id, players)) {
+                selected[i] = true;
+                nextPriorities[i] = 0;
+                remaining -= current.recordSize(i, base, mask);
+                continue;
+            }
+
+            priority += getPriorityGain(current, i, mask, players, tileSize);
+            nextPriorities[i] = priority;
+            candidates[candidateCount++] = (long)Float.floatToIntBits((float)priority) << 32 | i;
+        }
+
+        //Les flottants positifs se comparent comme leurs bits
+        Arrays.sort(candidates, 0, candidateCount);
+        for (int c = candidateCount-1; c >= 0 && remaining > 0; c--) {
+            int i = (int)candidates[c];
+            int cost = current.recordSize(i, base, current.changeMask(i, base));
+            if (cost > remaining)
+                continue;
+
+            selected[i] = true;
+            nextPriorities[i] = 0;
+            remaining -= cost;
+        }
+
+        int[] ids = priorityIDs;
+        priorityIDs = nextPriorityIDs;
+        nextPriorityIDs = ids;
+        double[] values = priorities;
+        priorities = nextPriorities;
+        nextPriorities = values;
+        prioritySize = size;
+    }
+
+    /**
+     * @return La priorité gagnée par une entité modifiée mais pas encore transmise
+     */
+    private static double getPriorityGain(EntitySnapshot current, int i, int mask, List<Player> players, int tileSize) {
+        boolean moving = current.getField(i, EntitySnapshot.SPEED) != 0;
+        double gain = current.getType(i) == EntitySnapshot.BOMB && !moving ? STATIC_BOMB_PRIORITY : MOVING_PRIORITY;
+
+        double distance = getDistance(current, i, players, tileSize);
+        if (!Double.isInfinite(distance))
+            gain += NEARBY_PRIORITY/(1 + distance);
+
+        if (EntitySnapshot.isNew(mask) || (mask & ~MOVEMENT_MASK) != 0)
+            gain *= STATE_CHANGE_PRIORITY;
+        return gain;
+    }
+
+    /**
+     * @return La distance en cases entre une entité et le plus proche personnage du client,
+     *         infinie s'il n'en a aucun
+     */
+    private static double getDistance(EntitySnapshot current, int i, List<Player> players, int tileSize) {
+        final double x = (double)current.getField(i, EntitySnapshot.X)/EntitySnapshot.POSITION_SCALE;
+        final double y = (double)current.getField(i, EntitySnapshot.Y)/EntitySnapshot.POSITION_SCALE;
+        double distance = Double.POSITIVE_INFINITY;
+        for (int p = 0; p < players.size(); p++) {
+            Character character = players.get(p).getCharacter();
+            if (character != null && !character.isToRemove())
+                distance = Math.min(distance, Math.hypot(character.getX() - x, character.getY() - y)/tileSize);
+        }
+        return distance;
+    }
+
+    /**
+     * @return true si l'entité est le personnage d'un joueur du client
+     */
+    private static boolean isControlled(int id, List<Player> players) {
+        for (int p = 0; p < players.size(); p++) {
+            Character character = players.get(p).getCharacter();
+            if (character != null && character.getID() == id)
+                return true;
+        }
+        return false;
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity <= selected.length)
+            return;
+
+        int length = Math.max(capacity, 2*selected.length);
+        priorityIDs = Arrays.copyOf(priorityIDs, length);
+        priorities = Arrays.copyOf(priorities, length);
+        nextPriorityIDs = Arrays.copyOf(nextPriorityIDs, length);
+        nextPriorities = Arrays.copyOf(nextPriorities, length);
+        selected = Arrays.copyOf(selected, length);
+        candidates = Arrays.copyOf(candidates, length);
+    }
+}
@@ -0,0 +1,228 @@
+package game;
+
+
+/**
+ * Tampon des derniers instantanés reçus par un client, pour afficher les entités avec un léger
+ * retard sur le serveur
+ * Le client suit une estimation de l'horloge du serveur, avancée d'environ une image à chaque
+ * image et recalée doucement sur les instantanés reçus. Les positions sont interpolées entre les
+ * deux instantanés qui encadrent l'instant affiché (l'horloge moins le retard) ; au-delà du
+ * dernier instantané, elles sont extrapolées à partir de la vitesse, pendant une durée bornée.
+ * Seuls les instantanés où le serveur a transmis une entité comptent pour elle.
+ */
+class SnapshotInterpolator {
+    /** Nombre d'instantanés gardés, inférieur à l'historique des instantanés du client */
+    static final int CAPACITY = 8;
+
+    /** Retard par défaut, en nombre d'intervalles entre deux instantanés */
+    static final double DEFAULT_DELAY_INTERVALS = 2;
+
+    /** Durée maximale d'extrapolation par défaut, en images */
+    static final int DEFAULT_MAX_EXTRAPOLATION = 15;
+
+    /** Écart avec le serveur au-delà duquel l'horloge est recalée d'un coup, en images */
+    private static final int MAX_CLOCK_ERROR = 30;
+
+    /** Part de l'écart avec le serveur corrigée à chaque image */
+    private static final double CLOCK_CORRECTION = 0.1;
+
+    /** Correction maximale de l'horloge par image, pour que l'affichage ne saute pas */
+    private static final double MAX_CLOCK_CORRECTION = 0.1;
+
+    /** Poids de chaque nouvel intervalle dans l'intervalle moyen entre deux instantanés */
+    private static final double INTERVAL_SMOOTHING = 0.1;
+
+    private static final Direction[] DIRECTIONS = Direction.values();
+
+    private final EntitySnapshot[] snapshots = new EntitySnapshot[CAPACITY];
+
+    //Numéro de chaque instantané lors de son ajout, l'objet pouvant être réutilisé ensuite
+    private final int[] sequences = new int[CAPACITY];
+
+    private int count;
+
+    private double clock = Double.NaN;
+
+    //Écart entre le dernier instantané reçu et l'horloge, qui reste à corriger
+    private double clockError;
+
+    private double interval;
+
+    private double delay = -1;
+
+    private int maxExtrapolation = DEFAULT_MAX_EXTRAPOLATION;
+
+    private double x;
+
+    private double y;
+
+    /**
+     * Ajoute un instantané, plus récent que les précédents
+     * @param snapshot Instantané reçu
+     */
+    void add(EntitySnapshot snapshot) {
+        if (count > 0) {
+            EntitySnapshot newest = snapshots[count-1];
+            //Les numéros se suivent au serveur : un instantané perdu ne compte pas comme un intervalle plus long
+            int skipped = snapshot.sequence - newest.sequence;
+            if (skipped > 0 && snapshot.timestamp > newest.timestamp) {
+                double spacing = (double)(snapshot.timestamp - newest.timestamp)/skipped;
+                interval = interval == 0 ? spacing : interval + (spacing - interval)*INTERVAL_SMOOTHING;
+            }
+        }
+
+        if (count == CAPACITY) {
+            System.arraycopy(snapshots, 1, snapshots, 0, CAPACITY-1);
+            System.arraycopy(sequences, 1, sequences, 0, CAPACITY-1);
+            count--;
+        }
+        snapshots[count] = snapshot;
+        sequences[count] = snapshot.sequence;
+        count++;
+
+        double error = snapshot.timestamp - clock;
+        if (Double.isNaN(clock) || Math.abs(error) > MAX_CLOCK_ERROR) {
+            clock = snapshot.timestamp;
+            clockError = 0;
+        } else
+            clockError = error;
+    }
+
+    /**
+     * Vide le tampon, au changement de round
+     */
+    void clear() {
+        count = 0;
+        clock = Double.NaN;
+        clockError = 0;
+    }
+
+    /**
+     * Avance l'horloge d'une image, un peu plus ou un peu moins vite pour rattraper le serveur
+     */
+    void tick() {
+        if (Double.isNaN(clock))
+            return;
+
+        double correction = Math.max(-MAX_CLOCK_CORRECTION, Math.min(clockError*CLOCK_CORRECTION, MAX_CLOCK_CORRECTION));
+        clock += 1 + correction;
+        clockError -= correction;
+    }
+
+    /**
+     * @return Le retard de l'affichage sur le serveur en images ; par défaut, deux fois
+     *         l'intervalle mesuré entre les instantanés
+     */
+    double getDelay() {
+        return delay >= 0 ? delay : DEFAULT_DELAY_INTERVALS*interval;
+    }
+
+    /**
+     * @param delay Retard de l'affichage sur le serveur en images, négatif pour le retard par défaut
+     */
+    void setDelay(double delay) {
+        this.delay = delay;
+    }
+
+    void setMaxExtrapolation(int maxExtrapolation) {
+        if (maxExtrapolation < 0)
+            throw new RuntimeException("La durée d'extrapolation ne peut pas être négative");
+        this.maxExtrapolation = maxExtrapolation;
+    }
+
+    /**
+     * @return L'instant du serveur affiché, en images
+     */
+    private double getRenderTime() {
+        return clock - getDelay();
+    }
+
+    /**
+     * Calcule la position affichée d'une entité, lue ensuite avec getX() et getY()
+     * @param id Identifiant de l'entité
+     * @return false si aucun instantané du tampon ne contient l'entité
+     */
+    boolean sample(int id) {
+        if (count == 0)
+            return false;
+
+        final double time = getRenderTime();
+
+        //Premier instantané postérieur à l'instant affiché
+        int split = count;
+        while (split > 0 && isValid(split-1) && snapshots[split-1].timestamp > time)
+            split--;
+
+        //Les instantanés où le serveur n'a pas transmis l'entité ne donnent pas sa position
+        int before = -1;
+        int beforeIndex = -1;
+        for (int i = split-1; i >= 0 && isValid(i); i--) {
+            int index = snapshots[i].indexOf(id);
+            if (index >= 0 && snapshots[i].isUpdated(index)) {
+                before = i;
+                beforeIndex = index;
+                break;
+            }
+        }
+
+        int after = -1;
+        int afterIndex = -1;
+        for (int i = split; i < count; i++) {
+            if (!isValid(i))
+                continue;
+            int index = snapshots[i].indexOf(id);
+            if (index >= 0 && snapshots[i].isUpdated(index)) {
+                after = i;
+                afterIndex = index;
+                break;
+            }
+        }
+
+        if (before >= 0 && after >= 0) {
+            EntitySnapshot from = snapshots[before];
+            EntitySnapshot to = snapshots[after];
+            double t = (time - from.timestamp)/(to.timestamp - from.timestamp);
+            x = lerp(from.getField(beforeIndex, EntitySnapshot.X), to.getField(afterIndex, EntitySnapshot.X), t);
+            y = lerp(from.getField(beforeIndex, EntitySnapshot.Y), to.getField(afterIndex, EntitySnapshot.Y), t);
+            return true;
+        } else if (after >= 0) {
+            //Instant affiché antérieur au tampon : position la plus ancienne connue
+            x = (double)snapshots[after].getField(afterIndex, EntitySnapshot.X)/EntitySnapshot.POSITION_SCALE;
+            y = (double)snapshots[after].getField(afterIndex, EntitySnapshot.Y)/EntitySnapshot.POSITION_SCALE;
+            return true;
+        } else if (before >= 0) {
+            extrapolate(snapshots[before], beforeIndex, time);
+            return true;
+        }
+        return false;
+    }
+
+    double getX() {
+        return x;
+    }
+
+    double getY() {
+        return y;
+    }
+
+    private void extrapolate(EntitySnapshot snapshot, int index, double time) {
+        double elapsed = Math.min(Math.max(0, time - snapshot.timestamp), maxExtrapolation);
+        double move = elapsed*snapshot.getField(index, EntitySnapshot.SPEED)/EntitySnapshot.SPEED_SCALE;
+        int direction = snapshot.getField(index, EntitySnapshot.DIRECTION);
+        x = (double)snapshot.getField(index, EntitySnapshot.X)/EntitySnapshot.POSITION_SCALE;
+        y = (double)snapshot.getField(index, EntitySnapshot.Y)/EntitySnapshot.POSITION_SCALE;
+        if (direction > 0) {
+            Direction d = DIRECTIONS[direction-1];
+            x += d.getDeltaX()*move;
+            y += d.getDeltaY()*move;
+        }
+    }
+
+    private boolean isValid(int i) {
+        return snapshots[i].sequence == sequences[i];
+    }
+
+    private static double lerp(int from, int to, double t) {
+        return (from + (to - from)*t)/EntitySnapshot.POSITION_SCALE;
+    }
+}
@@ -1,40 +1,29 @@
 package game;
 
-import java.lang.reflect.Constructor;
-import java.lang.reflect.InvocationTargetException;
+import java.util.function.Supplier;
 
 
 /**
  * Liste des types de tuiles présentes dans le jeu
  */
 public enum TileType {
-    Empty(EmptyTile.class),
-    Breakable(BreakableTile.class),
-    Unbreakable(UnbreakableTile.class),
-    Bonus(BonusTile.class),
-    Arrow(ArrowTile.class),
-    Frozen(FrozenTile.class);
+    Empty(EmptyTile::new),
+    Breakable(BreakableTile::new),
+    Unbreakable(UnbreakableTile::new),
+    Bonus(BonusTile::new),
+    Arrow(ArrowTile::new),
+    Frozen(FrozenTile::new);
     
-    private Constructor<? extends Tile> tileConstructor;
+    private final Supplier<Tile> factory;
     
-    private TileType(Class<? extends Tile> tileClass) {
-        try {
-            this.tileConstructor = tileClass.getDeclaredConstructor();
-        } catch (NoSuchMethodException | SecurityException e) {
-            e.printStackTrace();
-            assert false;
-        }
+    private TileType(Supplier<Tile> factory) {
+        this.factory = factory;
     }
     
+    /**
+     * @return Une nouvelle tuile de ce type, créée sans réflexion
+     */
     public Tile newTile() {
-        try {
-            return this.tileConstructor.newInstance();
-        } catch (InstantiationException | IllegalAccessException | IllegalArgumentException
-                | InvocationTargetException e) {
-            e.printStackTrace();
-            assert false;
-        }
-        
-        return null;
+        return factory.get();
     }
 }
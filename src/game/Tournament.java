@@ -0,0 +1,541 @@
+package game;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * Tournoi entre intelligences artificielles
+ * Chaque match est une partie locale indépendante exécutée sans interface graphique et
+ * aussi vite que possible ; les matchs sont répartis sur un ForkJoinPool, un par cœur par défaut.
+ * Les niveaux tournent entre les places d'un match à l'autre et chaque match a sa propre graine,
+ * ce qui rend le tournoi reproductible, sauf avec un budget de temps ou le niveau SEARCH dont la
+ * recherche s'arrête à une échéance : ce niveau ne participe que s'il est choisi avec setLevels().
+ */
+public class Tournament {
+    /** Durée de l'échauffement en secondes, non nulle pour que les personnages apparaissent */
+    private static final double WARMUP = 0.05;
+
+    private static final int FPS = 60;
+
+    private List<String> maps;
+
+    private List<AIController.Level> levels;
+
+    private int playersPerMatch = 4;
+
+    private int matchesPerMap = 100;
+
+    private int rounds = 1;
+
+    private double duration = 180;
+
+    private long seed = 0;
+
+    private int parallelism = Runtime.getRuntime().availableProcessors();
+
+    private int planningInterval = 0;
+
+    private long timeBudget = 0;
+
+    private long searchTime = AIController.DEFAULT_SEARCH_TIME;
+
+    /**
+     * Construit un tournoi sur toutes les cartes fournies avec le jeu, entre tous les niveaux d'IA
+     * qui ne dépendent pas du temps de calcul, c'est-à-dire tous sauf SEARCH
+     * @throws IOException si la liste des cartes ne peut être lue
+     */
+    public Tournament() throws IOException {
+        this.maps = bundledMaps();
+        this.levels = new ArrayList<>();
+        for (AIController.Level level : AIController.Level.values()) {
+            if (!level.isSearching())
+                levels.add(level);
+        }
+    }
+
+    /**
+     * @return Les noms des cartes fournies avec le jeu
+     * @throws IOException si la liste des cartes ne peut être lue
+     */
+    public static List<String> bundledMaps() throws IOException {
+        List<String> maps = new ArrayList<>();
+        try (BufferedReader br = new BufferedReader(new InputStreamReader(Tournament.class.getResourceAsStream("/maps/list.txt")))) {
+            for (String line; (line = br.readLine()) != null; ) {
+                if (!line.isEmpty())
+                    maps.add(line);
+            }
+        }
+        return maps;
+    }
+
+    public void setMaps(List<String> maps) {
+        if (maps.isEmpty())
+            throw new RuntimeException("Il faut sélectionner au moins une carte !");
+        this.maps = new ArrayList<>(maps);
+    }
+
+    public void setLevels(List<AIController.Level> levels) {
+        if (levels.isEmpty())
+            throw new RuntimeException("Il faut sélectionner au moins un niveau !");
+        this.levels = new ArrayList<>(levels);
+    }
+
+    public void setPlayersPerMatch(int playersPerMatch) {
+        if (playersPerMatch < 2)
+            throw new RuntimeException("Il faut au moins deux joueurs par match : " + playersPerMatch);
+        this.playersPerMatch = playersPerMatch;
+    }
+
+    public void setMatchesPerMap(int matchesPerMap) {
+        if (matchesPerMap <= 0)
+            throw new RuntimeException("Nombre de matchs par carte négatif ou nul : " + matchesPerMap);
+        this.matchesPerMap = matchesPerMap;
+    }
+
+    public void setRounds(int rounds) {
+        if (rounds <= 0)
+            throw new RuntimeException("Nombre de rounds négatif ou nul : " + rounds);
+        this.rounds = rounds;
+    }
+
+    /**
+     * @param duration Durée d'un round en secondes, avant la mort subite
+     */
+    public void setDuration(double duration) {
+        if (duration <= 0)
+            throw new RuntimeException("Durée négative ou nulle : " + duration);
+        this.duration = duration;
+    }
+
+    /**
+     * @param seed Graine du tournoi, dont sont dérivées les graines des matchs
+     */
+    public void setSeed(long seed) {
+        this.seed = seed;
+    }
+
+    /**
+     * @param parallelism Nombre de matchs exécutés en même temps
+     */
+    public void setParallelism(int parallelism) {
+        if (parallelism <= 0)
+            throw new RuntimeException("Parallélisme négatif ou nul : " + parallelism);
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * @param planningInterval Nombre d'images entre deux plans d'une IA lorsque rien ne change,
+     *                         0 pour suivre AIController.DEFAULT_PLANNING_RATE
+     */
+    public void setPlanningInterval(int planningInterval) {
+        if (planningInterval < 0)
+            throw new RuntimeException("Intervalle de planification négatif : " + planningInterval);
+        this.planningInterval = planningInterval;
+    }
+
+    /**
+     * @param timeBudget Temps de calcul accordé à chaque IA par image en nanosecondes, 0 pour ne pas le limiter
+     */
+    public void setTimeBudget(long timeBudget) {
+        if (timeBudget < 0)
+            throw new RuntimeException("Budget de temps négatif : " + timeBudget);
+        this.timeBudget = timeBudget;
+    }
+
+    /**
+     * @param searchTime Temps accordé à chaque décision des IA qui explorent des copies de la partie, en nanosecondes
+     */
+    public void setSearchTime(long searchTime) {
+        if (searchTime < 0)
+            throw new RuntimeException("Temps de recherche négatif : " + searchTime);
+        this.searchTime = searchTime;
+    }
+
+    /**
+     * Exécute tous les matchs du tournoi
+     * @return Les résultats du tournoi
+     * @throws Exception si un match a échoué
+     */
+    public Report run() throws Exception {
+        List<ForkJoinTask<Match>> tasks = new ArrayList<>(maps.size()*matchesPerMap);
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        long start = System.nanoTime();
+        try {
+            int index = 0;
+            for (String map : maps) {
+                for (int i = 0; i < matchesPerMap; i++, index++) {
+                    Match match = new Match(map, seats(index), seed + index);
+                    tasks.add(pool.submit(() -> {
+                        match.play();
+                        return match;
+                    }));
+                }
+            }
+
+            Report report = new Report();
+            for (ForkJoinTask<Match> task : tasks)
+                report.add(task.get());
+            report.elapsed = System.nanoTime() - start;
+            return report;
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * Répartit les niveaux entre les places d'un match en les décalant à chaque match
+     * @param index Numéro du match
+     * @return Le niveau de chaque place
+     */
+    private AIController.Level[] seats(int index) {
+        AIController.Level[] seats = new AIController.Level[playersPerMatch];
+        for (int i = 0; i < playersPerMatch; i++)
+            seats[i] = levels.get((index + i) % levels.size());
+        return seats;
+    }
+
+    /**
+     * Match du tournoi et ses résultats
+     */
+    private class Match {
+        final String map;
+
+        final AIController.Level[] seats;
+
+        final long seed;
+
+        final List<Integer> roundLengths = new ArrayList<>();
+
+        /** Place du vainqueur de chaque round, -1 en cas d'égalité */
+        final List<Integer> winners = new ArrayList<>();
+
+        boolean timedOut;
+
+        long ticks;
+
+        final List<AIController> controllers = new ArrayList<>();
+
+        Match(String map, AIController.Level[] seats, long seed) {
+            this.map = map;
+            this.seats = seats;
+            this.seed = seed;
+        }
+
+        void play() throws Exception {
+            Engine.Builder builder = new Engine.Builder().map(map).fps(FPS).uncapped().seed(seed)
+                                                         .rounds(rounds).duration(duration)
+                                                         .warmup(WARMUP).restTime(0)
+                                                         .decisionPool(null) //Les matchs sont déjà parallèles
+                                                         .aiPlanning(planningInterval, timeBudget)
+                                                         .aiSearchTime(searchTime);
+            for (AIController.Level level : seats) {
+                AIController controller = new AIController(level);
+                controllers.add(controller);
+                builder.controller(controller);
+            }
+            Engine engine = builder.build();
+            World world = engine.getWorld();
+
+            //Une mort subite dure au plus SUDDEN_DEATH_DURATION, on laisse une marge avant d'abandonner
+            final long maxTicks = (long)(rounds*(duration + WARMUP + 2*Local.SUDDEN_DEATH_DURATION)*world.getFps());
+
+            boolean roundEnded = false;
+            GameState state;
+            while ((state = engine.step()) != GameState.End) {
+                if (state == GameState.Playing || state == GameState.SuddenDeath) {
+                    if (!roundEnded && world.isRoundEnded()) {
+                        roundLengths.add(world.getTimeElapsed());
+                        winners.add(world.getWinnerID());
+                        roundEnded = true;
+                    }
+                } else if (state == GameState.WarmUp) {
+                    roundEnded = false;
+                }
+
+                if (engine.getTickCount() > maxTicks) {
+                    timedOut = true;
+                    break;
+                }
+            }
+            ticks = engine.getTickCount();
+        }
+    }
+
+    /**
+     * Statistiques d'une carte, d'un niveau ou d'un niveau sur une carte
+     */
+    public static class Statistics {
+        int rounds;
+
+        int seats;
+
+        int wins;
+
+        int draws;
+
+        long roundLength;
+
+        public int getRounds() {
+            return rounds;
+        }
+
+        public int getWins() {
+            return wins;
+        }
+
+        public int getDraws() {
+            return draws;
+        }
+
+        /**
+         * @return La part des places en round qui ont gagné
+         */
+        public double getWinRate() {
+            return seats == 0 ? 0 : (double)wins/seats;
+        }
+
+        /**
+         * @return La durée moyenne d'un round en images
+         */
+        public double getAverageRoundLength() {
+            return rounds == 0 ? 0 : (double)roundLength/rounds;
+        }
+    }
+
+    /**
+     * Résultats d'un tournoi
+     */
+    public class Report {
+        final java.util.Map<String, Statistics> maps = new LinkedHashMap<>();
+
+        final java.util.Map<AIController.Level, Statistics> levels = new LinkedHashMap<>();
+
+        final java.util.Map<String, Statistics> mapLevels = new LinkedHashMap<>();
+
+        int matches;
+
+        int timeouts;
+
+        long ticks;
+
+        long elapsed;
+
+        long plans;
+
+        long planningTime;
+
+        long overruns;
+
+        void add(Match match) {
+            matches++;
+            ticks += match.ticks;
+            if (match.timedOut)
+                timeouts++;
+
+            for (AIController controller : match.controllers) {
+                plans += controller.getPlanCount();
+                planningTime += controller.getPlanningTime();
+                overruns += controller.getOverrunCount();
+            }
+
+            Statistics mapStatistics = get(maps, match.map);
+            for (int round = 0; round < match.winners.size(); round++) {
+                int winner = match.winners.get(round);
+                int length = match.roundLengths.get(round);
+
+                mapStatistics.rounds++;
+                mapStatistics.seats += match.seats.length;
+                mapStatistics.roundLength += length;
+                if (winner < 0)
+                    mapStatistics.draws++;
+                else
+                    mapStatistics.wins++;
+
+                for (int seat = 0; seat < match.seats.length; seat++) {
+                    AIController.Level level = match.seats[seat];
+                    for (Statistics statistics : Arrays.asList(get(levels, level), get(mapLevels, match.map + " " + level.name()))) {
+                        statistics.seats++;
+                        if (seat == winner)
+                            statistics.wins++;
+                    }
+                }
+                //Un round par niveau présent, sans double compte quand un niveau occupe plusieurs places
+                for (AIController.Level level : new java.util.HashSet<>(Arrays.asList(match.seats))) {
+                    for (Statistics statistics : Arrays.asList(get(levels, level), get(mapLevels, match.map + " " + level.name()))) {
+                        statistics.rounds++;
+                        statistics.roundLength += length;
+                        if (winner < 0)
+                            statistics.draws++;
+                    }
+                }
+            }
+        }
+
+        private <K> Statistics get(java.util.Map<K, Statistics> statistics, K key) {
+            Statistics value = statistics.get(key);
+            if (value == null) {
+                value = new Statistics();
+                statistics.put(key, value);
+            }
+            return value;
+        }
+
+        public int getMatchCount() {
+            return matches;
+        }
+
+        /**
+         * @return Le nombre de matchs abandonnés car trop longs
+         */
+        public int getTimeoutCount() {
+            return timeouts;
+        }
+
+        public Statistics getMap(String map) {
+            return maps.get(map);
+        }
+
+        public Statistics getLevel(AIController.Level level) {
+            return levels.get(level);
+        }
+
+        public Statistics getMapLevel(String map, AIController.Level level) {
+            return mapLevels.get(map + " " + level.name());
+        }
+
+        /**
+         * @return Le nombre de matchs joués par seconde
+         */
+        public double getMatchesPerSecond() {
+            return matches/(elapsed/1e9);
+        }
+
+        /**
+         * @return Le nombre d'images calculées par seconde, tous matchs confondus
+         */
+        public double getTicksPerSecond() {
+            return ticks/(elapsed/1e9);
+        }
+
+        /**
+         * @return Le nombre de plans calculés par les IA
+         */
+        public long getPlanCount() {
+            return plans;
+        }
+
+        /**
+         * @return Le temps moyen de calcul d'un plan en nanosecondes
+         */
+        public double getAveragePlanningTime() {
+            return plans == 0 ? 0 : (double)planningTime/plans;
+        }
+
+        /**
+         * @return Le nombre de plans qui ont dépassé le budget de temps des IA
+         */
+        public long getOverrunCount() {
+            return overruns;
+        }
+
+        /**
+         * Affiche les résultats
+         * @param out Flux de sortie
+         */
+        public void print(PrintStream out) {
+            out.printf(Locale.ROOT, "%d matchs (%d abandonnés) en %.1f s avec %d threads : %.2f matchs/s, %.0f images/s%n",
+                       matches, timeouts, elapsed/1e9, parallelism, getMatchesPerSecond(), getTicksPerSecond());
+            out.printf(Locale.ROOT, "IA : %d plans (%.2f par image et par IA), %.0f ns par plan, %d dépassements du budget%n",
+                       plans, ticks == 0 ? 0 : (double)plans/ticks/playersPerMatch, getAveragePlanningTime(), overruns);
+
+            out.printf(Locale.ROOT, "%n%-16s %8s %8s %12s%n", "Carte", "Rounds", "Égalités", "Durée (s)");
+            for (java.util.Map.Entry<String, Statistics> entry : maps.entrySet()) {
+                Statistics statistics = entry.getValue();
+                out.printf(Locale.ROOT, "%-16s %8d %8d %12.1f%n", entry.getKey(), statistics.rounds,
+                           statistics.draws, statistics.getAverageRoundLength()/FPS);
+            }
+
+            out.printf(Locale.ROOT, "%n%-16s %8s %8s %10s%n", "Niveau", "Rounds", "Victoires", "Taux");
+            for (java.util.Map.Entry<AIController.Level, Statistics> entry : levels.entrySet()) {
+                Statistics statistics = entry.getValue();
+                out.printf(Locale.ROOT, "%-16s %8d %8d %9.1f%%%n", entry.getKey().name(), statistics.rounds,
+                           statistics.wins, 100*statistics.getWinRate());
+            }
+
+            out.printf(Locale.ROOT, "%n%-16s %-10s %8s %8s %10s%n", "Carte", "Niveau", "Rounds", "Victoires", "Taux");
+            for (String map : maps.keySet()) {
+                for (AIController.Level level : levels.keySet()) {
+                    Statistics statistics = getMapLevel(map, level);
+                    if (statistics != null)
+                        out.printf(Locale.ROOT, "%-16s %-10s %8d %8d %9.1f%%%n", map, level.name(), statistics.rounds,
+                                   statistics.wins, 100*statistics.getWinRate());
+                }
+            }
+        }
+    }
+
+    /**
+     * Lance un tournoi depuis la ligne de commande
+     * Options : --maps a,b --levels EASY,HARD --players n --matches n --rounds n
+     *           --duration s --seed n --threads n --ai-interval n --ai-budget ns --ai-search ns
+     * @param args Arguments lors de l'exécution
+     * @throws Exception si le tournoi a échoué
+     */
+    public static void main(String[] args) throws Exception {
+        Tournament tournament = new Tournament();
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            String value = args[i+1];
+            switch (args[i]) {
+            case "--maps":
+                tournament.setMaps(Arrays.asList(value.split(",")));
+                break;
+            case "--levels":
+                List<AIController.Level> levels = new ArrayList<>();
+                for (String level : value.split(","))
+                    levels.add(AIController.Level.valueOf(level));
+                tournament.setLevels(levels);
+                break;
+            case "--players":
+                tournament.setPlayersPerMatch(Integer.parseInt(value));
+                break;
+            case "--matches":
+                tournament.setMatchesPerMap(Integer.parseInt(value));
+                break;
+            case "--rounds":
+                tournament.setRounds(Integer.parseInt(value));
+                break;
+            case "--duration":
+                tournament.setDuration(Double.parseDouble(value));
+                break;
+            case "--seed":
+                tournament.setSeed(Long.parseLong(value));
+                break;
+            case "--threads":
+                tournament.setParallelism(Integer.parseInt(value));
+                break;
+            case "--ai-interval":
+                tournament.setPlanningInterval(Integer.parseInt(value));
+                break;
+            case "--ai-budget":
+                tournament.setTimeBudget(Long.parseLong(value));
+                break;
+            case "--ai-search":
+                tournament.setSearchTime(Long.parseLong(value));
+                break;
+            default:
+                throw new RuntimeException("Option inconnue : " + args[i]);
+            }
+        }
+
+        tournament.run().print(System.out);
+    }
+}
@@ -2,11 +2,15 @@ package game;
 
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.Collections;
 import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
-import java.util.Map.Entry;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 
 
 /** Cette classe coordonne l'ensemble des actions pendant une partie */
@@ -47,10 +51,35 @@ public abstract class World implements WorldView {
 
      Map map;
 
-     java.util.Map<Integer, Entity> entities = Collections.synchronizedMap(new HashMap<Integer, Entity> ());
+     EntityRegistry entities = new EntityRegistry();
+
+    /**
+     * Unique source d'aléatoire de la simulation, pour pouvoir rejouer une partie à l'identique
+     */
+     GameRandom random = new GameRandom();
 
     java.util.Map<Integer, Player> players = new HashMap<> ();
 
+    private volatile int humanCount;
+
+    /**
+     * Vérifie les compteurs entretenus en les comparant à un parcours complet
+     */
+    private boolean checkCounters;
+
+    /**
+     * Exécute les décisions des IA en parallèle, null pour les prendre sur le thread de simulation
+     */
+    private ForkJoinPool decisionPool = ForkJoinPool.commonPool();
+
+    private final List<Callable<Object>> decisions = new ArrayList<Callable<Object>>();
+
+    /** Copie de la partie prise au début de la phase de décision pour les IA qui explorent des futurs, null sinon */
+    private WorldFork decisionFork;
+
+    /** Identifiants des entités à retirer à la fin de l'image, liste réutilisée d'une image à l'autre */
+    private final List<Integer> toRemove = new ArrayList<Integer>();
+
      List<GameListener> listeners = new LinkedList<GameListener>();
 
     @Override
@@ -97,6 +126,20 @@ public abstract class World implements WorldView {
         return round;
     }
 
+    @Override
+    public Random getRandom() {
+        return random;
+    }
+
+    /**
+     * Fixe la graine du générateur aléatoire : deux parties avec la même graine et les mêmes
+     * actions se déroulent à l'identique
+     * @param seed Graine
+     */
+    public void setSeed(long seed) {
+        random.setSeed(seed);
+    }
+
     public void setRoundMax(int roundMax) {
         if (roundMax < 0)
             throw new RuntimeException("Round max not positive");
@@ -104,12 +147,12 @@ public abstract class World implements WorldView {
         this.roundMax = roundMax;
     }
 
+    /**
+     * @return Les entités de la partie, en lecture seule, sans verrou ni copie
+     */
     @Override
     public List<Entity> getEntities() {
-        //Thread-safety
-        synchronized (entities) {
-            return new LinkedList<Entity>(entities.values());
-        }
+        return entities.getSnapshot();
     }
 
     @Override
@@ -129,17 +172,53 @@ public abstract class World implements WorldView {
 
     @Override
     public int getCharacterCount() {
-        int sum = 0;
-        for (Entity entity : getEntities()) { //Thread-safety
-            if (entity instanceof Character) {
-                sum++;
-            }
-        }
-        return sum;
+        int count = entities.getCharacterCount();
+        if (checkCounters)
+            checkCounter("personnages", count, getCharacters().size());
+        return count;
     }
 
     @Override
     public int getHumanCount() {
+        int count = humanCount;
+        if (checkCounters)
+            checkCounter("humains", count, countHumans());
+        return count;
+    }
+
+    @Override
+    public int getHumanAliveCount() {
+        int count = entities.getHumanCharacterCount();
+        if (checkCounters) {
+            int sum = 0;
+            for(Character character : getCharacters()){
+                if(EntityRegistry.isHuman(character)){
+                    sum ++;
+                }
+            }
+            checkCounter("humains en vie", count, sum);
+        }
+        return count;
+    }
+
+    public boolean isCheckingCounters() {
+        return checkCounters;
+    }
+
+    /**
+     * Active ou non la vérification des compteurs de personnages et d'humains par un parcours complet
+     * @param checkCounters true pour lever une exception si un compteur est incohérent
+     */
+    public void setCheckCounters(boolean checkCounters) {
+        this.checkCounters = checkCounters;
+    }
+
+    private void checkCounter(String name, int count, int expected) {
+        if (count != expected)
+            throw new RuntimeException("Compteur de " + name + " incohérent : " + count + " au lieu de " + expected);
+    }
+
+    private int countHumans() {
         int sum = 0;
         for (Player player : getPlayers()) {
             if (!(player.getController() instanceof AIController))
@@ -148,15 +227,14 @@ public abstract class World implements WorldView {
         return sum;
     }
 
-    @Override
-    public int getHumanAliveCount() {
-        int sum = 0;
-        for(Entity entity : getEntities()){ //Thread-safety
-            if(entity instanceof Character && !(((Character)entity).getController() instanceof AIController)){
-                sum ++;
-            }
+    /**
+     * Recompte les humains après l'ajout ou le retrait d'un joueur ou un changement de contrôleur
+     */
+    void updatePlayerCounters() {
+        synchronized (players) {
+            humanCount = countHumans();
         }
-        return sum;
+        entities.recount();
     }
 
     public void setFps(int fps) {
@@ -204,6 +282,14 @@ public abstract class World implements WorldView {
         }
     }
 
+    /**
+     * @param instantChainReaction true pour que les bombes touchées par une explosion explosent
+     *                             dans la même image, false pour que leur compte à rebours s'accélère
+     */
+    public void setInstantChainReaction(boolean instantChainReaction) {
+        map.setInstantChainReaction(instantChainReaction);
+    }
+
     public void setTileSize(int tileSize) {
         map.setTileSize(tileSize);
     }
@@ -290,24 +376,145 @@ public abstract class World implements WorldView {
     }
 
     void roundUpdate() {
-        List<Integer> toRemove = new ArrayList<Integer>();
-
-        synchronized (entities) {
-            //update of Entities
-            for (Entry<Integer, Entity> entry : entities.entrySet()) {
-                Entity entity = entry.getValue();
-                entity.update();
-                if (entity.isToRemove())
-                    toRemove.add(entry.getKey());
-            }
+        updateControllers();
+
+        //update of Entities
+        List<Entity> snapshot = entities.getSnapshot();
+        for (int i = 0; i < snapshot.size(); i++) {
+            Entity entity = snapshot.get(i);
+            entity.update();
+            if (entity.isToRemove())
+                toRemove.add(entity.getID());
         }
 
-        removeEntities(toRemove);
+        if (!toRemove.isEmpty()) {
+            removeEntities(toRemove);
+            toRemove.clear();
+        }
 
         //update of the map
         map.update();
     }
 
+    /**
+     * Fait décider tous les contrôleurs avant de déplacer les entités : chaque décision se fonde
+     * sur l'état du monde au début de l'image, qui n'est pas modifié pendant cette phase.
+     * Les IA peuvent donc décider en parallèle ; les autres contrôleurs (clavier, réseau) décident
+     * sur le thread de simulation.
+     */
+    void updateControllers() {
+        decisions.clear();
+        //Sans parallélisme, les IA décident directement, sans tâche intermédiaire
+        boolean parallel = decisionPool != null && decisionPool.getParallelism() >= 2;
+        List<Character> characters = entities.getCharacterSnapshot();
+        forkForDecisions(characters);
+        try {
+            decideAll(characters, parallel);
+        } finally {
+            decisionFork = null;
+        }
+    }
+
+    /**
+     * Copie la partie une seule fois, sur le thread de simulation, si une IA va explorer des futurs
+     * pendant cette image ; les décisions ne font ensuite que lire cette copie
+     * @param characters Personnages de la partie
+     */
+    private void forkForDecisions(List<Character> characters) {
+        for (int i = 0; i < characters.size(); i++) {
+            Controller controller = characters.get(i).getController();
+            if (controller instanceof AIController && ((AIController)controller).isForkNeeded()) {
+                map.prepareConcurrentReads();
+                decisionFork = new WorldFork(this, 0);
+                return;
+            }
+        }
+    }
+
+    private void decideAll(List<Character> characters, boolean parallel) {
+        for (int i = 0; i < characters.size(); i++) {
+            final Controller controller = characters.get(i).getController();
+            if (controller == null)
+                continue;
+
+            if (parallel && controller instanceof AIController)
+                decisions.add(Executors.callable(new Runnable() {
+                    @Override
+                    public void run() {
+                        controller.update();
+                    }
+                }));
+            else
+                controller.update();
+        }
+
+        if (decisions.size() < 2) {
+            for (Callable<Object> decision : decisions) {
+                try {
+                    decision.call();
+                } catch (RuntimeException e) {
+                    throw e;
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            }
+            return;
+        }
+
+        //Les calculs paresseux de la carte sont faits avant de la partager entre les threads
+        map.prepareConcurrentReads();
+        for (Future<Object> decision : decisionPool.invokeAll(decisions)) {
+            try {
+                decision.get();
+            } catch (ExecutionException e) {
+                throw new RuntimeException("Erreur lors de la décision d'une IA", e.getCause());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException("Décision des IA interrompue", e);
+            }
+        }
+    }
+
+    /**
+     * @return La copie de la partie prise pour les décisions de cette image, null en dehors de la
+     *         phase de décision ou si aucune IA n'explore de futurs ; elle ne doit pas être modifiée
+     */
+    WorldFork getDecisionFork() {
+        return decisionFork;
+    }
+
+    /**
+     * @return Le groupe de threads qui exécute les décisions des IA, null si elles sont prises sur le thread de simulation
+     */
+    public ForkJoinPool getDecisionPool() {
+        return decisionPool;
+    }
+
+    /**
+     * @param decisionPool Groupe de threads qui exécute les décisions des IA, null pour les prendre sur le thread de simulation
+     */
+    public void setDecisionPool(ForkJoinPool decisionPool) {
+        this.decisionPool = decisionPool;
+    }
+
+    /**
+     * Reprend les horloges, le round et l'état de la mort subite d'une autre partie
+     * @param source Partie dont l'état est copié
+     */
+    void copyStateFrom(World source) {
+        fps = source.fps;
+        timeRemaining = source.timeRemaining;
+        duration = source.duration;
+        warmupDuration = source.warmupDuration;
+        restTimeDuration = source.restTimeDuration;
+        warmupTimeRemaining = source.warmupTimeRemaining;
+        restTimeRemaining = source.restTimeRemaining;
+        round = source.round;
+        roundMax = source.roundMax;
+        suddenDeathType = source.suddenDeathType;
+        nextID = source.nextID;
+    }
+
     void roundEndUpdate() {
         if (round < roundMax && restTimeRemaining <= 0) //On relance s'il reste des rounds
             nextRound();
@@ -316,6 +523,7 @@ public abstract class World implements WorldView {
     void removeEntities(Collection<Integer> entityIDs) {
         for (Integer id : entityIDs)
             entities.remove(id);
+        entities.publish();
     }
 
     void destroyEntities(Collection<Integer> entityIDs) {
@@ -345,7 +553,7 @@ public abstract class World implements WorldView {
 
         suddenDeathType = null;
 
-        destroyEntities(new ArrayList<>(entities.keySet()));
+        destroyEntities(entities.ids());
     }
 
     /**
@@ -361,15 +569,12 @@ public abstract class World implements WorldView {
 
     }
 
+    /**
+     * @return Les personnages de la partie, en lecture seule, sans verrou ni copie
+     */
     @Override
     public List<Character> getCharacters() {
-        List<Character> characterList = new LinkedList<Character>();
-        for(Entity entity : getEntities()){ //Thread-safety
-            if(entity instanceof Character){
-                characterList.add((Character)entity);
-            }
-        }
-        return characterList;
+        return entities.getCharacterSnapshot();
     }
 
     /**
@@ -399,6 +604,7 @@ public abstract class World implements WorldView {
         entity.setID(id);
         entity.setWorld(this);
         entities.put(id, entity);
+        entities.publish();
         map.addEntity(entity);
     }
 
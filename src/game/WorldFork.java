@@ -0,0 +1,131 @@
+package game;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+
+
+/**
+ * Copie indépendante d'une partie, que l'on peut faire avancer sans modifier l'originale
+ * Elle sert aux IA qui anticipent : la carte partage ses tuiles avec l'originale jusqu'à la
+ * première modification de l'une des deux, les entités et les joueurs sont copiés avec leurs
+ * identifiants. Les joueurs de la copie restent immobiles tant qu'on ne leur donne pas d'autre
+ * contrôleur. La copie n'a pas d'écouteur, prend ses décisions sur le thread qui la fait
+ * avancer et ne passe jamais au round suivant.
+ * Une copie ne doit être utilisée que par un seul thread à la fois, et la partie copiée ne
+ * doit pas être modifiée pendant la copie (par exemple pendant la phase de décision).
+ */
+class WorldFork extends Local {
+    /**
+     * Copie une partie
+     * @param source Partie à copier
+     * @param seed Graine du générateur aléatoire de la copie, la partie copiée n'est pas consultée
+     */
+    WorldFork(World source, long seed) {
+        copyStateFrom(source);
+        setDecisionPool(null);
+        random.setSeed(seed);
+
+        List<Entity> sourceEntities = source.entities.getSnapshot();
+        java.util.Map<Character, Character> characters = new IdentityHashMap<Character, Character>();
+        for (Entity entity : sourceEntities) {
+            if (entity instanceof Character) {
+                Character character = (Character)entity;
+                characters.put(character, new Character(this, character.x, character.y, character.lives,
+                        character.bombMax, character.range, character.invulnerability, null));
+            }
+        }
+
+        map = new Map(source.map, characters);
+        map.setRandom(random);
+
+        for (Player player : source.getPlayers())
+            players.put(player.getID(), new Player(player.getID(), player.getScore(), new DummyController(), null));
+
+        for (Entity entity : sourceEntities) {
+            Entity copy;
+            if (entity instanceof Character) {
+                Character character = characters.get(entity);
+                character.updateFrom(entity);
+                character.setCharacterAbilities(new ArrayList<Boolean>(character.characterAbilities));
+                Player player = ((Character)entity).getPlayer();
+                if (player != null && players.containsKey(player.getID()))
+                    players.get(player.getID()).setCharacter(character);
+                copy = character;
+            } else if (entity instanceof Bomb) {
+                Bomb bomb = (Bomb)entity;
+                Bomb bombCopy = new Bomb(this, bomb.x, bomb.y, bomb.range, bomb.duration);
+                bombCopy.updateFrom(bomb);
+                bombCopy.owner = characters.get(bomb.owner);
+                copy = bombCopy;
+            } else
+                throw new RuntimeException("Entité impossible à copier : " + entity.getClass().getName());
+
+            copy.setID(entity.getID());
+            entities.put(copy.getID(), copy);
+            map.addEntity(copy);
+        }
+
+        entities.publish();
+        updatePlayerCounters();
+    }
+
+    /**
+     * Copie cette copie, par exemple pour explorer plusieurs futurs à partir d'un même état
+     * @param seed Graine du générateur aléatoire de la nouvelle copie
+     * @return La nouvelle copie, dont les joueurs restent immobiles
+     */
+    WorldFork fork(long seed) {
+        return new WorldFork(this, seed);
+    }
+
+    /**
+     * Donne un contrôleur à un joueur de la copie
+     * @param playerID Identifiant du joueur
+     * @param controller Nouveau contrôleur
+     */
+    void setController(int playerID, Controller controller) {
+        Player player = players.get(playerID);
+        if (player == null)
+            throw new RuntimeException("Joueur inconnu : " + playerID);
+
+        player.setController(controller);
+        updatePlayerCounters();
+    }
+
+    /**
+     * @param playerID Identifiant du joueur
+     * @return Le personnage du joueur dans la copie, null s'il n'en a pas ou s'il est mort
+     */
+    Character getCharacter(int playerID) {
+        Player player = players.get(playerID);
+        if (player == null || player.getCharacter() == null || player.getCharacter().isToRemove())
+            return null;
+        return player.getCharacter();
+    }
+
+    /**
+     * Fait avancer la copie de quelques images, sans jamais passer au round suivant
+     * @param ticks Nombre d'images
+     * @return Le nombre d'images jouées, moins que ticks si le round s'est terminé avant
+     */
+    int step(int ticks) {
+        for (int i = 0; i < ticks; i++) {
+            if (isRoundEnded())
+                return i;
+            update();
+        }
+        return ticks;
+    }
+
+    /**
+     * Le round d'une copie se termine lorsqu'il reste au plus un personnage, que les
+     * joueurs soient humains ou non
+     */
+    @Override
+    public boolean isRoundEnded() {
+        if (getPlayerCount() == 1)
+            return getCharacterCount() <= 0;
+        return getCharacterCount() <= 1;
+    }
+}
@@ -1,6 +1,7 @@
 package game;
 
 import java.util.List;
+import java.util.Random;
 
 /** Cette interface est une vue des informations contenues dans le monde */
 public interface WorldView {
@@ -54,4 +55,9 @@ public interface WorldView {
 
     List<Character> getCharacters();
 
+    /**
+     * @return le générateur aléatoire de la partie, à n'utiliser que depuis le thread de simulation
+     */
+    Random getRandom();
+
 }
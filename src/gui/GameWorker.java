@@ -11,11 +11,10 @@ import java.util.List;
 import javax.swing.JOptionPane;
 import javax.swing.SwingUtilities;
 
-import game.AIController;
 import game.Client;
+import game.Engine;
 import game.GameEvent;
 import game.GameListener;
-import game.GameState;
 import game.Local;
 import game.Player;
 import game.Server;
@@ -37,6 +36,10 @@ public class GameWorker implements Runnable, GameListener {
 
     private GameViewer viewer;
 
+    private Engine engine;
+
+    private boolean adjustWindowSize;
+
     /**
      * Construit l'objet gérant l'exécution du jeu
      * @param mainWindow Fenêtre principale
@@ -56,19 +59,7 @@ public class GameWorker implements Runnable, GameListener {
         try {
             this.stop = false;
 
-            while (!stop && !world.isReady()) {
-                Thread.sleep(1000/settings.fps, 0);
-            }
-
-            final long timeStep = 1000000000/world.getFps();
-
-            long offset = 0;
-            long start = System.nanoTime();
-
-            //int frame = 0;
-            //long lastDisplay = System.nanoTime();
-
-            boolean adjustWindowSize = true;
+            adjustWindowSize = true;
 
             if (world instanceof Server)
                 SwingUtilities.invokeLater(() -> panel.setType("Serveur"));
@@ -77,89 +68,8 @@ public class GameWorker implements Runnable, GameListener {
             else if (world instanceof Client)
                 SwingUtilities.invokeLater(() -> panel.setType("Client @ " + ((Client)world).getInetAddress().toString()));
 
-            SwingUtilities.invokeLater(() -> panel.setMap(world.getMap().getName()));
-
-            while (!stop && world.update() != GameState.End) {
-                SwingUtilities.invokeLater(() -> panel.showGameStatus(world));
-                viewer.drawWorld(world);
-
-                if (adjustWindowSize) {
-                    SwingUtilities.invokeAndWait(() -> {
-                        Insets insets = viewer.getInsets();
-                        Dimension preferredSize = new Dimension();
-                        preferredSize.width = world.getMap().getColumnCount()*settings.scale(settings.tileSize)+insets.left+insets.right;
-                        preferredSize.height = world.getMap().getRowCount()*settings.scale(settings.tileSize)+insets.top+insets.bottom;
-                        viewer.setPreferredSize(preferredSize);
-                    });
-
-                    if (viewer.getScaleFactor() < 1) {
-                        SwingUtilities.invokeAndWait(() -> mainWindow.pack());
-                        // Laise le temps aux autres composants de s'actualiser
-                        SwingUtilities.invokeAndWait(() -> mainWindow.pack());
-                    }
-
-                    adjustWindowSize = false;
-                }
-
-                if (world.getWarmupTimeRemaining() > 0) {
-                    final String[] messages = new String[]{"Round " + world.getRound(), //Ralongement du temps
-                                                           "Round " + world.getRound(), //d'affichage
-                                                           "Round " + world.getRound(), //du round
-                                                           "À vos marques.",
-                                                           "Prêts.",
-                                                           "Jouez !"};
-                    int i = messages.length*(world.getWarmupDuration()-world.getWarmupTimeRemaining())/world.getWarmupDuration();
-                    if (!messages[i].equals(mainWindow.getMessageShown()))
-                        showMessage(messages[i], Color.black, 1000*world.getWarmupTimeRemaining()/world.getFps());
-                } else if (world.isRoundEnded()) {
-                    if (settings.gameType != GameType.Sandbox) {
-                        String message = null;
-                        Color color = null;
-
-                        String winnerName = world.getWinnerName();
-
-                        if (winnerName != null) {
-                            PlayerColor[] colors = PlayerColor.values();
-                            message = winnerName + " gagne !";
-                            color = colors[world.getWinnerID() % colors.length].toColor();
-                        } else if (world.getCharacterCount() > 1) {
-                            message = "Les IAs gagnent !";
-                            color = Color.black;
-                        } else {
-                            message = "Égalité !";
-                            color = Color.black;
-                        }
-
-                        if (!message.equals(mainWindow.getMessageShown())) {
-                            final String x = message;
-                            final Color y = color;
-
-                            if (world.getRestTimeRemaining() >= 10)
-                                showMessage(x, y, 1000*world.getRestTimeRemaining()/world.getFps());
-                            else
-                                showMessage(x, y, 10);
-                        }
-                    }
-                }
-
-                long duration = System.nanoTime() - start;
-
-                if (timeStep-duration-offset > 0) {
-                    Thread.sleep((timeStep-duration-offset)/1000000, (int)(timeStep-duration-offset)%1000000);
-                }
-
-                offset += (System.nanoTime() - start) - timeStep;
-
-                start = System.nanoTime();
-
-                /*frame++;
-
-                if (System.nanoTime() - lastDisplay >= 1000000000) {
-                    System.out.println(frame*(System.nanoTime() - lastDisplay)/1000000000 + " FPS");
-                    frame = 0;
-                    lastDisplay = System.nanoTime();
-                }*/
-            }
+            engine.setTickListener(state -> showTick());
+            engine.play();
 
             if (!stop) {
                 if (settings.gameType == GameType.Client && !((Client)world).isConnected())
@@ -220,6 +130,77 @@ public class GameWorker implements Runnable, GameListener {
         }
     }
 
+    /**
+     * Affiche l'état de la partie à la fin d'une image
+     * @throws Exception s'il y a une erreur lors de l'affichage
+     */
+    private void showTick() throws Exception {
+        if (adjustWindowSize)
+            SwingUtilities.invokeLater(() -> panel.setMap(world.getMap().getName()));
+
+        SwingUtilities.invokeLater(() -> panel.showGameStatus(world));
+        viewer.drawWorld(world);
+
+        if (adjustWindowSize) {
+            SwingUtilities.invokeAndWait(() -> {
+                Insets insets = viewer.getInsets();
+                Dimension preferredSize = new Dimension();
+                preferredSize.width = world.getMap().getColumnCount()*settings.scale(settings.tileSize)+insets.left+insets.right;
+                preferredSize.height = world.getMap().getRowCount()*settings.scale(settings.tileSize)+insets.top+insets.bottom;
+                viewer.setPreferredSize(preferredSize);
+            });
+
+            if (viewer.getScaleFactor() < 1) {
+                SwingUtilities.invokeAndWait(() -> mainWindow.pack());
+                // Laise le temps aux autres composants de s'actualiser
+                SwingUtilities.invokeAndWait(() -> mainWindow.pack());
+            }
+
+            adjustWindowSize = false;
+        }
+
+        if (world.getWarmupTimeRemaining() > 0) {
+            final String[] messages = new String[]{"Round " + world.getRound(), //Ralongement du temps
+                                                   "Round " + world.getRound(), //d'affichage
+                                                   "Round " + world.getRound(), //du round
+                                                   "À vos marques.",
+                                                   "Prêts.",
+                                                   "Jouez !"};
+            int i = messages.length*(world.getWarmupDuration()-world.getWarmupTimeRemaining())/world.getWarmupDuration();
+            if (!messages[i].equals(mainWindow.getMessageShown()))
+                showMessage(messages[i], Color.black, 1000*world.getWarmupTimeRemaining()/world.getFps());
+        } else if (world.isRoundEnded()) {
+            if (settings.gameType != GameType.Sandbox) {
+                String message = null;
+                Color color = null;
+
+                String winnerName = world.getWinnerName();
+
+                if (winnerName != null) {
+                    PlayerColor[] colors = PlayerColor.values();
+                    message = winnerName + " gagne !";
+                    color = colors[world.getWinnerID() % colors.length].toColor();
+                } else if (world.getCharacterCount() > 1) {
+                    message = "Les IAs gagnent !";
+                    color = Color.black;
+                } else {
+                    message = "Égalité !";
+                    color = Color.black;
+                }
+
+                if (!message.equals(mainWindow.getMessageShown())) {
+                    final String x = message;
+                    final Color y = color;
+
+                    if (world.getRestTimeRemaining() >= 10)
+                        showMessage(x, y, 1000*world.getRestTimeRemaining()/world.getFps());
+                    else
+                        showMessage(x, y, 10);
+                }
+            }
+        }
+    }
+
     private void showMessage(String message, Color color, int duration) {
         SwingUtilities.invokeLater(() -> mainWindow.showMessage(message, color, duration, viewer));
     }
@@ -244,6 +225,8 @@ public class GameWorker implements Runnable, GameListener {
      */
     public void stop() {
         this.stop = true;
+        if (engine != null)
+            engine.stop();
     }
 
     /**
@@ -260,30 +243,23 @@ public class GameWorker implements Runnable, GameListener {
             if (settings.randomMaps)
                 Collections.shuffle(maps);
 
-            if (settings.gameType.equals(GameType.Local) || settings.gameType.equals(GameType.Sandbox)) {
-                world = new Local(maps,
-                                  settings.tileSize,
-                                  settings.fps,
-                                  settings.roundCount,
-                                  settings.duration*settings.fps,
-                                  (int)(settings.warmupDuration*settings.fps),
-                                  (int)(settings.restTimeDuration*settings.fps));
-            } else {
-                world = new Server(maps,
-                                   settings.tileSize,
-                                   settings.fps,
-                                   settings.roundCount,
-                                   settings.duration*settings.fps,
-                                   (int)(settings.warmupDuration*settings.fps),
-                                   (int)(settings.restTimeDuration*settings.fps));
-            }
+            Engine.Builder builder = new Engine.Builder()
+                    .maps(maps)
+                    .tileSize(settings.tileSize)
+                    .fps(settings.fps)
+                    .rounds(settings.roundCount)
+                    .duration(settings.duration)
+                    .warmup(settings.warmupDuration)
+                    .restTime(settings.restTimeDuration)
+                    .server(settings.gameType.equals(GameType.Server));
 
-            addKeyboardControllers();
+            for (KeyboardController kbController : newKeyboardControllers())
+                builder.controller(kbController);
 
-            for (int i = 0; i < settings.aiCount; i++) {
-                AIController aiController = new AIController(settings.aiLevel);
-                world.newPlayer(aiController);
-            }
+            builder.ai(settings.aiLevel, settings.aiCount);
+
+            engine = builder.build();
+            world = engine.getWorld();
 
             if (settings.gameType.equals(GameType.Local) && world.getPlayerCount() <= 1)
                 throw new Exception("Il faut au moins deux joueurs !");
@@ -292,7 +268,11 @@ public class GameWorker implements Runnable, GameListener {
                 world = new Client();
             else
                 world = new Client(InetAddress.getByName(settings.ipAddress));
-            addKeyboardControllers();
+
+            for (KeyboardController kbController : newKeyboardControllers())
+                world.newPlayer(kbController);
+
+            engine = new Engine(world);
         } else {
             throw new Exception("Non implémenté !");
         }
@@ -302,13 +282,16 @@ public class GameWorker implements Runnable, GameListener {
     }
 
     /**
-     * Ajoute des controleurs clavier au jeu
+     * Crée les controleurs clavier du jeu
+     * @return Les contrôleurs, déjà reliés à l'affichage
      */
-    private void addKeyboardControllers() {
+    private List<KeyboardController> newKeyboardControllers() {
+        List<KeyboardController> controllers = new ArrayList<>();
         for (int i = 0; i < Math.min(settings.playerCount, settings.controls.size()); i++) {
             KeyboardController kbController = new KeyboardController(settings.controls.get(i));
             viewer.addKeyListener(kbController);
-            world.newPlayer(kbController);
+            controllers.add(kbController);
         }
+        return controllers;
     }
 }
@@ -1,7 +1,7 @@
 package network;
 
-import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import com.esotericsoftware.kryonet.Connection;
 
@@ -13,12 +13,19 @@ import game.Player;
 public class GameConnection extends Connection {
      List<Player> players;
 
+    /** Dernier instantané des entités dont le client a accusé réception, -1 pour aucun */
+    private volatile int snapshotAck = -1;
+
+    /** Salle rejointe sur un serveur dédié, -1 pour aucune */
+    private volatile int room = -1;
+
     /**
      * Construit une connexion
      */
     public GameConnection() {
         super();
-        players = new ArrayList<Player>();
+        //Lue par le thread de simulation pendant que le thread réseau ajoute des joueurs
+        players = new CopyOnWriteArrayList<Player>();
     }
 
     /***
@@ -36,4 +43,31 @@ public class GameConnection extends Connection {
         return players;
     }
 
+    /**
+     * Enregistre l'accusé de réception d'un instantané, les accusés en retard sont ignorés
+     * @param sequence Numéro de l'instantané reçu par le client
+     */
+    public void ackSnapshot(int sequence) {
+        if (sequence > snapshotAck)
+            snapshotAck = sequence;
+    }
+
+    /**
+     * @return Le dernier instantané reçu par le client, -1 s'il n'en a reçu aucun
+     */
+    public int getSnapshotAck() {
+        return snapshotAck;
+    }
+
+    /**
+     * @return La salle rejointe sur un serveur dédié, -1 si aucune
+     */
+    public int getRoom() {
+        return room;
+    }
+
+    public void setRoom(int room) {
+        this.room = room;
+    }
+
 }
@@ -2,7 +2,6 @@ package network;
 
 import java.util.ArrayList;
 import java.util.LinkedList;
-import java.util.List;
 
 import com.esotericsoftware.kryo.Kryo;
 import com.esotericsoftware.kryonet.EndPoint;
@@ -11,7 +10,6 @@ import game.Bomb;
 import game.BonusType;
 import game.Character;
 import game.CharacterAbility;
-import game.Controller;
 import game.Direction;
 import game.Entity;
 import game.ExplosionType;
@@ -29,16 +27,20 @@ public class Network {
 
     public static final int udpPort = 7373;
 
+    /** Salle rejointe par défaut sur un serveur dédié */
+    public static final int DEFAULT_ROOM = 0;
+
 // This registers objects that are going to be sent over the network.
     public static void register(EndPoint endPoint) {
         Kryo kryo = endPoint.getKryo();
         kryo.register(Object.class);
         kryo.register(Object[].class);
+        kryo.register(byte[].class);
+        kryo.register(int[].class);
         kryo.register(String.class);
         kryo.register(LinkedList.class);
         kryo.register(ArrayList.class);
-        kryo.register(CommandMap.class);
-        kryo.register(CommandMap.Name.class);
+        kryo.register(MapUpdate.class);
         kryo.register(Player.class);
         kryo.register(TileType.class);
         kryo.register(BonusType.class);
@@ -50,12 +52,11 @@ public class Network {
         kryo.register(CharacterAbility.class);
         kryo.register(Bomb.class);
 
-        kryo.register(GameInfo.class);
         kryo.register(PlayerInfo.class);
         kryo.register(EntityPlayer.class);
         kryo.register(AddController.class);
         kryo.register(ControllerPlayer.class);
-        kryo.register(ControllerUpdate.class);
+        kryo.register(InputBatch.class);
         kryo.register(TimeRemaining.class);
         kryo.register(WarmupTimeRemaining.class);
         kryo.register(SuddenDeathType.class);
@@ -63,36 +64,28 @@ public class Network {
         kryo.register(NextRound.class);
         kryo.register(EntityToRemove.class);
         kryo.register(PlayerToRemove.class);
-        kryo.register(EntityUpdateList.class);
+        kryo.register(EntitySnapshotUpdate.class);
+        kryo.register(SnapshotAck.class);
+        kryo.register(JoinRoom.class);
+        kryo.register(WorldChunk.class);
         kryo.register(GameEvent.class);
     }
 
     private Network() {
     }
 
-    public static class CommandMap {
-        public Name name;
-
-        public Object[] args;
+    /**
+     * Modifications de la carte, codées par game.DeltaMap
+     */
+    public static class MapUpdate {
+        public byte[] data;
 
-        public CommandMap() {
-        }
-
-        public CommandMap(Name name, Object... objects) {
-            this.name = name;
-            args = objects;
+        public MapUpdate() {
         }
 
-        public enum Name {
-            setName,
-            loadMap,
-            setTileType,
-            setBonusType,
-            setArrowDirection,
-            setExplosion,
-            setExplosionEnd;
+        public MapUpdate(byte[] data) {
+            this.data = data;
         }
-
     }
 
     public static class PlayerInfo {
@@ -150,22 +143,74 @@ public class Network {
 
     }
 
-    public static class ControllerUpdate {
-        public int id;
+    /**
+     * Entrées des contrôleurs d'un client pour les dernières images, une par contrôleur et par
+     * image de la plus ancienne à la plus récente : une entrée perdue est renvoyée avec les
+     * suivantes et le serveur ignore celles qu'il a déjà reçues
+     */
+    public static class InputBatch {
+        private static final Direction[] DIRECTIONS = Direction.values();
+
+        private static final int BOMBING = 1 << 3;
+
+        /** Numéro de l'entrée la plus récente, croissant à chaque image du client */
+        public int sequence;
 
-        public Direction direction;
+        public int controllerCount;
 
-        public boolean bombing;
+        /** Entrées codées par encode(), controllerCount par image */
+        public byte[] inputs;
+
+        public InputBatch() {
+        }
 
-        public ControllerUpdate() {
+        public InputBatch(int sequence, int controllerCount, byte[] inputs) {
+            this.sequence = sequence;
+            this.controllerCount = controllerCount;
+            this.inputs = inputs;
         }
 
-        public ControllerUpdate(int id, Controller controller) {
-            this.id = id;
-            this.direction = controller.getDirection();
-            this.bombing = controller.isPlantingBomb();
+        /**
+         * Le paquet vient du client : il est ignoré s'il n'a pas ce format
+         * @return true si le paquet contient au moins un contrôleur, une entrée par contrôleur pour
+         *         chaque image, des numéros positifs et des directions connues
+         */
+        public boolean isValid() {
+            if (controllerCount <= 0 || inputs == null || inputs.length % controllerCount != 0 || getFirstSequence() < 0)
+                return false;
+
+            for (byte input : inputs) {
+                if ((input & (BOMBING-1)) > DIRECTIONS.length)
+                    return false;
+            }
+            return true;
         }
 
+        /**
+         * @return Le numéro de la plus ancienne entrée du paquet, qui doit être valide
+         */
+        public int getFirstSequence() {
+            return sequence - inputs.length/controllerCount + 1;
+        }
+
+        /**
+         * Code l'entrée d'un contrôleur sur un octet : direction (0 pour aucune) et pose de bombe
+         * @param direction Direction demandée
+         * @param bombing true si une bombe est posée
+         * @return L'entrée codée
+         */
+        public static byte encode(Direction direction, boolean bombing) {
+            return (byte)((direction == null ? 0 : direction.ordinal()+1) | (bombing ? BOMBING : 0));
+        }
+
+        public static Direction getDirection(byte input) {
+            int direction = input & (BOMBING-1);
+            return direction == 0 ? null : DIRECTIONS[direction-1];
+        }
+
+        public static boolean isBombing(byte input) {
+            return (input & BOMBING) != 0;
+        }
     }
 
     public static class TimeRemaining {
@@ -242,16 +287,75 @@ public class Network {
     public static class NextRound {
     }
 
-    public static class EntityUpdateList {
+    /**
+     * État des entités envoyé à un client, codé par différence avec l'instantané de base qu'il
+     * a accusé (voir game.EntitySnapshot)
+     */
+    public static class EntitySnapshotUpdate {
+        public int sequence;
+        public int baseSequence;
         public int timestamp;
-        public ArrayList<Entity> entities;
+        public byte[] data;
+        /** Dernière entrée appliquée par le serveur pour chaque contrôleur du client, -1 pour aucune */
+        public int[] inputSequences;
 
-        public EntityUpdateList() {
+        public EntitySnapshotUpdate() {
         }
 
-        public EntityUpdateList(int timestamp, List<Entity> entities) {
+        public EntitySnapshotUpdate(int sequence, int baseSequence, int timestamp, byte[] data, int[] inputSequences) {
+            this.sequence = sequence;
+            this.baseSequence = baseSequence;
             this.timestamp = timestamp;
-            this.entities = new ArrayList<>(entities);
+            this.data = data;
+            this.inputSequences = inputSequences;
+        }
+    }
+
+    /**
+     * Accusé de réception d'un instantané, qui peut ensuite servir de base
+     */
+    public static class SnapshotAck {
+        public int sequence;
+
+        public SnapshotAck() {
+        }
+
+        public SnapshotAck(int sequence) {
+            this.sequence = sequence;
+        }
+    }
+
+    /**
+     * Demande du client pour rejoindre une salle d'un serveur dédié, ignorée par un serveur seul
+     */
+    public static class JoinRoom {
+        public int room;
+
+        public JoinRoom() {
+        }
+
+        public JoinRoom(int room) {
+            this.room = room;
+        }
+    }
+
+    /**
+     * Morceau de l'état de la partie envoyé à un client qui la rejoint, codé par game.JoinState
+     */
+    public static class WorldChunk {
+        public int index;
+
+        public int count;
+
+        public byte[] data;
+
+        public WorldChunk() {
+        }
+
+        public WorldChunk(int index, int count, byte[] data) {
+            this.index = index;
+            this.count = count;
+            this.data = data;
         }
     }
 
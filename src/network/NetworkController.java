@@ -1,7 +1,9 @@
 package network;
 
+import java.util.Arrays;
+
 import game.DummyController;
-import network.Network.ControllerUpdate;
+import network.Network.InputBatch;
 
 /**
  * Ce contrôleur permet la synchronisation avec un client pour contrôler le joueur côté serveur
@@ -11,10 +13,26 @@ public class NetworkController extends DummyController {
 
      GameConnection connection;
 
+    /** Nombre d'entrées reçues gardées en attente d'être appliquées */
+    static final int INPUT_BUFFER = 64;
+
+    /** Nombre d'entrées en attente au-delà duquel les plus anciennes sont sautées, en images */
+    static final int MAX_INPUT_BACKLOG = 4;
+
+    //Entrées reçues indexées par numéro, avec le numéro de chacune pour reconnaître les cases libres
+    private final byte[] inputs = new byte[INPUT_BUFFER];
+
+    private final int[] inputSequences = new int[INPUT_BUFFER];
+
+    private int receivedSequence = -1;
+
+    private int appliedSequence = -1;
+
     /**
      * Constructeur par défaut
      */
     public NetworkController() {
+        Arrays.fill(inputSequences, -1);
     }
 
     /**
@@ -24,6 +42,7 @@ public class NetworkController extends DummyController {
      * @param name Nom associé contrôleur
      */
     public NetworkController(GameConnection connection, int id, String name) {
+        this();
         this.connection = connection;
         this.id = id;
         setName(name);
@@ -38,12 +57,56 @@ public class NetworkController extends DummyController {
     }
 
     /**
-     * Met à jour le contrôleur avec de nouvelles informations
-     * @param update Nouvelles informations
+     * Reçoit une entrée du client, appelée par le thread réseau
+     * Les entrées déjà reçues, renvoyées par redondance, et celles trop anciennes sont ignorées.
+     * @param sequence Numéro de l'entrée
+     * @param input Entrée codée par InputBatch.encode()
+     */
+    public synchronized void receive(int sequence, byte input) {
+        int slot = sequence % INPUT_BUFFER;
+        if (sequence <= appliedSequence || sequence <= receivedSequence - INPUT_BUFFER || inputSequences[slot] == sequence)
+            return;
+
+        inputs[slot] = input;
+        inputSequences[slot] = sequence;
+        if (sequence > receivedSequence)
+            receivedSequence = sequence;
+    }
+
+    /**
+     * Applique l'entrée suivante, au début de l'image du serveur
+     * Une entrée par image est appliquée, dans l'ordre ; les entrées perdues malgré la redondance
+     * ou trop en retard sont sautées, mais leurs poses de bombe sont gardées. Sans nouvelle
+     * entrée, le personnage garde sa direction et ne pose pas de bombe.
+     */
+    @Override
+    public synchronized void update() {
+        bombing = false;
+        if (receivedSequence <= appliedSequence)
+            return;
+
+        int next = Math.max(appliedSequence+1, receivedSequence-MAX_INPUT_BACKLOG);
+        for (int sequence = Math.max(appliedSequence+1, receivedSequence-INPUT_BUFFER+1); sequence < next; sequence++)
+            bombing |= isReceived(sequence) && InputBatch.isBombing(inputs[sequence % INPUT_BUFFER]);
+
+        while (!isReceived(next))
+            next++;
+
+        byte input = inputs[next % INPUT_BUFFER];
+        direction = InputBatch.getDirection(input);
+        bombing |= InputBatch.isBombing(input);
+        appliedSequence = next;
+    }
+
+    private boolean isReceived(int sequence) {
+        return inputSequences[sequence % INPUT_BUFFER] == sequence;
+    }
+
+    /**
+     * @return Le numéro de la dernière entrée appliquée, -1 si aucune ne l'a été
      */
-    public void update(ControllerUpdate update) {
-        direction = update.direction;
-        bombing = update.bombing;
+    public int getAppliedSequence() {
+        return appliedSequence;
     }
 
 }
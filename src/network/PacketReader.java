@@ -0,0 +1,70 @@
+package network;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Lit un paquet écrit par PacketWriter
+ */
+public class PacketReader {
+    private final byte[] data;
+
+    private int position;
+
+    /**
+     * Construit un lecteur au début d'un paquet
+     * @param data Octets du paquet
+     */
+    public PacketReader(byte[] data) {
+        this.data = data;
+    }
+
+    /**
+     * @return true s'il reste des octets à lire
+     */
+    public boolean hasRemaining() {
+        return position < data.length;
+    }
+
+    /**
+     * @return L'octet suivant, entre 0 et 255
+     */
+    public int readByte() {
+        if (position >= data.length)
+            throw new RuntimeException("Paquet tronqué");
+        return data[position++] & 0xFF;
+    }
+
+    /**
+     * @return L'entier positif suivant
+     */
+    public int readVarInt() {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            int b = readByte();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0)
+                return value;
+        }
+        throw new RuntimeException("Entier mal formé dans le paquet");
+    }
+
+    /**
+     * @return La chaîne suivante, écrite par PacketWriter.writeString
+     */
+    public String readString() {
+        int length = readVarInt();
+        if (length < 0 || length > data.length - position)
+            throw new RuntimeException("Paquet tronqué");
+        String value = new String(data, position, length, StandardCharsets.UTF_8);
+        position += length;
+        return value;
+    }
+
+    /**
+     * @return L'entier signé suivant
+     */
+    public int readSignedVarInt() {
+        int value = readVarInt();
+        return (value >>> 1) ^ -(value & 1);
+    }
+}
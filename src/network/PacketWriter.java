@@ -0,0 +1,112 @@
+package network;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Écrit un paquet binaire compact : octets et entiers à longueur variable (7 bits par octet)
+ * Le tampon grandit à la demande et peut être réutilisé d'un paquet à l'autre.
+ */
+public class PacketWriter {
+    private byte[] buffer;
+
+    private int size;
+
+    /**
+     * Construit un paquet vide
+     */
+    public PacketWriter() {
+        buffer = new byte[256];
+    }
+
+    /**
+     * Vide le paquet pour en écrire un nouveau
+     */
+    public void reset() {
+        size = 0;
+    }
+
+    /**
+     * @return Le nombre d'octets écrits
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Écrit un octet
+     * @param value Valeur, seuls les 8 bits de poids faible sont gardés
+     */
+    public void writeByte(int value) {
+        if (size == buffer.length)
+            buffer = Arrays.copyOf(buffer, 2*size);
+        buffer[size++] = (byte)value;
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity > buffer.length)
+            buffer = Arrays.copyOf(buffer, Math.max(capacity, 2*buffer.length));
+    }
+
+    /**
+     * Écrit un entier positif sur 1 à 5 octets
+     * @param value Valeur, lue comme un entier non signé
+     */
+    public void writeVarInt(int value) {
+        while ((value & ~0x7F) != 0) {
+            writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        writeByte(value);
+    }
+
+    /**
+     * @param value Valeur positive ou nulle
+     * @return Le nombre d'octets écrits par writeVarInt
+     */
+    public static int varIntSize(int value) {
+        int bytes = 1;
+        while ((value & ~0x7F) != 0) {
+            value >>>= 7;
+            bytes++;
+        }
+        return bytes;
+    }
+
+    /**
+     * Écrit un entier signé : les petites valeurs négatives restent courtes
+     * @param value Valeur
+     */
+    public void writeSignedVarInt(int value) {
+        writeVarInt((value << 1) ^ (value >> 31));
+    }
+
+    /**
+     * Écrit une chaîne en UTF-8 précédée de sa longueur
+     * @param value Chaîne
+     */
+    public void writeString(String value) {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        writeVarInt(bytes.length);
+        ensureCapacity(size+bytes.length);
+        System.arraycopy(bytes, 0, buffer, size, bytes.length);
+        size += bytes.length;
+    }
+
+    /**
+     * Recopie à la suite le contenu d'un autre paquet
+     * @param other Paquet à recopier
+     */
+    public void append(PacketWriter other) {
+        ensureCapacity(size+other.size);
+        System.arraycopy(other.buffer, 0, buffer, size, other.size);
+        size += other.size;
+    }
+
+    /**
+     * @return Une copie des octets écrits
+     */
+    public byte[] toByteArray() {
+        return Arrays.copyOf(buffer, size);
+    }
+}